@@ -0,0 +1,114 @@
+package moltsen.AI.NaiveBayes.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import moltsen.AI.NaiveBayes.CompiledClassifier;
+import moltsen.AI.NaiveBayes.DataStructureException;
+import moltsen.AI.NaiveBayes.NaiveBayesClassifier;
+import moltsen.AI.NaiveBayes.RankedLabel;
+
+/**
+ * Throughput of the classification paths on a synthetic model. Each invocation
+ * classifies the next of a fixed set of queries.
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifyBenchmark {
+	private static final int QUERY_COUNT = 1024;
+
+	@Param({ "3", "100", "1000" })
+	public int classes;
+
+	@Param({ "10", "100" })
+	public int features;
+
+	@Param({ "2", "10" })
+	public int states;
+
+	@Param({ "2", "10" })
+	public int observations;
+
+	private NaiveBayesClassifier classifier;
+	private CompiledClassifier compiled;
+	private List<HashMap<String, String>> queries;
+	private int[][] encoded;
+	private double[] posteriors;
+	private int next;
+
+
+	@Setup
+	public void setUp() throws DataStructureException {
+		classifier = SyntheticModels.build(classes, features, states);
+		compiled = classifier.compile();
+		queries = SyntheticModels.queries(QUERY_COUNT, features, states, observations);
+		posteriors = new double[classes];
+		encoded = new int[QUERY_COUNT][];
+		for (int i = 0; i < QUERY_COUNT; i++) {
+			encoded[i] = compiled.encode(queries.get(i));
+		}
+	}
+
+
+	private int nextQuery() {
+		next = (next + 1) & (QUERY_COUNT - 1);
+		return next;
+	}
+
+
+	@Benchmark
+	public Double[] classify() throws DataStructureException {
+		return classifier.classify(queries.get(nextQuery()));
+	}
+
+
+	@Benchmark
+	public double[] classifyCompiled() throws DataStructureException {
+		return compiled.classify(queries.get(nextQuery()));
+	}
+
+
+	@Benchmark
+	public double[] classifyEncoded() throws DataStructureException {
+		return compiled.classify(encoded[nextQuery()]);
+	}
+
+
+	@Benchmark
+	public double[] classifyInto() throws DataStructureException {
+		compiled.classify(encoded[nextQuery()], posteriors);
+		return posteriors;
+	}
+
+
+	@Benchmark
+	public double[] classifyLogSpace() throws DataStructureException {
+		return compiled.classifyLogSpace(encoded[nextQuery()]);
+	}
+
+
+	@Benchmark
+	public RankedLabel[] classifyTop1() throws DataStructureException {
+		return compiled.classifyTopK(encoded[nextQuery()], 1);
+	}
+}
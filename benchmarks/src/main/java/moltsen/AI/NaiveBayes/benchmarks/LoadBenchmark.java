@@ -0,0 +1,80 @@
+package moltsen.AI.NaiveBayes.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import moltsen.AI.NaiveBayes.BinaryClassifier;
+import moltsen.AI.NaiveBayes.DataStructureException;
+import moltsen.AI.NaiveBayes.NaiveBayesBinary;
+import moltsen.AI.NaiveBayes.NaiveBayesClassifier;
+import moltsen.AI.NaiveBayes.NaiveBayesJson;
+
+/**
+ * Average time of loading a synthetic model from the JSON and binary formats,
+ * from memory so the disk is not measured.
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+	@Param({ "3", "100", "1000" })
+	public int classes;
+
+	@Param({ "10", "100" })
+	public int features;
+
+	@Param({ "2", "10" })
+	public int states;
+
+	private byte[] json;
+	private ByteBuffer binary;
+
+
+	@Setup
+	public void setUp() throws IOException, DataStructureException {
+		NaiveBayesClassifier model = SyntheticModels.build(classes, features, states);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		NaiveBayesJson.write(model, out);
+		json = out.toByteArray();
+		binary = NaiveBayesBinary.toDirectBuffer(model);
+	}
+
+
+	@Benchmark
+	public NaiveBayesClassifier readJson() throws IOException, DataStructureException {
+		return NaiveBayesJson.read(new ByteArrayInputStream(json));
+	}
+
+
+	@Benchmark
+	public BinaryClassifier openBinary() throws DataStructureException {
+		return new BinaryClassifier(binary);
+	}
+
+
+	@Benchmark
+	public NaiveBayesClassifier readBinary() throws DataStructureException {
+		return new BinaryClassifier(binary).toClassifier();
+	}
+}
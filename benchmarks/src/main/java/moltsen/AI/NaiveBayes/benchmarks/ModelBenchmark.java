@@ -0,0 +1,73 @@
+package moltsen.AI.NaiveBayes.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import moltsen.AI.NaiveBayes.DataStructureException;
+import moltsen.AI.NaiveBayes.NaiveBayesClassifier;
+
+/**
+ * Average time of building, validating and compiling a synthetic model. The
+ * removals are in {@link ModelRemovalBenchmark}.
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+	@Param({ "3", "100", "1000" })
+	public int classes;
+
+	@Param({ "10", "100" })
+	public int features;
+
+	@Param({ "2", "10" })
+	public int states;
+
+	private NaiveBayesClassifier model;
+	private double firstPrior;
+
+
+	@Setup
+	public void setUp() throws DataStructureException {
+		model = SyntheticModels.build(classes, features, states);
+		firstPrior = model.getPriorProbabilities()[0];
+	}
+
+
+	@Benchmark
+	public NaiveBayesClassifier construct() throws DataStructureException {
+		return SyntheticModels.build(classes, features, states);
+	}
+
+
+	@Benchmark
+	public void validate() throws DataStructureException {
+		// Touch the model, so the validation is not answered from the cache:
+		model.setPriorProbability(SyntheticModels.classLabel(0), firstPrior);
+		model.validate();
+	}
+
+
+	@Benchmark
+	public Object compile() throws DataStructureException {
+		model.setPriorProbability(SyntheticModels.classLabel(0), firstPrior);
+		return model.compile();
+	}
+}
@@ -0,0 +1,83 @@
+package moltsen.AI.NaiveBayes.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import moltsen.AI.NaiveBayes.DataStructureException;
+import moltsen.AI.NaiveBayes.NaiveBayesClassifier;
+
+/**
+ * Average time of removing a class label, feature or state from a synthetic model.
+ *
+ * <p>Each removal works on a fresh copy made before each invocation, so these are
+ * only meaningful for models that take well over a microsecond to change (see the
+ * JMH notes on <code>Level.Invocation</code>). The copies have a state of their
+ * own, so the other model benchmarks do not pay for them.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelRemovalBenchmark {
+	@Param({ "3", "100", "1000" })
+	public int classes;
+
+	@Param({ "10", "100" })
+	public int features;
+
+	@Param({ "2", "10" })
+	public int states;
+
+	private NaiveBayesClassifier model;
+	private NaiveBayesClassifier copy;
+
+
+	@Setup
+	public void setUp() throws DataStructureException {
+		model = SyntheticModels.build(classes, features, states);
+	}
+
+
+	@Setup(Level.Invocation)
+	public void copyModel() {
+		copy = new NaiveBayesClassifier(model);
+	}
+
+
+	@Benchmark
+	public NaiveBayesClassifier removeLabel() throws DataStructureException {
+		copy.removeLabel(SyntheticModels.classLabel(0));
+		return copy;
+	}
+
+
+	@Benchmark
+	public NaiveBayesClassifier removeFeature() throws DataStructureException {
+		copy.removeFeature(SyntheticModels.featureName(0));
+		return copy;
+	}
+
+
+	@Benchmark
+	public NaiveBayesClassifier removeState() throws DataStructureException {
+		copy.removeState(SyntheticModels.featureName(0), SyntheticModels.stateLabel(0));
+		return copy;
+	}
+}
@@ -0,0 +1,118 @@
+package moltsen.AI.NaiveBayes.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import moltsen.AI.NaiveBayes.DataStructureException;
+import moltsen.AI.NaiveBayes.NaiveBayesClassifier;
+
+/**
+ * Builds reproducible models and queries of a given size with random, valid
+ * probabilities.
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class SyntheticModels {
+	/**
+	 * The seed of all random numbers, so every run measures the same models.
+	 */
+	public static final long SEED = 20200101L;
+
+
+	private SyntheticModels() {
+	}
+
+
+	/**
+	 * Builds a model through the public mutators.
+	 *
+	 * @param classes The number of class labels.
+	 * @param features The number of features.
+	 * @param states The number of states per feature.
+	 * @return A valid classifier.
+	 * @throws DataStructureException
+	 */
+	public static NaiveBayesClassifier build(int classes, int features, int states) throws DataStructureException {
+		Random random = new Random(SEED);
+		NaiveBayesClassifier c = new NaiveBayesClassifier();
+		for (int classIndex = 0; classIndex < classes; classIndex++) {
+			c.addClassLabel(classLabel(classIndex));
+		}
+		double[] priors = distribution(random, classes);
+		for (int classIndex = 0; classIndex < classes; classIndex++) {
+			c.setPriorProbability(classLabel(classIndex), priors[classIndex]);
+		}
+
+		for (int featureIndex = 0; featureIndex < features; featureIndex++) {
+			c.addFeature(featureName(featureIndex));
+			for (int stateIndex = 0; stateIndex < states; stateIndex++) {
+				c.addState(featureName(featureIndex), stateLabel(stateIndex));
+			}
+			for (int classIndex = 0; classIndex < classes; classIndex++) {
+				double[] conditionals = distribution(random, states);
+				for (int stateIndex = 0; stateIndex < states; stateIndex++) {
+					c.setConditionalProbability(featureName(featureIndex), stateLabel(stateIndex), classLabel(classIndex), conditionals[stateIndex]);
+				}
+			}
+		}
+		return c;
+	}
+
+
+	/**
+	 * Draws queries, each observing distinct random features in random states.
+	 *
+	 * @param count The number of queries.
+	 * @param features The number of features of the model.
+	 * @param states The number of states per feature.
+	 * @param observations The number of observed features per query (at most features).
+	 * @return The queries.
+	 */
+	public static List<HashMap<String, String>> queries(int count, int features, int states, int observations) {
+		Random random = new Random(SEED + 1);
+		List<HashMap<String, String>> res = new ArrayList<HashMap<String, String>>();
+		for (int i = 0; i < count; i++) {
+			HashMap<String, String> query = new HashMap<String, String>();
+			while (query.size() < Math.min(observations, features)) {
+				query.put(featureName(random.nextInt(features)), stateLabel(random.nextInt(states)));
+			}
+			res.add(query);
+		}
+		return res;
+	}
+
+
+	public static String classLabel(int classIndex) {
+		return "Label " + classIndex;
+	}
+
+
+	public static String featureName(int featureIndex) {
+		return "Feature " + featureIndex;
+	}
+
+
+	public static String stateLabel(int stateIndex) {
+		return "State " + stateIndex;
+	}
+
+
+	/**
+	 * Random probabilities summing to one.
+	 */
+	private static double[] distribution(Random random, int size) {
+		double[] res = new double[size];
+		double sum = 0;
+		for (int i = 0; i < size; i++) {
+			res[i] = 0.01d + random.nextDouble();
+			sum += res[i];
+		}
+		for (int i = 0; i < size; i++) {
+			res[i] /= sum;
+		}
+		return res;
+	}
+}
@@ -0,0 +1,327 @@
+package moltsen.AI.NaiveBayes.flow;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import moltsen.AI.NaiveBayes.CompiledClassifier;
+import moltsen.AI.NaiveBayes.DataStructureException;
+
+/**
+ * <p>Classifies a stream of observations as a {@link Flow.Processor}: it subscribes
+ * to a publisher of observation maps and publishes their posteriors, in the order
+ * the observations arrived, to one subscriber.</p>
+ *
+ * <p>Memory is bounded by the buffer size: no more observations are requested from
+ * upstream than fit in the buffer together with the posteriors not yet passed on,
+ * and no more posteriors are passed on than the subscriber has requested. A slow
+ * subscriber thus slows the publisher down instead of filling a queue. Observations
+ * are classified as they arrive, ahead of demand, in batches of up to the maximum
+ * batch size with {@link CompiledClassifier#classifyBatch(int[][], double[][])}, so
+ * the batch size does not depend on how much the subscriber requests at a time.</p>
+ *
+ * <p>Classification and all signals to the subscriber run on the executor, one
+ * task at a time. An observation with an unknown feature or state cancels the
+ * upstream subscription, and ends the stream with an error once the posteriors
+ * before it are passed on. An error from upstream is passed on right away.
+ * Observations arriving after the stream has ended are dropped.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class ClassificationProcessor implements Flow.Processor<Map<String, String>, double[]> {
+	private final CompiledClassifier classifier;
+	private final int classCount;
+	private final int maxBatchSize;
+	private final int bufferSize;
+	private final Executor executor;
+
+	private final ConcurrentLinkedQueue<Map<String, String>> inputs = new ConcurrentLinkedQueue<Map<String, String>>();
+	private final AtomicReference<Flow.Subscription> upstream = new AtomicReference<Flow.Subscription>();
+	private final AtomicReference<Flow.Subscriber<? super double[]>> downstream = new AtomicReference<Flow.Subscriber<? super double[]>>();
+	private final AtomicLong demand = new AtomicLong();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicLong batchCount = new AtomicLong();
+	private volatile boolean subscribed;
+	private volatile boolean upstreamDone;
+	private volatile boolean cancelled;
+	private volatile boolean terminated;
+	private volatile Throwable error;
+
+	// Only touched by the drain task:
+	private final ArrayDeque<double[]> outputs = new ArrayDeque<double[]>();
+	private long requestedCount;
+	private long emittedCount;
+	private DataStructureException failure;
+
+
+	/**
+	 * Creates a processor with a buffer of {@link Flow#defaultBufferSize()}
+	 * observations, batches of up to half of that and the common fork/join pool.
+	 *
+	 * @param classifier The model to classify with.
+	 * @throws DataStructureException Never with these sizes.
+	 */
+	public ClassificationProcessor(CompiledClassifier classifier) throws DataStructureException {
+		this(classifier, Math.max(1, Flow.defaultBufferSize() / 2), Flow.defaultBufferSize(), ForkJoinPool.commonPool());
+	}
+
+
+	/**
+	 * Creates a processor.
+	 *
+	 * @param classifier The model to classify with.
+	 * @param maxBatchSize The largest number of observations classified together.
+	 * @param bufferSize The largest number of observations and posteriors requested but not yet passed on.
+	 * @param executor Runs the classification and the signals to the subscriber.
+	 * @throws DataStructureException If the batch size is less than 1, or the buffer is smaller than a batch.
+	 */
+	public ClassificationProcessor(CompiledClassifier classifier, int maxBatchSize, int bufferSize, Executor executor) throws DataStructureException {
+		if (maxBatchSize < 1) { throw new DataStructureException("Expected a batch size of at least 1 (got " + maxBatchSize + ")"); }
+		if (bufferSize < maxBatchSize) { throw new DataStructureException("Expected a buffer of at least the batch size (got " + bufferSize + ")"); }
+
+		this.classifier = classifier;
+		this.classCount = classifier.getClassLabels().length;
+		this.maxBatchSize = maxBatchSize;
+		this.bufferSize = bufferSize;
+		this.executor = executor;
+	}
+
+
+	/**
+	 * Returns the number of batches classified.
+	 *
+	 * @return The number of batches.
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super double[]> subscriber) {
+		if (!downstream.compareAndSet(null, subscriber)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("Only one subscriber is supported"));
+			return;
+		}
+
+		subscriber.onSubscribe(new Flow.Subscription() {
+			public void request(long n) {
+				if (n <= 0) {
+					error = new IllegalArgumentException("Expected a positive request (got " + n + ")");
+				}
+				else {
+					long current;
+					do {
+						current = demand.get();
+					} while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+				}
+				signal();
+			}
+
+			public void cancel() {
+				cancelled = true;
+				signal();
+			}
+		});
+		subscribed = true;
+		signal();
+	}
+
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (!upstream.compareAndSet(null, subscription)) {
+			subscription.cancel();
+			return;
+		}
+		signal();
+	}
+
+
+	@Override
+	public void onNext(Map<String, String> observations) {
+		if (terminated) { return; }
+		inputs.add(observations);
+		signal();
+	}
+
+
+	@Override
+	public void onError(Throwable throwable) {
+		error = throwable;
+		upstreamDone = true;
+		signal();
+	}
+
+
+	@Override
+	public void onComplete() {
+		upstreamDone = true;
+		signal();
+	}
+
+
+	/**
+	 * Schedules the drain task, unless it is running already, in which case it
+	 * runs once more.
+	 */
+	private void signal() {
+		if (pending.getAndIncrement() != 0) { return; }
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					int missed = 1;
+					do {
+						drain();
+						missed = pending.addAndGet(-missed);
+					} while (missed != 0);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			pending.set(0);
+			error = e;
+			cancelled = true;
+			Flow.Subscription subscription = upstream.get();
+			if (subscription != null) { subscription.cancel(); }
+		}
+	}
+
+
+	/**
+	 * Classifies the observations received, passes on as many posteriors as
+	 * requested, ends the stream when done, and requests more observations
+	 * while there is room in the buffer.
+	 */
+	private void drain() {
+		if (terminated) {
+			// Dropped, in case they were added while terminating:
+			inputs.clear();
+			return;
+		}
+		Flow.Subscription subscription = upstream.get();
+		if (cancelled) {
+			terminate(subscription);
+			return;
+		}
+		if (!subscribed) { return; }
+		Flow.Subscriber<? super double[]> subscriber = downstream.get();
+
+		if (error != null) {
+			terminate(subscription);
+			subscriber.onError(error);
+			return;
+		}
+
+		classifyInputs(subscription);
+
+		long requested = demand.get();
+		long emitted = 0;
+		while (emitted < requested && !outputs.isEmpty() && !cancelled) {
+			subscriber.onNext(outputs.poll());
+			emitted++;
+		}
+		emittedCount += emitted;
+		if (emitted > 0 && requested != Long.MAX_VALUE) {
+			demand.addAndGet(-emitted);
+		}
+
+		if (cancelled) {
+			terminate(subscription);
+			return;
+		}
+		if (outputs.isEmpty()) {
+			if (failure != null) {
+				terminate(null);
+				subscriber.onError(failure);
+				return;
+			}
+			if (upstreamDone && inputs.isEmpty()) {
+				terminate(null);
+				subscriber.onComplete();
+				return;
+			}
+		}
+
+		// Replenish the buffer once half of it is free:
+		long room = bufferSize - (requestedCount - emittedCount);
+		if (subscription != null && failure == null && !upstreamDone && room >= Math.max(1, bufferSize / 2)) {
+			requestedCount += room;
+			subscription.request(room);
+		}
+	}
+
+
+	/**
+	 * Classifies all observations received, in batches, into the posteriors
+	 * waiting to be passed on. There is room for them, since no more were
+	 * requested than fit in the buffer. On an unknown feature or state, the
+	 * observations before it are still classified and upstream is cancelled.
+	 */
+	private void classifyInputs(Flow.Subscription subscription) {
+		while (failure == null && !inputs.isEmpty()) {
+			int[][] observations = new int[maxBatchSize][];
+			int encoded = 0;
+			while (encoded < maxBatchSize) {
+				Map<String, String> input = inputs.poll();
+				if (input == null) { break; }
+				try {
+					observations[encoded] = classifier.encode(input);
+					encoded++;
+				}
+				catch (DataStructureException e) {
+					failure = e;
+					inputs.clear();
+					if (subscription != null && !upstreamDone) { subscription.cancel(); }
+					break;
+				}
+			}
+			if (encoded == 0) { return; }
+
+			if (encoded < maxBatchSize) {
+				int[][] shorter = new int[encoded][];
+				System.arraycopy(observations, 0, shorter, 0, encoded);
+				observations = shorter;
+			}
+			double[][] posteriors = new double[encoded][classCount];
+			try {
+				classifier.classifyBatch(observations, posteriors);
+			}
+			catch (DataStructureException e) {
+				// Not possible, since the observations were encoded by the classifier:
+				failure = e;
+				return;
+			}
+			batchCount.incrementAndGet();
+			for (double[] row : posteriors) {
+				outputs.add(row);
+			}
+		}
+	}
+
+
+	/**
+	 * Stops for good, cancelling the upstream subscription if given.
+	 */
+	private void terminate(Flow.Subscription subscription) {
+		terminated = true;
+		inputs.clear();
+		outputs.clear();
+		if (subscription != null && !upstreamDone) { subscription.cancel(); }
+	}
+}
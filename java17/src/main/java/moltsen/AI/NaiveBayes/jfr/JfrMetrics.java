@@ -0,0 +1,190 @@
+package moltsen.AI.NaiveBayes.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import moltsen.AI.NaiveBayes.ClassifierMetrics;
+
+/**
+ * <p>{@link ClassifierMetrics} which emit JDK Flight Recorder events, so
+ * classification can be seen in a recording next to garbage collection,
+ * locks and I/O. The events are in the category "Naive Bayes":</p>
+ *
+ * <ul>
+ * <li><code>moltsen.NaiveBayes.Classify</code> - the time spent validating, looking up and scoring</li>
+ * <li><code>moltsen.NaiveBayes.ClassifyBatch</code> - the rows of a batch and the time spent on them</li>
+ * <li><code>moltsen.NaiveBayes.Validate</code> - the time spent validating, and any inconsistency</li>
+ * <li><code>moltsen.NaiveBayes.Rejected</code> - an unknown feature or state</li>
+ * <li><code>moltsen.NaiveBayes.Modified</code> - a change to the model, and its size</li>
+ * </ul>
+ *
+ * <p>The classify and modified events are disabled by default, since they are
+ * very frequent (the latter once per change while a model is built or trained);
+ * enable them in the recording settings. Events which are not enabled cost a
+ * check per call. This class is in the Java 17 module, so the library itself
+ * builds for Java 8 without Flight Recorder.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class JfrMetrics implements ClassifierMetrics {
+	public void classified(int observationCount, long validationNanos, long lookupNanos, long scoringNanos) {
+		ClassifyEvent event = new ClassifyEvent();
+		if (event.shouldCommit()) {
+			event.observationCount = observationCount;
+			event.validation = validationNanos;
+			event.lookup = lookupNanos;
+			event.scoring = scoringNanos;
+			event.commit();
+		}
+	}
+
+
+	public void classifiedBatch(int rowCount, long validationNanos, long scoringNanos) {
+		ClassifyBatchEvent event = new ClassifyBatchEvent();
+		if (event.shouldCommit()) {
+			event.rowCount = rowCount;
+			event.validation = validationNanos;
+			event.scoring = scoringNanos;
+			event.commit();
+		}
+	}
+
+
+	public void validated(long nanos, String failure) {
+		ValidateEvent event = new ValidateEvent();
+		if (event.shouldCommit()) {
+			event.validation = nanos;
+			event.failure = failure;
+			event.commit();
+		}
+	}
+
+
+	public void unknownFeature(String featureName) {
+		rejected(featureName, null);
+	}
+
+
+	public void unknownState(String featureName, String stateLabel) {
+		rejected(featureName, stateLabel);
+	}
+
+
+	public void modified(long modificationCount, int classCount, int featureCount, int stateCount) {
+		ModifiedEvent event = new ModifiedEvent();
+		if (event.shouldCommit()) {
+			event.modificationCount = modificationCount;
+			event.classCount = classCount;
+			event.featureCount = featureCount;
+			event.stateCount = stateCount;
+			event.commit();
+		}
+	}
+
+
+	private void rejected(String featureName, String stateLabel) {
+		RejectedEvent event = new RejectedEvent();
+		if (event.shouldCommit()) {
+			event.feature = featureName;
+			event.state = stateLabel;
+			event.commit();
+		}
+	}
+
+
+	@Name("moltsen.NaiveBayes.Classify")
+	@Label("Classify")
+	@Category("Naive Bayes")
+	@Description("A classification and the time spent in each phase")
+	@StackTrace(false)
+	@Enabled(false)
+	static class ClassifyEvent extends Event {
+		@Label("Observations")
+		int observationCount;
+
+		@Label("Validation")
+		@Timespan(Timespan.NANOSECONDS)
+		long validation;
+
+		@Label("Lookup")
+		@Timespan(Timespan.NANOSECONDS)
+		long lookup;
+
+		@Label("Scoring")
+		@Timespan(Timespan.NANOSECONDS)
+		long scoring;
+	}
+
+
+	@Name("moltsen.NaiveBayes.ClassifyBatch")
+	@Label("Classify Batch")
+	@Category("Naive Bayes")
+	@Description("A batch classification and the time spent in each phase")
+	@StackTrace(false)
+	static class ClassifyBatchEvent extends Event {
+		@Label("Rows")
+		int rowCount;
+
+		@Label("Validation")
+		@Timespan(Timespan.NANOSECONDS)
+		long validation;
+
+		@Label("Scoring")
+		@Timespan(Timespan.NANOSECONDS)
+		long scoring;
+	}
+
+
+	@Name("moltsen.NaiveBayes.Validate")
+	@Label("Validate")
+	@Category("Naive Bayes")
+	@Description("A validation of the model")
+	static class ValidateEvent extends Event {
+		@Label("Validation")
+		@Timespan(Timespan.NANOSECONDS)
+		long validation;
+
+		@Label("Failure")
+		String failure;
+	}
+
+
+	@Name("moltsen.NaiveBayes.Rejected")
+	@Label("Rejected Observation")
+	@Category("Naive Bayes")
+	@Description("A classification rejected for an unknown feature or state")
+	static class RejectedEvent extends Event {
+		@Label("Feature")
+		String feature;
+
+		@Label("State")
+		String state;
+	}
+
+
+	@Name("moltsen.NaiveBayes.Modified")
+	@Label("Model Modified")
+	@Category("Naive Bayes")
+	@Description("A change to the model")
+	@StackTrace(false)
+	@Enabled(false)
+	static class ModifiedEvent extends Event {
+		@Label("Modification Count")
+		long modificationCount;
+
+		@Label("Class Labels")
+		int classCount;
+
+		@Label("Features")
+		int featureCount;
+
+		@Label("States")
+		int stateCount;
+	}
+}
@@ -0,0 +1,257 @@
+package moltsen.AI.NaiveBayes.flow;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import moltsen.AI.NaiveBayes.CompiledClassifier;
+import moltsen.AI.NaiveBayes.DataStructureException;
+import moltsen.AI.NaiveBayes.NaiveBayesClassifier;
+import moltsen.AI.NaiveBayes.NaiveBayesJson;
+
+/**
+ * Unit test for the Flow processor.
+ */
+public class ClassificationProcessorTest
+    extends TestCase
+{
+	NaiveBayesClassifier c;
+
+	static final Executor DIRECT = new Executor() {
+		public void execute(Runnable task) {
+			task.run();
+		}
+	};
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ClassificationProcessorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ClassificationProcessorTest.class );
+    }
+
+
+    protected void setUp() {
+    	try {
+    		InputStream in = getClass().getResourceAsStream("/testNB.json");
+    		c = NaiveBayesJson.read(in);
+    		in.close();
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * A stream should be classified in order, in batches, and complete.
+     */
+    public void testStream() {
+    	try {
+    		CompiledClassifier compiled = c.compile();
+    		ClassificationProcessor processor = new ClassificationProcessor(compiled, 16, 64, ForkJoinPool.commonPool());
+    		SubmissionPublisher<Map<String, String>> publisher = new SubmissionPublisher<Map<String, String>>();
+    		publisher.subscribe(processor);
+    		Collector collector = new Collector(7);
+    		processor.subscribe(collector);
+
+    		List<Map<String, String>> inputs = new ArrayList<Map<String, String>>();
+    		for (int i = 0; i < 1000; i++) {
+    			HashMap<String, String> observations = new HashMap<String, String>();
+    			observations.put("Fever", i % 2 == 0 ? "yes" : "no");
+    			observations.put("Red spots", i % 3 == 0 ? "yes" : "no");
+    			inputs.add(observations);
+    			publisher.submit(observations);
+    		}
+    		publisher.close();
+
+    		assertTrue("Completed", collector.done.await(30, TimeUnit.SECONDS));
+    		assertNull("No error", collector.error);
+    		assertEquals("Results", inputs.size(), collector.results.size());
+    		for (int i = 0; i < inputs.size(); i++) {
+    			assertTrue("Result " + i + " in order", Arrays.equals(compiled.classify(inputs.get(i)), collector.results.get(i)));
+    		}
+    		long batches = processor.getBatchCount();
+    		assertTrue("Batched (" + batches + " batches)", batches < inputs.size());
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Nothing should be requested beyond the buffer, and nothing passed on beyond
+     * demand, but the buffer should be classified ahead of demand in full batches.
+     */
+    public void testBackpressure() {
+    	try {
+    		ClassificationProcessor processor = new ClassificationProcessor(c.compile(), 4, 16, DIRECT);
+    		CountingPublisher publisher = new CountingPublisher(100);
+    		publisher.subscribe(processor);
+    		Collector collector = new Collector(0);
+    		processor.subscribe(collector);
+
+    		assertEquals("Requested up to the buffer", 16, publisher.requested);
+    		assertEquals("Nothing passed on without demand", 0, collector.results.size());
+    		assertEquals("Classified ahead of demand", 4, processor.getBatchCount());
+
+    		collector.subscription.request(1);
+    		assertEquals("Passed on as requested", 1, collector.results.size());
+    		assertEquals("No batch for a request of one", 4, processor.getBatchCount());
+
+    		collector.subscription.request(4);
+    		assertEquals("Passed on as requested", 5, collector.results.size());
+    		assertEquals("Not replenished below half the buffer", 16, publisher.requested);
+
+    		collector.subscription.request(5);
+    		assertEquals("Passed on as requested", 10, collector.results.size());
+    		assertEquals("Replenished", 26, publisher.requested);
+    		assertEquals("Replenishment classified in batches of up to 4", 7, processor.getBatchCount());
+
+    		collector.subscription.request(Long.MAX_VALUE);
+    		assertEquals("All passed on", 100, collector.results.size());
+    		assertEquals("Completed", 0, collector.done.getCount());
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * An unknown state should end the stream after the results before it, and
+     * later observations should be dropped.
+     */
+    public void testError() {
+    	try {
+    		ClassificationProcessor processor = new ClassificationProcessor(c.compile(), 4, 16, DIRECT);
+    		CountingPublisher publisher = new CountingPublisher(100);
+    		publisher.invalidAt = 6;
+    		publisher.subscribe(processor);
+    		Collector collector = new Collector(Long.MAX_VALUE);
+    		processor.subscribe(collector);
+
+    		assertEquals("Results before the error", 6, collector.results.size());
+    		assertTrue("Error", collector.error instanceof DataStructureException);
+    		assertTrue("Upstream cancelled", publisher.cancelled);
+
+    		HashMap<String, String> late = new HashMap<String, String>();
+    		late.put("Fever", "yes");
+    		processor.onNext(late);
+    		assertEquals("Dropped after the error", 6, collector.results.size());
+
+    		Collector second = new Collector(1);
+    		processor.subscribe(second);
+    		assertTrue("One subscriber only", second.error instanceof IllegalStateException);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Collects results, requesting a fixed number at a time (0 for none).
+     */
+    static class Collector implements Flow.Subscriber<double[]> {
+    	final long batch;
+    	final List<double[]> results = new ArrayList<double[]>();
+    	final CountDownLatch done = new CountDownLatch(1);
+    	volatile Flow.Subscription subscription;
+    	volatile Throwable error;
+    	long outstanding;
+
+    	Collector(long batch) {
+    		this.batch = batch;
+    	}
+
+    	public void onSubscribe(Flow.Subscription subscription) {
+    		this.subscription = subscription;
+    		if (batch > 0) {
+    			outstanding = batch;
+    			subscription.request(batch);
+    		}
+    	}
+
+    	public synchronized void onNext(double[] result) {
+    		results.add(result);
+    		if (batch > 0 && --outstanding == 0) {
+    			outstanding = batch;
+    			subscription.request(batch);
+    		}
+    	}
+
+    	public void onError(Throwable throwable) {
+    		error = throwable;
+    		done.countDown();
+    	}
+
+    	public void onComplete() {
+    		done.countDown();
+    	}
+    }
+
+
+    /**
+     * Emits a number of observations synchronously as they are requested, and
+     * counts the requests.
+     */
+    static class CountingPublisher implements Flow.Publisher<Map<String, String>> {
+    	final int count;
+    	int invalidAt = -1;
+    	long requested;
+    	int emitted;
+    	boolean completed;
+    	boolean cancelled;
+
+    	CountingPublisher(int count) {
+    		this.count = count;
+    	}
+
+    	public void subscribe(final Flow.Subscriber<? super Map<String, String>> subscriber) {
+    		subscriber.onSubscribe(new Flow.Subscription() {
+    			public void request(long n) {
+    				requested += n;
+    				while (emitted < Math.min(requested, count) && !cancelled) {
+    					HashMap<String, String> observations = new HashMap<String, String>();
+    					observations.put("Fever", emitted == invalidAt ? "maybe" : "yes");
+    					emitted++;
+    					subscriber.onNext(observations);
+    				}
+    				if (emitted == count && !completed && !cancelled) {
+    					completed = true;
+    					subscriber.onComplete();
+    				}
+    			}
+
+    			public void cancel() {
+    				cancelled = true;
+    			}
+    		});
+    	}
+    }
+}
@@ -0,0 +1,122 @@
+package moltsen.AI.NaiveBayes.jfr;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashMap;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import moltsen.AI.NaiveBayes.NaiveBayesClassifier;
+import moltsen.AI.NaiveBayes.NaiveBayesJson;
+
+/**
+ * Unit test for the Flight Recorder metrics.
+ */
+public class JfrMetricsTest
+    extends TestCase
+{
+	NaiveBayesClassifier c;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public JfrMetricsTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( JfrMetricsTest.class );
+    }
+
+
+    protected void setUp() {
+    	try {
+    		InputStream in = getClass().getResourceAsStream("/testNB.json");
+    		c = NaiveBayesJson.read(in);
+    		in.close();
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Classifications should be recorded as Flight Recorder events when enabled,
+     * and changes to the model only when enabled.
+     */
+    public void testFlightRecorderEvents() {
+    	try {
+    		c.setMetrics(new JfrMetrics());
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "yes");
+
+    		Recording recording = new Recording();
+    		recording.enable("moltsen.NaiveBayes.Classify");
+    		recording.enable("moltsen.NaiveBayes.ClassifyBatch");
+    		recording.start();
+    		c.classify(observations);
+    		c.classifyBatch(new int[][] { { 0, -1 }, { 1, 1 } }, new double[2][3]);
+    		c.addFeature("Cough");
+    		recording.stop();
+
+    		int classifyEvents = 0;
+    		int batchEvents = 0;
+    		int modifiedEvents = 0;
+    		for (RecordedEvent event : readEvents(recording)) {
+    			String name = event.getEventType().getName();
+    			if (name.equals("moltsen.NaiveBayes.Classify")) {
+    				assertEquals("Observations", 1, event.getInt("observationCount"));
+    				classifyEvents++;
+    			}
+    			else if (name.equals("moltsen.NaiveBayes.ClassifyBatch")) {
+    				assertEquals("Rows", 2, event.getInt("rowCount"));
+    				batchEvents++;
+    			}
+    			else if (name.equals("moltsen.NaiveBayes.Modified")) {
+    				modifiedEvents++;
+    			}
+    		}
+    		assertEquals("Classify events", 1, classifyEvents);
+    		assertEquals("Batch events", 1, batchEvents);
+    		assertEquals("Modified events (disabled by default)", 0, modifiedEvents);
+
+    		recording = new Recording();
+    		recording.enable("moltsen.NaiveBayes.Modified");
+    		recording.start();
+    		c.addState("Cough", "yes");
+    		recording.stop();
+    		modifiedEvents = 0;
+    		for (RecordedEvent event : readEvents(recording)) {
+    			if (event.getEventType().getName().equals("moltsen.NaiveBayes.Modified")) {
+    				assertEquals("States", 5, event.getInt("stateCount"));
+    				modifiedEvents++;
+    			}
+    		}
+    		assertEquals("Modified events (enabled)", 1, modifiedEvents);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    private static Iterable<RecordedEvent> readEvents(Recording recording) throws Exception {
+    	File file = File.createTempFile("JfrMetricsTest", ".jfr");
+    	file.deleteOnExit();
+    	recording.dump(file.toPath());
+    	recording.close();
+    	return RecordingFile.readAllEvents(file.toPath());
+    }
+}
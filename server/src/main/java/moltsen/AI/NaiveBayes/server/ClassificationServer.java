@@ -0,0 +1,403 @@
+package moltsen.AI.NaiveBayes.server;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import moltsen.AI.NaiveBayes.CompiledClassifier;
+import moltsen.AI.NaiveBayes.DataStructureException;
+
+/**
+ * <p>A small HTTP server on the loopback interface which classifies for processes
+ * on the same host, e.g. sidecars written in other languages, so they do not each
+ * need a JVM of their own. It uses the HTTP server built into the JDK.</p>
+ *
+ * <p>Observations are posted to <code>/classify</code> as a JSON object of feature
+ * and state pairs, and the answer is a JSON object of class label and posterior
+ * probability pairs, in the order of the class labels (null where the posterior
+ * is undefined):</p>
+ *
+ * <pre>
+POST /classify
+{ "Fever": "yes", "Red spots": "no" }
+
+200 OK
+{ "Flu": 0.8039492242595203, "Measles": 0.056417489421720736, "No disease": 0.13963328631875882 }
+ * </pre>
+ *
+ * <p>Unknown features or states and malformed documents, including anything after
+ * the object, are answered with status 400, other methods than POST with 405, a
+ * failure to score with 500 and requests caught by {@link #stop()} with 503, each
+ * with a JSON object holding an <code>error</code> message.</p>
+ *
+ * <p>Concurrent requests are coalesced into micro-batches: a batch is scored as soon
+ * as it holds the maximum number of requests, or when the maximum wait has passed
+ * since its first request, whichever comes first. Each batch is scored in one pass
+ * by {@link CompiledClassifier#classifyBatch(int[][], double[][])}. Each request
+ * holds a handler thread while it waits for its batch, so the number of handler
+ * threads bounds the number of requests in progress, and with it the batch size
+ * actually reached.</p>
+ *
+ * <p>The server is a module of its own, since it depends on the HTTP server of
+ * the JDK (<code>com.sun.net.httpserver</code>), which the library does not.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class ClassificationServer {
+	/**
+	 * The default number of handler threads: four per processor, since they
+	 * mostly wait for their batch.
+	 */
+	public static final int DEFAULT_HANDLER_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+
+	private static final int STOP_GRACE_SECONDS = 1;
+
+	private final CompiledClassifier classifier;
+	private final String[] classLabels;
+	private final int maxBatchSize;
+	private final long maxWaitNanos;
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final Thread batcher;
+	private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+	private volatile boolean running;
+
+	private final AtomicInteger waitingCount = new AtomicInteger();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong batchCount = new AtomicLong();
+
+
+	/**
+	 * Creates a server bound to the loopback interface with
+	 * {@link #DEFAULT_HANDLER_THREADS} handler threads. It does not accept
+	 * requests until it is started.
+	 *
+	 * @param classifier The model to classify with.
+	 * @param port The port to listen on, or 0 for any free port (see {@link #getPort()}).
+	 * @param maxBatchSize The largest number of requests scored together.
+	 * @param maxWait The longest time the first request of a batch waits for more.
+	 * @param unit The unit of the maximum wait.
+	 * @throws IOException If the port cannot be bound.
+	 * @throws DataStructureException If the batch size is less than 1 or the wait is negative.
+	 */
+	public ClassificationServer(CompiledClassifier classifier, int port, int maxBatchSize, long maxWait, TimeUnit unit) throws IOException, DataStructureException {
+		this(classifier, port, maxBatchSize, maxWait, unit, DEFAULT_HANDLER_THREADS);
+	}
+
+
+	/**
+	 * Creates a server bound to the loopback interface. It does not accept
+	 * requests until it is started.
+	 *
+	 * @param classifier The model to classify with.
+	 * @param port The port to listen on, or 0 for any free port (see {@link #getPort()}).
+	 * @param maxBatchSize The largest number of requests scored together.
+	 * @param maxWait The longest time the first request of a batch waits for more.
+	 * @param unit The unit of the maximum wait.
+	 * @param handlerThreads The number of threads reading requests and writing answers.
+	 * @throws IOException If the port cannot be bound.
+	 * @throws DataStructureException If the batch size or the number of threads is less than 1, or the wait is negative.
+	 */
+	public ClassificationServer(CompiledClassifier classifier, int port, int maxBatchSize, long maxWait, TimeUnit unit, int handlerThreads) throws IOException, DataStructureException {
+		if (maxBatchSize < 1) { throw new DataStructureException("Expected a batch size of at least 1 (got " + maxBatchSize + ")"); }
+		if (maxWait < 0) { throw new DataStructureException("Expected a wait of at least 0 (got " + maxWait + ")"); }
+		if (handlerThreads < 1) { throw new DataStructureException("Expected at least 1 handler thread (got " + handlerThreads + ")"); }
+
+		this.classifier = classifier;
+		this.classLabels = classifier.getClassLabels();
+		this.maxBatchSize = maxBatchSize;
+		this.maxWaitNanos = unit.toNanos(maxWait);
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		handlers = Executors.newFixedThreadPool(handlerThreads);
+		server.setExecutor(handlers);
+		server.createContext("/classify", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				handleClassify(exchange);
+			}
+		});
+
+		batcher = new Thread("NaiveBayes batcher") {
+			@Override
+			public void run() {
+				batch();
+			}
+		};
+		batcher.setDaemon(true);
+	}
+
+
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		running = true;
+		batcher.start();
+		server.start();
+	}
+
+
+	/**
+	 * Stops batching, answers waiting requests with status 503, and then releases
+	 * the port and the threads, giving the answers up to a second to be written.
+	 */
+	public void stop() {
+		running = false;
+		batcher.interrupt();
+		try {
+			batcher.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// Closes the open exchanges, so only once the waiting requests are answered:
+		server.stop(STOP_GRACE_SECONDS);
+		handlers.shutdown();
+	}
+
+
+	/**
+	 * Returns the port the server listens on.
+	 *
+	 * @return The local port.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+
+	/**
+	 * Returns the number of requests waiting for their batch to be scored.
+	 *
+	 * @return The number of requests.
+	 */
+	public int getWaitingCount() {
+		return waitingCount.get();
+	}
+
+
+	/**
+	 * Returns the number of requests scored.
+	 *
+	 * @return The number of requests.
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+
+	/**
+	 * Returns the number of batches scored. Divide the number of requests by
+	 * this to get the average batch size.
+	 *
+	 * @return The number of batches.
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+
+	/**
+	 * Reads the observations, queues them for the batcher and writes the result.
+	 */
+	private void handleClassify(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				respond(exchange, 405, error("Expected POST (got " + exchange.getRequestMethod() + ")"));
+				return;
+			}
+
+			Request request;
+			try {
+				request = new Request(classifier.encode(ObservationReader.read(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))));
+			}
+			catch (DataStructureException e) {
+				respond(exchange, 400, error(e.getMessage()));
+				return;
+			}
+			catch (IOException e) {
+				respond(exchange, 400, error(e.getMessage()));
+				return;
+			}
+
+			waitingCount.incrementAndGet();
+			queue.add(request);
+			if (!running && queue.remove(request)) {
+				// Too late for the batcher:
+				request.done.countDown();
+			}
+			try {
+				request.done.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				waitingCount.decrementAndGet();
+			}
+			if (request.failure != null) {
+				respond(exchange, 500, error(request.failure));
+				return;
+			}
+			if (request.posteriors == null) {
+				respond(exchange, 503, error("The server is stopping"));
+				return;
+			}
+			respond(exchange, 200, result(request.posteriors));
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+
+	/**
+	 * Collects requests into batches and scores them until stopped.
+	 */
+	private void batch() {
+		List<Request> batch = new ArrayList<Request>(maxBatchSize);
+		try {
+			while (running) {
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + maxWaitNanos;
+				while (batch.size() < maxBatchSize) {
+					Request request = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (request == null) { break; }
+					batch.add(request);
+				}
+				score(batch);
+				batch.clear();
+			}
+		}
+		catch (InterruptedException e) {
+			// Stopped:
+		}
+
+		// Anything left is answered as stopped:
+		queue.drainTo(batch);
+		for (Request request : batch) {
+			request.done.countDown();
+		}
+	}
+
+
+	/**
+	 * Scores a batch in one pass and releases its requests. If scoring fails,
+	 * each request is given the failure, and the batcher goes on.
+	 */
+	private void score(List<Request> batch) {
+		int[][] observations = new int[batch.size()][];
+		double[][] posteriors = new double[batch.size()][classLabels.length];
+		for (int row = 0; row < observations.length; row++) {
+			observations[row] = batch.get(row).states;
+		}
+		try {
+			classifyBatch(observations, posteriors);
+			for (int row = 0; row < observations.length; row++) {
+				batch.get(row).posteriors = posteriors[row];
+			}
+			requestCount.addAndGet(batch.size());
+			batchCount.incrementAndGet();
+		}
+		catch (DataStructureException e) {
+			// Not expected, since the observations were encoded by the classifier:
+			fail(batch, e);
+		}
+		catch (RuntimeException e) {
+			fail(batch, e);
+		}
+		for (Request request : batch) {
+			request.done.countDown();
+		}
+	}
+
+
+	/**
+	 * Scores the rows of a batch with the classifier. Subclasses may override
+	 * this, e.g. to time or log each batch; an exception thrown here answers
+	 * the requests of the batch with status 500.
+	 *
+	 * @param observations One state index vector per request.
+	 * @param posteriors Receives one probability distribution per request.
+	 * @throws DataStructureException If the classifier rejects the observations.
+	 */
+	protected void classifyBatch(int[][] observations, double[][] posteriors) throws DataStructureException {
+		classifier.classifyBatch(observations, posteriors);
+	}
+
+
+	private static void fail(List<Request> batch, Exception e) {
+		String failure = "Scoring failed: " + (e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+		for (Request request : batch) {
+			request.failure = failure;
+		}
+	}
+
+
+	private String result(double[] posteriors) throws IOException {
+		StringWriter writer = new StringWriter();
+		writer.write('{');
+		for (int classIndex = 0; classIndex < posteriors.length; classIndex++) {
+			if (classIndex > 0) { writer.write(", "); }
+			ObservationReader.writeString(writer, classLabels[classIndex]);
+			writer.write(": ");
+			writer.write(Double.isNaN(posteriors[classIndex]) || Double.isInfinite(posteriors[classIndex]) ? "null" : Double.toString(posteriors[classIndex]));
+		}
+		writer.write('}');
+		return writer.toString();
+	}
+
+
+	private static String error(String message) throws IOException {
+		StringWriter writer = new StringWriter();
+		writer.write("{\"error\": ");
+		ObservationReader.writeString(writer, message == null ? "" : message);
+		writer.write('}');
+		return writer.toString();
+	}
+
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+
+	/**
+	 * A request waiting for its batch. The posteriors stay null if it was not
+	 * scored, and the failure is set if scoring failed.
+	 */
+	private static class Request {
+		final int[] states;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile double[] posteriors;
+		volatile String failure;
+
+		Request(int[] states) {
+			this.states = states;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package moltsen.AI.NaiveBayes.server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+
+/**
+ * Reads the body of a classification request: a JSON object whose values are
+ * all strings, and nothing but white space after it. Anything else is a syntax
+ * error telling where in the document the problem is.
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+class ObservationReader {
+	private final String text;
+	private int position;
+
+
+	private ObservationReader(String text) {
+		this.text = text;
+	}
+
+
+	/**
+	 * Reads a JSON object of feature and state pairs.
+	 *
+	 * @param reader The document.
+	 * @return The observations.
+	 * @throws IOException If the document cannot be read or is not such an object.
+	 */
+	static HashMap<String, String> read(Reader reader) throws IOException {
+		StringBuilder text = new StringBuilder();
+		char[] buffer = new char[4096];
+		int n;
+		while ((n = reader.read(buffer)) != -1) {
+			text.append(buffer, 0, n);
+		}
+		return new ObservationReader(text.toString()).readObject();
+	}
+
+
+	/**
+	 * Writes a string as a JSON string literal.
+	 *
+	 * @param writer Where to write.
+	 * @param s The string.
+	 * @throws IOException If the writer fails.
+	 */
+	static void writeString(Writer writer, String s) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			switch (ch) {
+			case '"': writer.write("\\\""); break;
+			case '\\': writer.write("\\\\"); break;
+			case '\n': writer.write("\\n"); break;
+			case '\r': writer.write("\\r"); break;
+			case '\t': writer.write("\\t"); break;
+			default:
+				if (ch < 0x20) {
+					writer.write(String.format("\\u%04x", (int) ch));
+				}
+				else {
+					writer.write(ch);
+				}
+			}
+		}
+		writer.write('"');
+	}
+
+
+	private HashMap<String, String> readObject() throws IOException {
+		HashMap<String, String> observations = new HashMap<String, String>();
+		expect('{');
+		if (peek() == '}') {
+			position++;
+		}
+		else {
+			while (true) {
+				String feature = readString();
+				expect(':');
+				observations.put(feature, readString());
+				int c = next();
+				if (c == '}') { break; }
+				if (c != ',') { throw syntaxError("Expected ',' or '}'"); }
+			}
+		}
+		if (peek() != -1) { throw syntaxError("Unexpected content after the object"); }
+		return observations;
+	}
+
+
+	private String readString() throws IOException {
+		expect('"');
+		StringBuilder s = new StringBuilder();
+		while (true) {
+			if (position == text.length()) { throw syntaxError("Unterminated string"); }
+			char c = text.charAt(position++);
+			if (c == '"') { return s.toString(); }
+			if (c < 0x20) { throw syntaxError("Unescaped control character"); }
+			if (c != '\\') {
+				s.append(c);
+				continue;
+			}
+			if (position == text.length()) { throw syntaxError("Unterminated string"); }
+			c = text.charAt(position++);
+			switch (c) {
+			case '"': case '\\': case '/': s.append(c); break;
+			case 'b': s.append('\b'); break;
+			case 'f': s.append('\f'); break;
+			case 'n': s.append('\n'); break;
+			case 'r': s.append('\r'); break;
+			case 't': s.append('\t'); break;
+			case 'u':
+				int code = 0;
+				for (int i = 0; i < 4; i++) {
+					int digit = position < text.length() ? Character.digit(text.charAt(position++), 16) : -1;
+					if (digit == -1) { throw syntaxError("Invalid unicode escape"); }
+					code = code * 16 + digit;
+				}
+				s.append((char) code);
+				break;
+			default:
+				throw syntaxError("Invalid escape");
+			}
+		}
+	}
+
+
+	private void expect(char expected) throws IOException {
+		int c = peek();
+		if (c != expected) { throw syntaxError("Expected '" + expected + "'"); }
+		position++;
+	}
+
+
+	private int next() {
+		int c = peek();
+		if (c != -1) { position++; }
+		return c;
+	}
+
+
+	/**
+	 * Skips white space and returns the next character without consuming it,
+	 * or -1 at the end of the document.
+	 */
+	private int peek() {
+		while (position < text.length()) {
+			char c = text.charAt(position);
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') { return c; }
+			position++;
+		}
+		return -1;
+	}
+
+
+	private IOException syntaxError(String msg) {
+		return new IOException(msg + " at character " + position);
+	}
+}
@@ -0,0 +1,236 @@
+package moltsen.AI.NaiveBayes.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import moltsen.AI.NaiveBayes.DataStructureException;
+import moltsen.AI.NaiveBayes.NaiveBayesClassifier;
+import moltsen.AI.NaiveBayes.NaiveBayesJson;
+
+/**
+ * Unit test for the scoring server.
+ */
+public class ClassificationServerTest
+    extends TestCase
+{
+	NaiveBayesClassifier c;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ClassificationServerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ClassificationServerTest.class );
+    }
+
+
+    protected void setUp() {
+    	try {
+    		InputStream in = getClass().getResourceAsStream("/testNB.json");
+    		c = NaiveBayesJson.read(in);
+    		in.close();
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * The server should answer concurrent requests on loopback in batches, with
+     * the results of the classifier.
+     */
+    public void testClassificationServer() {
+    	ClassificationServer server = null;
+    	try {
+    		server = new ClassificationServer(c.compile(), 0, 4, 200, TimeUnit.MILLISECONDS);
+    		server.start();
+    		final URL url = new URL("http://127.0.0.1:" + server.getPort() + "/classify");
+
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "yes");
+    		observations.put("Red spots", "no");
+    		Double[] expected = c.classify(observations);
+    		assertEquals("Result", "{\"Flu\": " + expected[0] + ", \"Measles\": " + expected[1] + ", \"No disease\": " + expected[2] + "}",
+    				post(url, "{\"Fever\": \"yes\", \"Red spots\": \"no\"}", 200));
+
+    		// Concurrent requests are coalesced:
+    		final String[] results = new String[8];
+    		final CountDownLatch start = new CountDownLatch(1);
+    		Thread[] threads = new Thread[results.length];
+    		for (int i = 0; i < threads.length; i++) {
+    			final int index = i;
+    			threads[i] = new Thread() {
+    				public void run() {
+    					try {
+    						start.await();
+    						results[index] = post(url, "{\"Red spots\": \"" + (index % 2 == 0 ? "yes" : "no") + "\"}", 200);
+    					}
+    					catch (Exception e) {
+    					}
+    				}
+    			};
+    			threads[i].start();
+    		}
+    		start.countDown();
+    		for (Thread thread : threads) {
+    			thread.join();
+    		}
+    		for (int i = 0; i < results.length; i++) {
+    			observations.clear();
+    			observations.put("Red spots", i % 2 == 0 ? "yes" : "no");
+    			expected = c.classify(observations);
+    			assertEquals("Result " + i, "{\"Flu\": " + expected[0] + ", \"Measles\": " + expected[1] + ", \"No disease\": " + expected[2] + "}", results[i]);
+    		}
+    		assertEquals("Requests", 9, server.getRequestCount());
+    		assertTrue("Batched (" + server.getBatchCount() + " batches)", server.getBatchCount() < 9);
+
+    		assertTrue("Unknown feature", post(url, "{\"Cough\": \"yes\"}", 400).contains("error"));
+    		assertTrue("Malformed", post(url, "[1, 2]", 400).contains("error"));
+    		assertTrue("Trailing content", post(url, "{\"Fever\": \"yes\"} {\"Fever\": \"no\"}", 400).contains("after the object"));
+    		assertTrue("Missing separator", post(url, "{\"Fever\": \"yes\" \"Red spots\": \"no\"}", 400).contains("error"));
+    		assertTrue("Not a string", post(url, "{\"Fever\": 1}", 400).contains("error"));
+    		expected = c.classify(new HashMap<String, String>());
+    		assertEquals("Empty object", "{\"Flu\": " + expected[0] + ", \"Measles\": " + expected[1] + ", \"No disease\": " + expected[2] + "}", post(url, " {} \n", 200));
+    		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    		assertEquals("Only POST", 405, connection.getResponseCode());
+    		connection.disconnect();
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    	finally {
+    		if (server != null) { server.stop(); }
+    	}
+
+    	try {
+    		new ClassificationServer(c.compile(), 0, 0, 1, TimeUnit.MILLISECONDS);
+    		assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    	catch (IOException e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	try {
+    		new ClassificationServer(c.compile(), 0, 4, 1, TimeUnit.MILLISECONDS, 0);
+    		assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    	catch (IOException e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Stopping the server should answer a request waiting for its batch with 503.
+     */
+    public void testStopWhileWaiting() {
+    	try {
+    		ClassificationServer server = new ClassificationServer(c.compile(), 0, 4, 60, TimeUnit.SECONDS);
+    		server.start();
+    		final URL url = new URL("http://127.0.0.1:" + server.getPort() + "/classify");
+    		final String[] result = new String[1];
+    		Thread client = new Thread() {
+    			public void run() {
+    				try {
+    					result[0] = post(url, "{\"Fever\": \"yes\"}", 503);
+    				}
+    				catch (Throwable e) {
+    					result[0] = "Failed: " + e.getMessage();
+    				}
+    			}
+    		};
+    		client.start();
+    		long deadline = System.currentTimeMillis() + 10000;
+    		while (server.getWaitingCount() == 0 && System.currentTimeMillis() < deadline) {
+    			Thread.sleep(10);
+    		}
+    		assertEquals("Waiting for its batch", 1, server.getWaitingCount());
+
+    		server.stop();
+    		client.join(10000);
+    		assertTrue("Answered as stopping: " + result[0], result[0] != null && result[0].contains("stopping"));
+    		assertEquals("Not scored", 0, server.getRequestCount());
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * A failure to score should answer the requests of the batch with 500, and
+     * later batches should still be scored.
+     */
+    public void testScoringFailure() {
+    	ClassificationServer server = null;
+    	try {
+    		final AtomicBoolean failing = new AtomicBoolean(true);
+    		server = new ClassificationServer(c.compile(), 0, 4, 1, TimeUnit.MILLISECONDS) {
+    			@Override
+    			protected void classifyBatch(int[][] observations, double[][] posteriors) throws DataStructureException {
+    				if (failing.get()) { throw new IllegalStateException("Out of order"); }
+    				super.classifyBatch(observations, posteriors);
+    			}
+    		};
+    		server.start();
+    		URL url = new URL("http://127.0.0.1:" + server.getPort() + "/classify");
+
+    		assertTrue("Failure message", post(url, "{\"Fever\": \"yes\"}", 500).contains("Out of order"));
+    		failing.set(false);
+    		assertTrue("Scored after the failure", post(url, "{\"Fever\": \"yes\"}", 200).contains("Flu"));
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    	finally {
+    		if (server != null) { server.stop(); }
+    	}
+    }
+
+
+    private static String post(URL url, String body, int expectedStatus) throws IOException {
+    	HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    	connection.setRequestMethod("POST");
+    	connection.setDoOutput(true);
+    	OutputStream out = connection.getOutputStream();
+    	out.write(body.getBytes("UTF-8"));
+    	out.close();
+    	assertEquals("Status", expectedStatus, connection.getResponseCode());
+
+    	InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+    	StringBuilder result = new StringBuilder();
+    	byte[] buffer = new byte[1024];
+    	int n;
+    	while ((n = in.read(buffer)) != -1) {
+    		result.append(new String(buffer, 0, n, "UTF-8"));
+    	}
+    	in.close();
+    	connection.disconnect();
+    	return result.toString();
+    }
+}
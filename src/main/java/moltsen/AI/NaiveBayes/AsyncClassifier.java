@@ -0,0 +1,393 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Classifies asynchronously for callers which must not block, with a limit on
+ * the number of classifications in flight and on the number of requests queued
+ * behind them, so a burst of requests is pushed back at the callers instead of
+ * piling up in an unbounded queue.</p>
+ *
+ * <pre>
+AsyncClassifier async = new AsyncClassifier(c.compile(), 64, AsyncClassifier.RejectionPolicy.ABORT);
+async.classifyAsync(observations).thenAccept(...);
+ * </pre>
+ *
+ * <p>Each classification runs on a thread of its own: a virtual thread when the
+ * Java runtime has them (Java 21 or later) and the system property
+ * <code>moltsen.NaiveBayes.virtual</code> is not "false", else a platform thread
+ * from a pool which is never queued on. When the limit is reached, the
+ * {@link RejectionPolicy} decides what happens to a new request. No policy
+ * blocks the calling thread.</p>
+ *
+ * <p>The classifier is compiled, so it is immutable and can be shared by any number
+ * of threads. Use {@link ConcurrentClassifier#getSnapshot()} to classify with the
+ * latest version of a changing model.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class AsyncClassifier {
+	/**
+	 * What to do with a request when the in-flight limit is reached.
+	 */
+	public enum RejectionPolicy {
+		/**
+		 * Fail the returned future with a {@link RejectedExecutionException} right away.
+		 */
+		ABORT,
+
+		/**
+		 * Classify in the calling thread and return a completed future, which slows
+		 * the caller down to the rate of classification.
+		 */
+		CALLER_RUNS,
+
+		/**
+		 * Queue the request and return its future right away. It is started when
+		 * a classification in flight is done, so the calling thread never blocks.
+		 * When the queue is full too, the future fails with a
+		 * {@link RejectedExecutionException} right away, as with {@link #ABORT}.
+		 */
+		QUEUE
+	}
+
+	private final CompiledClassifier classifier;
+	private final int maxInFlight;
+	private final int maxQueued;
+	private final RejectionPolicy policy;
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final boolean virtual;
+
+	private final Semaphore permits;
+	private final LinkedBlockingQueue<Waiting> waiting;
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private volatile boolean shutdown;
+
+
+	/**
+	 * Creates an asynchronous classifier on virtual threads if available, or
+	 * on a pool of platform threads. Under {@link RejectionPolicy#QUEUE}, as many
+	 * requests can be queued as can be in flight.
+	 *
+	 * @param classifier The model to classify with.
+	 * @param maxInFlight The largest number of classifications running at once.
+	 * @param policy What to do with requests beyond the limit.
+	 * @throws DataStructureException If the limit is less than 1.
+	 */
+	public AsyncClassifier(CompiledClassifier classifier, int maxInFlight, RejectionPolicy policy) throws DataStructureException {
+		this(classifier, maxInFlight, policy, maxInFlight, null);
+	}
+
+
+	/**
+	 * Creates an asynchronous classifier running on the given executor. Under
+	 * {@link RejectionPolicy#QUEUE}, as many requests can be queued as can be in
+	 * flight.
+	 *
+	 * @param classifier The model to classify with.
+	 * @param maxInFlight The largest number of classifications running at once.
+	 * @param policy What to do with requests beyond the limit.
+	 * @param executor The executor to run classifications on, or null for the default.
+	 * @throws DataStructureException If the limit is less than 1.
+	 */
+	public AsyncClassifier(CompiledClassifier classifier, int maxInFlight, RejectionPolicy policy, Executor executor) throws DataStructureException {
+		this(classifier, maxInFlight, policy, maxInFlight, executor);
+	}
+
+
+	/**
+	 * Creates an asynchronous classifier running on the given executor, which
+	 * should not queue (the limit is enforced before tasks are handed to it).
+	 * It is not shut down by {@link #shutdown()}.
+	 *
+	 * @param classifier The model to classify with.
+	 * @param maxInFlight The largest number of classifications running at once.
+	 * @param policy What to do with requests beyond the limit.
+	 * @param maxQueued The largest number of requests queued under {@link RejectionPolicy#QUEUE}.
+	 * @param executor The executor to run classifications on, or null for the default.
+	 * @throws DataStructureException If the limit is less than 1, or the queue limit is less than 0.
+	 */
+	public AsyncClassifier(CompiledClassifier classifier, int maxInFlight, RejectionPolicy policy, int maxQueued, Executor executor) throws DataStructureException {
+		if (maxInFlight < 1) { throw new DataStructureException("Expected an in-flight limit of at least 1 (got " + maxInFlight + ")"); }
+		if (maxQueued < 0) { throw new DataStructureException("Expected a queue limit of at least 0 (got " + maxQueued + ")"); }
+
+		this.classifier = classifier;
+		this.maxInFlight = maxInFlight;
+		this.maxQueued = maxQueued;
+		this.policy = policy;
+		this.permits = new Semaphore(maxInFlight);
+		this.waiting = new LinkedBlockingQueue<Waiting>(Math.max(1, maxQueued));
+
+		if (executor != null) {
+			this.executor = executor;
+			this.ownExecutor = null;
+			this.virtual = false;
+		}
+		else {
+			ExecutorService service = newVirtualThreadExecutor();
+			this.virtual = service != null;
+			if (service == null) { service = newPlatformThreadExecutor(); }
+			this.executor = service;
+			this.ownExecutor = service;
+		}
+	}
+
+
+	/**
+	 * Classifies observations given by name in the background. The observations
+	 * are encoded right away, so the map may be changed once this returns.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @return A future of the probability distribution over the class labels. It fails
+	 *         with a {@link DataStructureException} if a feature or state does not exist,
+	 *         or with a {@link RejectedExecutionException} if the request was rejected.
+	 */
+	public CompletableFuture<double[]> classifyAsync(Map<String, String> observations) {
+		try {
+			return classifyAsync(classifier.encode(observations));
+		}
+		catch (DataStructureException e) {
+			return failed(e);
+		}
+	}
+
+
+	/**
+	 * Classifies a state index vector in the background. The vector must not be
+	 * changed until the future is done.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @return A future of the probability distribution over the class labels. It fails
+	 *         with a {@link DataStructureException} if the vector does not match the features,
+	 *         or with a {@link RejectedExecutionException} if the request was rejected.
+	 */
+	public CompletableFuture<double[]> classifyAsync(int[] states) {
+		CompletableFuture<double[]> result = new CompletableFuture<double[]>();
+		if (shutdown) {
+			reject(result, "The classifier is shut down");
+			return result;
+		}
+		if (policy == RejectionPolicy.QUEUE) {
+			// Queued behind earlier waiting requests, then started if there is a permit:
+			if (maxQueued == 0 ? !permits.tryAcquire() : !waiting.offer(new Waiting(states, result))) {
+				reject(result, "More than " + maxInFlight + " classifications in flight and " + maxQueued + " queued");
+				return result;
+			}
+			if (maxQueued == 0) {
+				start(states, result);
+				return result;
+			}
+			startWaiting();
+			if (shutdown) { rejectWaiting(); }
+			return result;
+		}
+
+		if (!permits.tryAcquire()) {
+			if (policy == RejectionPolicy.CALLER_RUNS) {
+				complete(result, states);
+				return result;
+			}
+			reject(result, "More than " + maxInFlight + " classifications in flight");
+			return result;
+		}
+		start(states, result);
+		return result;
+	}
+
+
+	/**
+	 * Returns whether classifications run on virtual threads.
+	 *
+	 * @return True if on virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+
+	/**
+	 * Returns the number of classifications running or handed to the executor.
+	 *
+	 * @return The number in flight.
+	 */
+	public int getInFlightCount() {
+		return maxInFlight - permits.availablePermits();
+	}
+
+
+	/**
+	 * Returns the number of requests waiting for a classification in flight to be
+	 * done (under the {@link RejectionPolicy#QUEUE} policy).
+	 *
+	 * @return The number of queued requests.
+	 */
+	public int getQueuedCount() {
+		return waiting.size();
+	}
+
+
+	/**
+	 * Returns the number of requests rejected, by the limits, by the executor or
+	 * by {@link #shutdown()}.
+	 *
+	 * @return The number of rejections.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+
+	/**
+	 * Stops the threads created for this classifier once the classifications in
+	 * flight are done. Later requests, and requests still queued, are rejected,
+	 * also when running on an executor given by the caller.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		rejectWaiting();
+		if (ownExecutor != null) { ownExecutor.shutdown(); }
+	}
+
+
+	/**
+	 * Hands a classification to the executor, holding a permit until it is done.
+	 * The permit is then passed on to a waiting request, if any.
+	 */
+	private void start(final int[] states, final CompletableFuture<double[]> result) {
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						complete(result, states);
+					}
+					finally {
+						permits.release();
+						startWaiting();
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			permits.release();
+			rejectedCount.incrementAndGet();
+			result.completeExceptionally(e);
+		}
+	}
+
+
+	/**
+	 * Starts waiting requests while there are permits. Called both after queuing
+	 * and after releasing a permit, so a request queued just as the last permit
+	 * is released is still started by one of them.
+	 */
+	private void startWaiting() {
+		while (!shutdown && !waiting.isEmpty() && permits.tryAcquire()) {
+			Waiting next = waiting.poll();
+			if (next == null) {
+				permits.release();
+				continue;
+			}
+			start(next.states, next.result);
+		}
+	}
+
+
+	/**
+	 * Fails the requests still queued. Called both by {@link #shutdown()} and
+	 * after queuing, so a request queued just as the classifier is shut down
+	 * is still failed by one of them.
+	 */
+	private void rejectWaiting() {
+		Waiting next;
+		while ((next = waiting.poll()) != null) {
+			reject(next.result, "The classifier is shut down");
+		}
+	}
+
+
+	private void reject(CompletableFuture<double[]> result, String message) {
+		rejectedCount.incrementAndGet();
+		result.completeExceptionally(new RejectedExecutionException(message));
+	}
+
+
+	private void complete(CompletableFuture<double[]> result, int[] states) {
+		try {
+			result.complete(classifier.classify(states));
+		}
+		catch (Throwable e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+
+	/**
+	 * A request queued under the blocking policy.
+	 */
+	private static class Waiting {
+		final int[] states;
+		final CompletableFuture<double[]> result;
+
+		Waiting(int[] states, CompletableFuture<double[]> result) {
+			this.states = states;
+			this.result = result;
+		}
+	}
+
+
+	private static CompletableFuture<double[]> failed(Throwable e) {
+		CompletableFuture<double[]> result = new CompletableFuture<double[]>();
+		result.completeExceptionally(e);
+		return result;
+	}
+
+
+	/**
+	 * Creates a virtual thread per task executor through reflection, since the
+	 * sources are compiled for Java 8.
+	 *
+	 * @return The executor, or null if the runtime has no virtual threads.
+	 */
+	static ExecutorService newVirtualThreadExecutor() {
+		if ("false".equals(System.getProperty("moltsen.NaiveBayes.virtual"))) { return null; }
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Creates a pool of daemon threads, started on demand and stopped after a
+	 * minute idle, which hands tasks over directly instead of queuing them. The
+	 * pool itself is unbounded, since a thread may still be on its way back to
+	 * the pool after releasing its permit; the permits keep it near the limit.
+	 */
+	private static ExecutorService newPlatformThreadExecutor() {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "NaiveBayes async " + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+}
@@ -0,0 +1,495 @@
+package moltsen.AI.NaiveBayes;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>An immutable classifier which reads its probabilities directly from a
+ * buffer in the {@link NaiveBayesBinary} format, typically a memory-mapped file.</p>
+ *
+ * <p>Only the names of class labels, features and states are copied onto the heap
+ * (for looking up observations). The probability tables stay in the buffer, so
+ * loading takes about as long as reading the dictionary, regardless of the size of
+ * the tables.</p>
+ *
+ * <p>Classification is computed in log-space with the same loops as
+ * {@link CompiledClassifier#classifyLogSpace(Map)}, so the results are identical
+ * to it and do not underflow. The buffer holds the probabilities only, and the
+ * logarithm of each conditional probability is taken as it is read: this costs
+ * one {@link Math#log(double)} per class label and observed state, but keeps the
+ * tables at 8 bytes per probability. Only the logarithms of the priors are kept
+ * on the heap.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class BinaryClassifier {
+	private final String[] classLabels;
+	private final String[] featureNames;
+	private final String[][] stateLabels;
+	private final boolean[] multinomial;
+
+	private final HashMap<String, Integer> featureIndexes;
+	private final HashMap<String, Integer>[] stateIndexes;
+
+	private final int[] stateOffsets;
+	private final DoubleBuffer priorProbabilities;
+	private final DoubleBuffer conditionalProbabilities;
+	private final double[] logPriorProbabilities;
+
+	// Class indexes by descending prior, and whether all conditional probabilities are at most 1 (for top-K pruning):
+	private final int[] classesByPrior;
+	private final boolean prunable;
+
+
+	/**
+	 * Reads the header and dictionary of a buffer in the binary format. The
+	 * buffer must not be changed afterwards.
+	 *
+	 * @param buffer The buffer, from position 0.
+	 * @throws DataStructureException If the buffer is not in the binary format.
+	 */
+	@SuppressWarnings("unchecked")
+	public BinaryClassifier(ByteBuffer buffer) throws DataStructureException {
+		ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (b.limit() < NaiveBayesBinary.HEADER_SIZE || b.getInt(0) != NaiveBayesBinary.MAGIC) { throw new DataStructureException("Not a binary Naive Bayes model"); }
+		int version = b.getInt(4);
+		if (version < 1 || version > NaiveBayesBinary.VERSION) { throw new DataStructureException("Unsupported version (" + version + ")"); }
+
+		int classCount = b.getInt(8);
+		int featureCount = b.getInt(12);
+		int stateCount = b.getInt(16);
+		long numbersOffset = b.getLong(24);
+		long priorsOffset = numbersOffset + NaiveBayesBinary.offsetsSize(version, featureCount);
+		long conditionalsOffset = priorsOffset + 8L * classCount;
+		long end = conditionalsOffset + 8L * stateCount * classCount;
+		if (classCount < 0 || featureCount < 0 || stateCount < 0 || numbersOffset < NaiveBayesBinary.HEADER_SIZE || end > b.limit()) {
+			throw new DataStructureException("Truncated binary Naive Bayes model");
+		}
+
+		stateOffsets = new int[featureCount + 1];
+		for (int featureIndex = 0; featureIndex <= featureCount; featureIndex++) {
+			stateOffsets[featureIndex] = b.getInt((int) numbersOffset + 4 * featureIndex);
+		}
+		if (stateOffsets[featureCount] != stateCount) { throw new DataStructureException("Invalid state offsets"); }
+		multinomial = new boolean[featureCount];
+		if (version >= 2) {
+			for (int featureIndex = 0; featureIndex < featureCount; featureIndex++) {
+				multinomial[featureIndex] = (b.get((int) numbersOffset + 4 * (featureCount + 1) + featureIndex) & NaiveBayesBinary.MULTINOMIAL) != 0;
+			}
+		}
+
+		// Dictionary:
+		((Buffer) b).position(NaiveBayesBinary.HEADER_SIZE);
+		classLabels = new String[classCount];
+		for (int classIndex = 0; classIndex < classCount; classIndex++) {
+			classLabels[classIndex] = readString(b);
+		}
+		featureNames = new String[featureCount];
+		featureIndexes = new HashMap<String, Integer>();
+		for (int featureIndex = 0; featureIndex < featureCount; featureIndex++) {
+			featureNames[featureIndex] = readString(b);
+			featureIndexes.put(featureNames[featureIndex], featureIndex);
+		}
+		stateLabels = new String[featureCount][];
+		stateIndexes = new HashMap[featureCount];
+		for (int featureIndex = 0; featureIndex < featureCount; featureIndex++) {
+			int count = stateOffsets[featureIndex + 1] - stateOffsets[featureIndex];
+			if (count < 0) { throw new DataStructureException("Invalid state offsets"); }
+			stateLabels[featureIndex] = new String[count];
+			stateIndexes[featureIndex] = new HashMap<String, Integer>();
+			for (int stateIndex = 0; stateIndex < count; stateIndex++) {
+				stateLabels[featureIndex][stateIndex] = readString(b);
+				stateIndexes[featureIndex].put(stateLabels[featureIndex][stateIndex], stateIndex);
+			}
+		}
+
+		// Probability tables, left in the buffer:
+		((Buffer) b).position((int) priorsOffset);
+		priorProbabilities = b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		((Buffer) b).position((int) conditionalsOffset);
+		conditionalProbabilities = b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+
+		double[] priors = new double[classCount];
+		priorProbabilities.get(priors);
+		((Buffer) priorProbabilities).rewind();
+		logPriorProbabilities = new double[classCount];
+		for (int classIndex = 0; classIndex < classCount; classIndex++) {
+			logPriorProbabilities[classIndex] = Math.log(priors[classIndex]);
+		}
+		classesByPrior = TopK.orderByPrior(priors);
+
+		if (version >= 2) {
+			prunable = (b.getInt(20) & NaiveBayesBinary.BOUNDED) != 0;
+		}
+		else {
+			// Version 1 has no flags, so the table is scanned once, in place:
+			boolean bounded = true;
+			long cellCount = (long) stateCount * classCount;
+			for (long i = 0; i < cellCount && bounded; i++) {
+				bounded = Math.log(conditionalProbabilities.get((int) i)) <= 0d;
+			}
+			prunable = bounded;
+		}
+	}
+
+
+	/**
+	 * Returns all class labels.
+	 *
+	 * @return Class labels as an array of String.
+	 */
+	public String[] getClassLabels() {
+		return classLabels.clone();
+	}
+
+
+	/**
+	 * Returns all features.
+	 *
+	 * @return Features as an array of String.
+	 */
+	public String[] getFeatures() {
+		return featureNames.clone();
+	}
+
+
+	/**
+	 * Returns the states of a feature.
+	 *
+	 * @param featureIndex The index of the feature.
+	 * @return States of a feature as an array of String.
+	 */
+	public String[] getStates(int featureIndex) {
+		return stateLabels[featureIndex].clone();
+	}
+
+
+	/**
+	 * Returns whether a feature is multinomial.
+	 *
+	 * @param featureIndex The index of the feature.
+	 * @return True if observations of the feature may be token counts.
+	 */
+	public boolean isMultinomial(int featureIndex) {
+		return multinomial[featureIndex];
+	}
+
+
+	/**
+	 * Finds the index of a feature, e.g. for building state index vectors.
+	 *
+	 * @param featureName The feature of interest.
+	 * @return The index of the feature, or -1 if it does not exist.
+	 */
+	public int indexOfFeature(String featureName) {
+		Integer i = featureIndexes.get(featureName);
+		return i == null ? -1 : i;
+	}
+
+
+	/**
+	 * Finds the index of a state of a feature, e.g. for building state index vectors.
+	 *
+	 * @param featureIndex The index of the feature.
+	 * @param stateLabel The state of interest.
+	 * @return The index of the state, or -1 if it does not exist.
+	 */
+	public int indexOfState(int featureIndex, String stateLabel) {
+		Integer i = stateIndexes[featureIndex].get(stateLabel);
+		return i == null ? -1 : i;
+	}
+
+
+	/**
+	 * Converts observations given by name to a state index vector.
+	 *
+	 * @param observations A map of feature (key) and state (value) pairs.
+	 * @return A state index vector with -1 for features that were not observed.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 */
+	public int[] encode(Map<String, String> observations) throws DataStructureException {
+		int[] states = new int[featureNames.length];
+		encode(observations, states);
+		return states;
+	}
+
+
+	/**
+	 * Converts observations given by name into a reusable state index vector.
+	 *
+	 * @param observations A map of feature (key) and state (value) pairs.
+	 * @param states Receives the state index vector, with -1 for features that were not observed.
+	 * @throws DataStructureException If a feature or state does not exist, or the vector has the wrong length.
+	 */
+	public void encode(Map<String, String> observations, int[] states) throws DataStructureException {
+		if (states.length != featureNames.length) { throw new DataStructureException("Expected " + featureNames.length + " states (got " + states.length + ")"); }
+
+		Arrays.fill(states, -1);
+		for (Map.Entry<String, String> observation : observations.entrySet()) {
+			int featureIndex = indexOfExistingFeature(observation.getKey());
+			states[featureIndex] = indexOfExistingState(featureIndex, observation.getValue());
+		}
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on observations given by name.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 * @see CompiledClassifier#classifyLogSpace(Map)
+	 */
+	public double[] classify(Map<String, String> observations) throws DataStructureException {
+		int[] rows = new int[observations.size()];
+		double[] result = new double[classLabels.length];
+		score(rows, collectRows(observations, rows), result);
+		return result;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on a state index vector.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException If the vector does not match the features.
+	 * @see CompiledClassifier#classifyLogSpace(int[])
+	 */
+	public double[] classify(int[] states) throws DataStructureException {
+		int[] rows = new int[states.length];
+		double[] result = new double[classLabels.length];
+		score(rows, collectRows(states, rows), result);
+		return result;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on a state index vector, writing
+	 * the result into an array owned by the caller. Nothing is allocated. The
+	 * result is identical to {@link #classify(int[])}.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @param posteriors Receives the probability distribution over the class labels.
+	 * @throws DataStructureException If the vector does not match the features, or the result has the wrong length.
+	 * @see CompiledClassifier#classifyLogSpace(int[], double[])
+	 */
+	public void classify(int[] states, double[] posteriors) throws DataStructureException {
+		if (states.length != featureNames.length) { throw new DataStructureException("Expected " + featureNames.length + " states (got " + states.length + ")"); }
+		if (posteriors.length != classLabels.length) { throw new DataStructureException("Expected room for " + classLabels.length + " probabilities (got " + posteriors.length + ")"); }
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			int stateIndex = states[featureIndex];
+			if (stateIndex != -1 && (stateIndex < 0 || stateIndex >= stateLabels[featureIndex].length)) { throw new DataStructureException("State index " + stateIndex + " does not exist for " + featureNames[featureIndex]); }
+		}
+
+		System.arraycopy(logPriorProbabilities, 0, posteriors, 0, posteriors.length);
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			if (states[featureIndex] != -1) {
+				ScoringKernel.addLogRow(conditionalProbabilities, (stateOffsets[featureIndex] + states[featureIndex]) * posteriors.length, posteriors, posteriors.length);
+			}
+		}
+		CompiledClassifier.normalizeLogSpace(posteriors);
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on evidence which may include token
+	 * counts of multinomial features. The result is identical to
+	 * {@link CompiledClassifier#classify(Evidence)}. Since the binary format has no
+	 * continuous features, evidence with measurements is rejected.
+	 *
+	 * @param evidence The observed states and token counts.
+	 * @return A probability distribution over the class labels given the evidence.
+	 * @throws DataStructureException If a feature or state does not exist, or if
+	 *                                an observation does not match the type of its feature.
+	 */
+	public double[] classify(Evidence evidence) throws DataStructureException {
+		double[] result = logPriorProbabilities.clone();
+
+		for (Map.Entry<String, String> observation : evidence.getStates().entrySet()) {
+			int featureIndex = indexOfExistingFeature(observation.getKey());
+			int stateIndex = indexOfExistingState(featureIndex, observation.getValue());
+			ScoringKernel.addLogRow(conditionalProbabilities, (stateOffsets[featureIndex] + stateIndex) * result.length, result, result.length);
+		}
+
+		for (Map.Entry<String, ? extends Map<String, Integer>> feature : evidence.getTokenCounts().entrySet()) {
+			int featureIndex = indexOfExistingFeature(feature.getKey());
+			if (!multinomial[featureIndex]) { throw new DataStructureException("Feature is not multinomial (\"" + feature.getKey() + "\")"); }
+
+			for (Map.Entry<String, Integer> token : feature.getValue().entrySet()) {
+				int stateIndex = indexOfState(featureIndex, token.getKey());
+				if (stateIndex == -1 || token.getValue() == 0) { continue; }
+
+				ScoringKernel.addScaledLogRow(conditionalProbabilities, (stateOffsets[featureIndex] + stateIndex) * result.length, token.getValue(), result, result.length);
+			}
+		}
+
+		for (String featureName : evidence.getMeasurements().keySet()) {
+			indexOfExistingFeature(featureName);
+			throw new DataStructureException("Feature is not continuous (\"" + featureName + "\")");
+		}
+
+		CompiledClassifier.normalizeLogSpace(result);
+		return result;
+	}
+
+
+	/**
+	 * Finds the most likely class labels given observations by name, without
+	 * computing the full distribution.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @param k The number of class labels wanted (1 for the most likely one only).
+	 * @return At most k class labels, the most likely first.
+	 * @throws DataStructureException If a feature or state does not exist, or k is less than 1.
+	 * @see CompiledClassifier#classifyTopK(int[], int)
+	 */
+	public RankedLabel[] classifyTopK(Map<String, String> observations, int k) throws DataStructureException {
+		int[] rows = new int[observations.size()];
+		return topK(rows, collectRows(observations, rows), k);
+	}
+
+
+	/**
+	 * Finds the most likely class labels given a state index vector, without
+	 * computing the full distribution.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @param k The number of class labels wanted (1 for the most likely one only).
+	 * @return At most k class labels, the most likely first.
+	 * @throws DataStructureException If the vector does not match the features, or k is less than 1.
+	 * @see CompiledClassifier#classifyTopK(int[], int)
+	 */
+	public RankedLabel[] classifyTopK(int[] states, int k) throws DataStructureException {
+		int[] rows = new int[states.length];
+		return topK(rows, collectRows(states, rows), k);
+	}
+
+
+	/**
+	 * Copies the model into a new classifier, e.g. for changing it.
+	 *
+	 * @return A new classifier.
+	 * @throws DataStructureException
+	 */
+	public NaiveBayesClassifier toClassifier() throws DataStructureException {
+		NaiveBayesClassifier c = new NaiveBayesClassifier();
+		for (int classIndex = 0; classIndex < classLabels.length; classIndex++) {
+			c.addClassLabel(classLabels[classIndex]);
+			c.setPriorProbability(classIndex, priorProbabilities.get(classIndex));
+		}
+		for (int featureIndex = 0; featureIndex < featureNames.length; featureIndex++) {
+			if (multinomial[featureIndex]) {
+				c.addMultinomialFeature(featureNames[featureIndex]);
+			}
+			else {
+				c.addFeature(featureNames[featureIndex]);
+			}
+			for (int stateIndex = 0; stateIndex < stateLabels[featureIndex].length; stateIndex++) {
+				c.addState(featureNames[featureIndex], stateLabels[featureIndex][stateIndex]);
+				int row = (stateOffsets[featureIndex] + stateIndex) * classLabels.length;
+				for (int classIndex = 0; classIndex < classLabels.length; classIndex++) {
+					c.setConditionalProbability(featureIndex, stateIndex, classIndex, conditionalProbabilities.get(row + classIndex));
+				}
+			}
+		}
+		return c;
+	}
+
+
+	private int indexOfExistingFeature(String featureName) throws DataStructureException {
+		int featureIndex = indexOfFeature(featureName);
+		if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
+		return featureIndex;
+	}
+
+
+	private int indexOfExistingState(int featureIndex, String stateLabel) throws DataStructureException {
+		int stateIndex = indexOfState(featureIndex, stateLabel);
+		if (stateIndex == -1) { throw new DataStructureException("State does not exist (\"" + stateLabel + "\")"); }
+		return stateIndex;
+	}
+
+
+	/**
+	 * Finds the rows of the conditional tables of the observed states.
+	 *
+	 * @return The number of rows.
+	 */
+	private int collectRows(Map<String, String> observations, int[] rows) throws DataStructureException {
+		int rowCount = 0;
+		for (Map.Entry<String, String> observation : observations.entrySet()) {
+			int featureIndex = indexOfExistingFeature(observation.getKey());
+			int stateIndex = indexOfExistingState(featureIndex, observation.getValue());
+			rows[rowCount++] = (stateOffsets[featureIndex] + stateIndex) * classLabels.length;
+		}
+		return rowCount;
+	}
+
+
+	/**
+	 * Finds the rows of the conditional tables of the observed states.
+	 *
+	 * @return The number of rows.
+	 */
+	private int collectRows(int[] states, int[] rows) throws DataStructureException {
+		if (states.length != featureNames.length) { throw new DataStructureException("Expected " + featureNames.length + " states (got " + states.length + ")"); }
+
+		int rowCount = 0;
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			int stateIndex = states[featureIndex];
+			if (stateIndex == -1) { continue; }
+			if (stateIndex < 0 || stateIndex >= stateLabels[featureIndex].length) { throw new DataStructureException("State index " + stateIndex + " does not exist for " + featureNames[featureIndex]); }
+
+			rows[rowCount++] = (stateOffsets[featureIndex] + stateIndex) * classLabels.length;
+		}
+		return rowCount;
+	}
+
+
+	/**
+	 * Scores the given rows of the conditional table like the compiled classifier does.
+	 *
+	 * @param result Receives the probability distribution over the class labels.
+	 */
+	private void score(int[] rows, int rowCount, double[] result) {
+		System.arraycopy(logPriorProbabilities, 0, result, 0, result.length);
+		for (int i = 0; i < rowCount; i++) {
+			ScoringKernel.addLogRow(conditionalProbabilities, rows[i], result, result.length);
+		}
+		CompiledClassifier.normalizeLogSpace(result);
+	}
+
+
+	/**
+	 * Keeps the k best log-scores, pruning class labels which can no longer reach them.
+	 */
+	private RankedLabel[] topK(int[] rows, int rowCount, int k) throws DataStructureException {
+		TopK best = new TopK(k, classLabels.length);
+		for (int classIndex : classesByPrior) {
+			double threshold = best.threshold(prunable);
+			double score = logPriorProbabilities[classIndex];
+			for (int i = 0; i < rowCount && !(score <= threshold); i++) {
+				score += Math.log(conditionalProbabilities.get(rows[i] + classIndex));
+			}
+			best.offer(classIndex, score);
+		}
+		return best.toArray(classLabels);
+	}
+
+
+	private static String readString(ByteBuffer b) throws DataStructureException {
+		int length = b.getInt();
+		if (length < 0 || length > b.remaining()) { throw new DataStructureException("Truncated binary Naive Bayes model"); }
+
+		byte[] bytes = new byte[length];
+		b.get(bytes);
+		return new String(bytes, NaiveBayesBinary.UTF8);
+	}
+}
@@ -0,0 +1,239 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>A bounded cache of results in front of {@link NaiveBayesClassifier#classify(Map)},
+ * for traffic where the same observations are classified over and over.</p>
+ *
+ * <p>Observations are keyed by their (feature index, state index) pairs, sorted
+ * by feature, so maps with the same pairs share an entry regardless of their type
+ * or iteration order, and a key takes space for the observed features only. The
+ * cache holds at most a
+ * given number of entries and a given number of (estimated) bytes, and evicts the
+ * least recently used entries first. Whenever the classifier is changed, which is
+ * noticed through {@link NaiveBayesClassifier#getModificationCount()}, all entries
+ * are dropped before the next lookup.</p>
+ *
+ * <p>A cache may be shared between threads as long as the classifier itself is
+ * not changed concurrently (see {@link ConcurrentClassifier} for that). Lookups
+ * hold the lock of the cache briefly, while misses are classified outside it by
+ * the compiled snapshot of the classifier (see {@link NaiveBayesClassifier#compile()}),
+ * so a slow miss does not hold up hits. Threads missing on the same observations
+ * at the same time may each classify them, and the first result is kept.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class ClassificationCache {
+	private final NaiveBayesClassifier classifier;
+	private final int maxEntries;
+	private final long maxBytes;
+
+	private final LinkedHashMap<Key, Double[]> entries = new LinkedHashMap<Key, Double[]>(16, 0.75f, true);
+	private long modificationCount = -1;
+	private long bytes;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long invalidationCount;
+
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param classifier The classifier to cache the results of.
+	 * @param maxEntries The largest number of results kept.
+	 * @param maxBytes The largest estimated size of the results kept, see {@link #getByteSize()}.
+	 */
+	public ClassificationCache(NaiveBayesClassifier classifier, int maxEntries, long maxBytes) {
+		this.classifier = classifier;
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+
+	/**
+	 * Returns the cached result for the observations, or classifies them with
+	 * the classifier and caches the result.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException
+	 */
+	public Double[] classify(Map<String, String> observations) throws DataStructureException {
+		CompiledClassifier compiled;
+		long lookupModificationCount;
+		Key key;
+		synchronized (this) {
+			if (modificationCount != classifier.getModificationCount()) {
+				if (!entries.isEmpty()) {
+					invalidationCount++;
+					clear();
+				}
+				modificationCount = classifier.getModificationCount();
+			}
+			lookupModificationCount = modificationCount;
+
+			compiled = classifier.compile();
+			key = new Key(compiled, observations);
+			Double[] result = entries.get(key);
+			if (result != null) {
+				hitCount++;
+				return result.clone();
+			}
+			missCount++;
+		}
+
+		// Classify the miss outside the lock, with the immutable snapshot:
+		double[] posteriors = compiled.classify(observations);
+		Double[] result = new Double[posteriors.length];
+		for (int classIndex = 0; classIndex < posteriors.length; classIndex++) {
+			result[classIndex] = posteriors[classIndex];
+		}
+
+		long size = estimateSize(key, result);
+		synchronized (this) {
+			if (lookupModificationCount == modificationCount && maxEntries > 0 && size <= maxBytes && !entries.containsKey(key)) {
+				entries.put(key, result.clone());
+				bytes += size;
+				evict();
+			}
+		}
+		return result;
+	}
+
+
+	/**
+	 * Drops all cached results. The counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+
+	/**
+	 * Returns the number of cached results.
+	 *
+	 * @return The number of entries.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+
+	/**
+	 * Returns the estimated heap size of the cached results: the keys, the
+	 * boxed results and the entries of the map holding them.
+	 *
+	 * @return The estimated number of bytes.
+	 */
+	public synchronized long getByteSize() {
+		return bytes;
+	}
+
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 *
+	 * @return The number of hits.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+
+	/**
+	 * Returns the number of lookups which had to classify.
+	 *
+	 * @return The number of misses.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+
+	/**
+	 * Returns the number of results dropped to stay within the bounds.
+	 *
+	 * @return The number of evictions.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+
+	/**
+	 * Returns the number of times the cache was emptied because the model changed.
+	 *
+	 * @return The number of invalidations.
+	 */
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+
+	/**
+	 * Drops the least recently used results until the cache is within its bounds.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Key, Double[]>> eldest = entries.entrySet().iterator();
+		while (entries.size() > maxEntries || bytes > maxBytes) {
+			Map.Entry<Key, Double[]> entry = eldest.next();
+			bytes -= estimateSize(entry.getKey(), entry.getValue());
+			eldest.remove();
+			evictionCount++;
+		}
+	}
+
+
+	/**
+	 * Estimates the heap size of an entry on a 64-bit JVM with compressed pointers:
+	 * the map entry (40), the key (24) and its array (16 + 8 per observed feature),
+	 * and the result array (16 + 4 per class label) with its boxed values (16 each).
+	 */
+	private static long estimateSize(Key key, Double[] result) {
+		return 40 + 24 + 16 + 8L * key.pairs.length + 16 + 20L * result.length;
+	}
+
+
+	/**
+	 * The observed (feature index, state index) pairs, each packed into a long
+	 * with the feature index in the high half, sorted, with value semantics.
+	 */
+	private static class Key {
+		private final long[] pairs;
+		private final int hash;
+
+		Key(CompiledClassifier compiled, Map<String, String> observations) throws DataStructureException {
+			pairs = new long[observations.size()];
+			int i = 0;
+			for (Map.Entry<String, String> observation : observations.entrySet()) {
+				int featureIndex = compiled.indexOfFeature(observation.getKey());
+				if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + observation.getKey() + "\")"); }
+
+				int stateIndex = compiled.indexOfState(featureIndex, observation.getValue());
+				if (stateIndex == -1) { throw new DataStructureException("State does not exist (\"" + observation.getValue() + "\")"); }
+
+				pairs[i++] = ((long) featureIndex << 32) | stateIndex;
+			}
+			Arrays.sort(pairs);
+			hash = Arrays.hashCode(pairs);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(pairs, ((Key) other).pairs);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.Arrays;
+
+/**
+ * <p>The posterior of a sequence of observations made one at a time, as in an
+ * interactive diagnosis where findings are recorded, corrected and withdrawn.</p>
+ *
+ * <p>Instead of classifying the whole set of findings after every step, the session
+ * keeps the unnormalized log-posterior of each class label. Observing, changing or
+ * retracting a finding adds or subtracts one row of log conditional probabilities,
+ * which takes time proportional to the number of class labels, however many findings
+ * are already recorded. Conditional probabilities of zero are counted separately per
+ * class label rather than added as negative infinity, so they can be retracted too.</p>
+ *
+ * <pre>
+ClassificationSession session = new ClassificationSession(c.compile());
+session.observe("Fever", "yes");
+double[] result = session.getPosterior();
+session.observe("Red spots", "no");
+result = session.getPosterior();
+ * </pre>
+ *
+ * <p>A session belongs to one compiled classifier, and is not safe for use by
+ * several threads at once.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class ClassificationSession {
+	private final CompiledClassifier classifier;
+	private final double[] logConditionals;
+
+	private final int[] states;
+	private final double[] logScores;
+	private final int[] zeroCounts;
+	private int observationCount;
+
+
+	/**
+	 * Creates a session without observations, where the posterior is the prior.
+	 *
+	 * @param classifier The classifier to score observations with.
+	 */
+	public ClassificationSession(CompiledClassifier classifier) {
+		this.classifier = classifier;
+		logConditionals = classifier.getLogConditionalProbabilities();
+		states = new int[classifier.getFeatures().length];
+		logScores = new double[classifier.getClassLabels().length];
+		zeroCounts = new int[logScores.length];
+		reset();
+	}
+
+
+	/**
+	 * Records the state of a feature, replacing any state recorded before.
+	 *
+	 * @param featureName The observed feature.
+	 * @param stateLabel The observed state.
+	 * @throws DataStructureException If the feature or state does not exist.
+	 */
+	public void observe(String featureName, String stateLabel) throws DataStructureException {
+		int featureIndex = featureIndex(featureName);
+		int stateIndex = classifier.indexOfState(featureIndex, stateLabel);
+		if (stateIndex == -1) { throw new DataStructureException("State does not exist (\"" + stateLabel + "\")"); }
+
+		observe(featureIndex, stateIndex);
+	}
+
+
+	/**
+	 * Records the state of a feature given by index, replacing any state recorded before.
+	 *
+	 * @param featureIndex The index of the observed feature.
+	 * @param stateIndex The index of the observed state.
+	 * @throws DataStructureException If the state does not exist.
+	 */
+	public void observe(int featureIndex, int stateIndex) throws DataStructureException {
+		if (featureIndex < 0 || featureIndex >= states.length) { throw new DataStructureException("Feature index " + featureIndex + " does not exist"); }
+		if (stateIndex < 0 || stateIndex >= classifier.getStateCount(featureIndex)) { throw new DataStructureException("State index " + stateIndex + " does not exist for " + classifier.getFeatures()[featureIndex]); }
+		if (states[featureIndex] == stateIndex) { return; }
+
+		if (states[featureIndex] != -1) {
+			add(classifier.rowOf(featureIndex, states[featureIndex]), -1);
+			observationCount--;
+		}
+		add(classifier.rowOf(featureIndex, stateIndex), 1);
+		states[featureIndex] = stateIndex;
+		observationCount++;
+	}
+
+
+	/**
+	 * Withdraws the state recorded for a feature, if any.
+	 *
+	 * @param featureName The feature to forget.
+	 * @throws DataStructureException If the feature does not exist.
+	 */
+	public void retract(String featureName) throws DataStructureException {
+		retract(featureIndex(featureName));
+	}
+
+
+	/**
+	 * Withdraws the state recorded for a feature given by index, if any.
+	 *
+	 * @param featureIndex The index of the feature to forget.
+	 * @throws DataStructureException If the feature does not exist.
+	 */
+	public void retract(int featureIndex) throws DataStructureException {
+		if (featureIndex < 0 || featureIndex >= states.length) { throw new DataStructureException("Feature index " + featureIndex + " does not exist"); }
+		if (states[featureIndex] == -1) { return; }
+
+		add(classifier.rowOf(featureIndex, states[featureIndex]), -1);
+		states[featureIndex] = -1;
+		observationCount--;
+	}
+
+
+	/**
+	 * Withdraws all recorded states. The sums are started over from the priors,
+	 * which also drops any rounding errors collected along the way.
+	 */
+	public void reset() {
+		Arrays.fill(states, -1);
+		System.arraycopy(classifier.getLogPriorProbabilities(), 0, logScores, 0, logScores.length);
+		Arrays.fill(zeroCounts, 0);
+		for (int classIndex = 0; classIndex < logScores.length; classIndex++) {
+			if (logScores[classIndex] == Double.NEGATIVE_INFINITY) {
+				logScores[classIndex] = 0d;
+				zeroCounts[classIndex] = 1;
+			}
+		}
+		observationCount = 0;
+	}
+
+
+	/**
+	 * Returns the recorded state of a feature.
+	 *
+	 * @param featureIndex The index of the feature.
+	 * @return The index of the recorded state, or -1 if none.
+	 */
+	public int getState(int featureIndex) {
+		return states[featureIndex];
+	}
+
+
+	/**
+	 * Returns the number of features with a recorded state.
+	 *
+	 * @return The number of observations.
+	 */
+	public int getObservationCount() {
+		return observationCount;
+	}
+
+
+	/**
+	 * Returns the posterior given the recorded states. This takes time
+	 * proportional to the number of class labels.
+	 *
+	 * @return A probability distribution over the class labels.
+	 */
+	public double[] getPosterior() {
+		double[] result = new double[logScores.length];
+		for (int classIndex = 0; classIndex < result.length; classIndex++) {
+			result[classIndex] = zeroCounts[classIndex] > 0 ? Double.NEGATIVE_INFINITY : logScores[classIndex];
+		}
+		CompiledClassifier.normalizeLogSpace(result);
+		return result;
+	}
+
+
+	/**
+	 * Adds (sign 1) or subtracts (sign -1) a row of log conditionals.
+	 */
+	private void add(int row, int sign) {
+		for (int classIndex = 0; classIndex < logScores.length; classIndex++) {
+			double logConditional = logConditionals[row + classIndex];
+			if (logConditional == Double.NEGATIVE_INFINITY) {
+				zeroCounts[classIndex] += sign;
+			}
+			else {
+				logScores[classIndex] += sign * logConditional;
+			}
+		}
+	}
+
+
+	private int featureIndex(String featureName) throws DataStructureException {
+		int featureIndex = classifier.indexOfFeature(featureName);
+		if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
+		return featureIndex;
+	}
+}
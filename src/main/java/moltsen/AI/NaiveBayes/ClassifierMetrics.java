@@ -0,0 +1,76 @@
+package moltsen.AI.NaiveBayes;
+
+/**
+ * <p>Receives measurements from a {@link NaiveBayesClassifier}, see
+ * {@link NaiveBayesClassifier#setMetrics(ClassifierMetrics)}.</p>
+ *
+ * <p>Methods are called on the thread doing the work, right after it is done,
+ * so implementations should be quick and must be thread-safe if the classifier
+ * is used by several threads. {@link ClassifierStatistics} keeps counters and
+ * latency histograms, and <code>moltsen.AI.NaiveBayes.jfr.JfrMetrics</code> in the
+ * Java 17 module emits JDK Flight Recorder events.</p>
+ *
+ * <p>Only classification through the {@link NaiveBayesClassifier} is measured.
+ * The snapshots it hands out ({@link CompiledClassifier}, {@link QuantizedClassifier},
+ * and {@link BinaryClassifier}) report nothing when used directly, and unknown
+ * features and states are reported by {@link NaiveBayesClassifier#classify(java.util.Map)}
+ * only.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public interface ClassifierMetrics {
+	/**
+	 * Called after a successful classification of one set of observations by the
+	 * {@link NaiveBayesClassifier}, including its top-K, evidence and index vector
+	 * entry points, with the time spent in each phase.
+	 *
+	 * @param observationCount The number of observed features.
+	 * @param validationNanos The time spent validating, or compiling (near zero when the result was remembered).
+	 * @param lookupNanos The time spent finding the observed features and states (0 where this is part of scoring).
+	 * @param scoringNanos The time spent computing the distribution.
+	 */
+	void classified(int observationCount, long validationNanos, long lookupNanos, long scoringNanos);
+
+	/**
+	 * Called after a successful batch classification by the {@link NaiveBayesClassifier}.
+	 *
+	 * @param rowCount The number of rows classified.
+	 * @param validationNanos The time spent compiling (near zero when the result was remembered).
+	 * @param scoringNanos The time spent looking up and computing the distributions of all rows.
+	 */
+	void classifiedBatch(int rowCount, long validationNanos, long scoringNanos);
+
+	/**
+	 * Called after the model was validated, i.e. not when the result was remembered.
+	 *
+	 * @param nanos The time spent validating.
+	 * @param failure The inconsistency found, or null if the model is consistent.
+	 */
+	void validated(long nanos, String failure);
+
+	/**
+	 * Called when classification is rejected because a feature does not exist.
+	 *
+	 * @param featureName The unknown feature.
+	 */
+	void unknownFeature(String featureName);
+
+	/**
+	 * Called when classification is rejected because a state does not exist.
+	 *
+	 * @param featureName The observed feature.
+	 * @param stateLabel The unknown state.
+	 */
+	void unknownState(String featureName, String stateLabel);
+
+	/**
+	 * Called after every change to the model.
+	 *
+	 * @param modificationCount The number of changes made so far (see {@link NaiveBayesClassifier#getModificationCount()}).
+	 * @param classCount The number of class labels.
+	 * @param featureCount The number of features.
+	 * @param stateCount The total number of states of all features.
+	 */
+	void modified(long modificationCount, int classCount, int featureCount, int stateCount);
+}
@@ -0,0 +1,283 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>{@link ClassifierMetrics} which keep counters, total times and latency
+ * histograms in memory, for reading by monitoring code.</p>
+ *
+ * <p>Latencies are counted in buckets of powers of two: bucket <i>i</i> counts
+ * the latencies from 2<sup><i>i</i>-1</sup> (inclusive) to 2<sup><i>i</i></sup>
+ * (exclusive) nanoseconds, and bucket 0 latencies of zero. Recording is lock-free.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class ClassifierStatistics implements ClassifierMetrics {
+	/**
+	 * The number of buckets of a latency histogram.
+	 */
+	public static final int BUCKET_COUNT = 64;
+
+	private final AtomicLong classifyCount = new AtomicLong();
+	private final AtomicLong observationCount = new AtomicLong();
+	private final AtomicLong validationNanos = new AtomicLong();
+	private final AtomicLong lookupNanos = new AtomicLong();
+	private final AtomicLong scoringNanos = new AtomicLong();
+	private final AtomicLongArray classifyLatencies = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong batchCount = new AtomicLong();
+	private final AtomicLong batchRowCount = new AtomicLong();
+	private final AtomicLongArray batchLatencies = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong validationCount = new AtomicLong();
+	private final AtomicLong validationFailureCount = new AtomicLong();
+	private final AtomicLongArray validationLatencies = new AtomicLongArray(BUCKET_COUNT);
+
+	private final AtomicLong unknownFeatureCount = new AtomicLong();
+	private final AtomicLong unknownStateCount = new AtomicLong();
+
+	private final AtomicLong modificationCount = new AtomicLong();
+	private volatile int[] modelSize = new int[3];
+
+
+	public void classified(int observations, long validation, long lookup, long scoring) {
+		classifyCount.incrementAndGet();
+		observationCount.addAndGet(observations);
+		validationNanos.addAndGet(validation);
+		lookupNanos.addAndGet(lookup);
+		scoringNanos.addAndGet(scoring);
+		classifyLatencies.incrementAndGet(bucket(validation + lookup + scoring));
+	}
+
+
+	public void classifiedBatch(int rowCount, long validation, long scoring) {
+		batchCount.incrementAndGet();
+		batchRowCount.addAndGet(rowCount);
+		batchLatencies.incrementAndGet(bucket(validation + scoring));
+	}
+
+
+	public void validated(long nanos, String failure) {
+		validationCount.incrementAndGet();
+		if (failure != null) { validationFailureCount.incrementAndGet(); }
+		validationLatencies.incrementAndGet(bucket(nanos));
+	}
+
+
+	public void unknownFeature(String featureName) {
+		unknownFeatureCount.incrementAndGet();
+	}
+
+
+	public void unknownState(String featureName, String stateLabel) {
+		unknownStateCount.incrementAndGet();
+	}
+
+
+	public void modified(long count, int classCount, int featureCount, int stateCount) {
+		modificationCount.incrementAndGet();
+		modelSize = new int[] { classCount, featureCount, stateCount };
+	}
+
+
+	/**
+	 * Returns the number of successful classifications.
+	 *
+	 * @return The number of classifications.
+	 */
+	public long getClassifyCount() {
+		return classifyCount.get();
+	}
+
+
+	/**
+	 * Returns the total number of observed features of all classifications.
+	 *
+	 * @return The number of observations.
+	 */
+	public long getObservationCount() {
+		return observationCount.get();
+	}
+
+
+	/**
+	 * Returns the total time classifications spent validating.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getValidationNanos() {
+		return validationNanos.get();
+	}
+
+
+	/**
+	 * Returns the total time classifications spent looking up features and states.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getLookupNanos() {
+		return lookupNanos.get();
+	}
+
+
+	/**
+	 * Returns the total time classifications spent computing distributions.
+	 *
+	 * @return The time in nanoseconds.
+	 */
+	public long getScoringNanos() {
+		return scoringNanos.get();
+	}
+
+
+	/**
+	 * Returns the histogram of classification latencies.
+	 *
+	 * @return The count per bucket, see the class description.
+	 */
+	public long[] getClassifyLatencies() {
+		return toArray(classifyLatencies);
+	}
+
+
+	/**
+	 * Returns the number of successful batch classifications. Their rows are not
+	 * counted as classifications.
+	 *
+	 * @return The number of batches.
+	 */
+	public long getBatchCount() {
+		return batchCount.get();
+	}
+
+
+	/**
+	 * Returns the total number of rows of all batch classifications.
+	 *
+	 * @return The number of rows.
+	 */
+	public long getBatchRowCount() {
+		return batchRowCount.get();
+	}
+
+
+	/**
+	 * Returns the histogram of batch classification latencies, per batch.
+	 *
+	 * @return The count per bucket, see the class description.
+	 */
+	public long[] getBatchLatencies() {
+		return toArray(batchLatencies);
+	}
+
+
+	/**
+	 * Returns the number of validations actually performed.
+	 *
+	 * @return The number of validations.
+	 */
+	public long getValidationCount() {
+		return validationCount.get();
+	}
+
+
+	/**
+	 * Returns the number of validations which found the model inconsistent.
+	 *
+	 * @return The number of failed validations.
+	 */
+	public long getValidationFailureCount() {
+		return validationFailureCount.get();
+	}
+
+
+	/**
+	 * Returns the histogram of validation latencies.
+	 *
+	 * @return The count per bucket, see the class description.
+	 */
+	public long[] getValidationLatencies() {
+		return toArray(validationLatencies);
+	}
+
+
+	/**
+	 * Returns the number of classifications rejected for an unknown feature.
+	 *
+	 * @return The number of rejections.
+	 */
+	public long getUnknownFeatureCount() {
+		return unknownFeatureCount.get();
+	}
+
+
+	/**
+	 * Returns the number of classifications rejected for an unknown state.
+	 *
+	 * @return The number of rejections.
+	 */
+	public long getUnknownStateCount() {
+		return unknownStateCount.get();
+	}
+
+
+	/**
+	 * Returns the number of changes to the model.
+	 *
+	 * @return The number of changes seen.
+	 */
+	public long getModificationCount() {
+		return modificationCount.get();
+	}
+
+
+	/**
+	 * Returns the size of the model after the last change.
+	 *
+	 * @return The number of class labels, features and states (in total).
+	 */
+	public int[] getModelSize() {
+		return modelSize.clone();
+	}
+
+
+	/**
+	 * Estimates a percentile of a latency histogram as the upper bound of the
+	 * bucket holding it.
+	 *
+	 * @param histogram A histogram from this class.
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The latency in nanoseconds, or 0 if the histogram is empty.
+	 */
+	public static long percentile(long[] histogram, double percentile) {
+		long total = 0;
+		for (long count : histogram) {
+			total += count;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100d);
+		long seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= rank && seen > 0) {
+				return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+			}
+		}
+		return 0;
+	}
+
+
+	private static int bucket(long nanos) {
+		return nanos <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+
+	private static long[] toArray(AtomicLongArray a) {
+		long[] res = new long[a.length()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = a.get(i);
+		}
+		return res;
+	}
+}
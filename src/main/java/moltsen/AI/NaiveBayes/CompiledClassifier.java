@@ -0,0 +1,860 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import moltsen.AI.NaiveBayes.model.*;
+
+/**
+ * <p>An immutable snapshot of a {@link NaiveBayesClassifier} where all prior and
+ * conditional probabilities are stored in flat arrays of primitive doubles.</p>
+ *
+ * <p>A compiled classifier is created with {@link NaiveBayesClassifier#compile()}
+ * and is not affected by later changes to the classifier it was compiled from.
+ * Since it cannot change, it may be shared freely between threads.</p>
+ *
+ * <p>Observations can be given either as a map of feature and state names (like
+ * {@link NaiveBayesClassifier#classify(Map)}), or as a state index vector with one
+ * entry per feature holding the index of the observed state, or -1 if the feature
+ * was not observed. Use {@link #indexOfFeature(String)} and
+ * {@link #indexOfState(int, String)} to build such vectors once up front.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class CompiledClassifier {
+	/**
+	 * Batches of more rows than this are split across a {@link ForkJoinPool}.
+	 */
+	public static final int BATCH_SPLIT_SIZE = 1024;
+
+	private final String[] classLabels;
+	private final String[] featureNames;
+	private final String[][] stateLabels;
+	private final boolean[] multinomial;
+
+	private final HashMap<String, Integer> featureIndexes;
+	private final HashMap<String, Integer>[] stateIndexes;
+
+	private final double[] priorProbabilities;
+	private final double[] logPriorProbabilities;
+
+	// Class indexes by descending prior, and whether all log conditionals are at most 0 (for top-K pruning):
+	private final int[] classesByPrior;
+	private final boolean prunable;
+
+	// Row (feature, state) of the conditional table starts at (stateOffsets[feature] + state) * classCount:
+	private final int[] stateOffsets;
+	private final double[] conditionalProbabilities;
+	private final double[] logConditionalProbabilities;
+
+	// Per continuous feature and class label (null for other features): the log-density is
+	// logNormalizations[f][c] - (x - means[f][c])^2 * halfPrecisions[f][c]
+	private final double[][] means;
+	private final double[][] halfPrecisions;
+	private final double[][] logNormalizations;
+
+
+	/**
+	 * Copies the structure and probabilities of the given data. The data
+	 * is expected to be validated already.
+	 *
+	 * @param data The data to compile.
+	 */
+	@SuppressWarnings("unchecked")
+	CompiledClassifier(NaiveBayesData data) {
+		int classCount = data.getClassLabels().size();
+		int featureCount = data.getFeatures().size();
+
+		classLabels = data.getClassLabels().toArray(new String[classCount]);
+		priorProbabilities = new double[classCount];
+		logPriorProbabilities = new double[classCount];
+		for (int classIndex = 0; classIndex < classCount; classIndex++) {
+			priorProbabilities[classIndex] = data.getPriorProbabilities().get(classIndex);
+			logPriorProbabilities[classIndex] = Math.log(priorProbabilities[classIndex]);
+		}
+
+		featureNames = new String[featureCount];
+		stateLabels = new String[featureCount][];
+		multinomial = new boolean[featureCount];
+		featureIndexes = new HashMap<String, Integer>();
+		stateIndexes = new HashMap[featureCount];
+		stateOffsets = new int[featureCount];
+		means = new double[featureCount][];
+		halfPrecisions = new double[featureCount][];
+		logNormalizations = new double[featureCount][];
+
+		int stateCount = 0;
+		for (int featureIndex = 0; featureIndex < featureCount; featureIndex++) {
+			FeatureData fd = data.getFeatures().get(featureIndex);
+			featureNames[featureIndex] = fd.getName();
+			multinomial[featureIndex] = fd.isMultinomial();
+			featureIndexes.put(fd.getName(), featureIndex);
+			stateOffsets[featureIndex] = stateCount;
+
+			stateLabels[featureIndex] = new String[fd.getStates().size()];
+			stateIndexes[featureIndex] = new HashMap<String, Integer>();
+			for (int stateIndex = 0; stateIndex < fd.getStates().size(); stateIndex++) {
+				stateLabels[featureIndex][stateIndex] = fd.getStates().get(stateIndex).getLabel();
+				stateIndexes[featureIndex].put(stateLabels[featureIndex][stateIndex], stateIndex);
+			}
+			stateCount += fd.getStates().size();
+
+			if (fd.isContinuous()) {
+				means[featureIndex] = new double[classCount];
+				halfPrecisions[featureIndex] = new double[classCount];
+				logNormalizations[featureIndex] = new double[classCount];
+				for (int classIndex = 0; classIndex < classCount; classIndex++) {
+					double variance = fd.getVariances().get(classIndex);
+					means[featureIndex][classIndex] = fd.getMeans().get(classIndex);
+					halfPrecisions[featureIndex][classIndex] = 0.5d / variance;
+					logNormalizations[featureIndex][classIndex] = -0.5d * Math.log(2d * Math.PI * variance);
+				}
+			}
+		}
+
+		conditionalProbabilities = new double[stateCount * classCount];
+		logConditionalProbabilities = new double[stateCount * classCount];
+		boolean bounded = true;
+		int row = 0;
+		for (FeatureData fd : data.getFeatures()) {
+			for (StateData sd : fd.getStates()) {
+				for (int classIndex = 0; classIndex < classCount; classIndex++) {
+					conditionalProbabilities[row * classCount + classIndex] = sd.getConditionalProbabilities().get(classIndex);
+					logConditionalProbabilities[row * classCount + classIndex] = Math.log(conditionalProbabilities[row * classCount + classIndex]);
+					bounded &= logConditionalProbabilities[row * classCount + classIndex] <= 0d;
+				}
+				row++;
+			}
+		}
+		prunable = bounded;
+		classesByPrior = TopK.orderByPrior(priorProbabilities);
+	}
+
+
+	/**
+	 * Returns all class labels.
+	 *
+	 * @return Class labels as an array of String.
+	 */
+	public String[] getClassLabels() {
+		return classLabels.clone();
+	}
+
+
+	/**
+	 * Returns all features.
+	 *
+	 * @return Features as an array of String.
+	 */
+	public String[] getFeatures() {
+		return featureNames.clone();
+	}
+
+
+	/**
+	 * Returns the states of a feature.
+	 *
+	 * @param featureIndex The index of the feature.
+	 * @return States of a feature as an array of String.
+	 */
+	public String[] getStates(int featureIndex) {
+		return stateLabels[featureIndex].clone();
+	}
+
+
+	/**
+	 * Finds the index of a feature, e.g. for building state index vectors.
+	 *
+	 * @param featureName The feature of interest.
+	 * @return The index of the feature, or -1 if it does not exist.
+	 */
+	public int indexOfFeature(String featureName) {
+		Integer i = featureIndexes.get(featureName);
+		return i == null ? -1 : i;
+	}
+
+
+	/**
+	 * Finds the index of a state of a feature, e.g. for building state index vectors.
+	 *
+	 * @param featureIndex The index of the feature.
+	 * @param stateLabel The state of interest.
+	 * @return The index of the state, or -1 if it does not exist.
+	 */
+	public int indexOfState(int featureIndex, String stateLabel) {
+		Integer i = stateIndexes[featureIndex].get(stateLabel);
+		return i == null ? -1 : i;
+	}
+
+
+	/**
+	 * Converts observations given by name to a state index vector.
+	 *
+	 * @param observations A map of feature (key) and state (value) pairs.
+	 * @return A state index vector with -1 for features that were not observed.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 */
+	public int[] encode(Map<String, String> observations) throws DataStructureException {
+		int[] states = new int[featureNames.length];
+		encode(observations, states);
+		return states;
+	}
+
+
+	/**
+	 * Converts observations given by name into a reusable state index vector.
+	 *
+	 * @param observations A map of feature (key) and state (value) pairs.
+	 * @param states Receives the state index vector, with -1 for features that were not observed.
+	 * @throws DataStructureException If a feature or state does not exist, or the vector has the wrong length.
+	 */
+	public void encode(Map<String, String> observations, int[] states) throws DataStructureException {
+		if (states.length != featureNames.length) { throw new DataStructureException("Expected " + featureNames.length + " states (got " + states.length + ")"); }
+
+		Arrays.fill(states, -1);
+		for (Map.Entry<String, String> observation : observations.entrySet()) {
+			int featureIndex = indexOfFeature(observation.getKey());
+			if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + observation.getKey() + "\")"); }
+
+			int stateIndex = indexOfState(featureIndex, observation.getValue());
+			if (stateIndex == -1) { throw new DataStructureException("State does not exist (\"" + observation.getValue() + "\")"); }
+
+			states[featureIndex] = stateIndex;
+		}
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on observations given by name. The
+	 * result is identical to {@link NaiveBayesClassifier#classify(Map)} on the
+	 * classifier this was compiled from.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 */
+	public double[] classify(Map<String, String> observations) throws DataStructureException {
+		int[] rows = new int[observations.size()];
+		double[] result = new double[classLabels.length];
+		score(rows, collectRows(observations, rows), result);
+		return result;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on a state index vector.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException If the vector does not match the features.
+	 */
+	public double[] classify(int[] states) throws DataStructureException {
+		int[] rows = new int[states.length];
+		double[] result = new double[classLabels.length];
+		score(rows, collectRows(states, rows), result);
+		return result;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm computed in log-space. Instead of
+	 * multiplying probabilities, the precomputed logarithms of the priors and
+	 * conditionals are summed once per class label and normalized with log-sum-exp.
+	 * This does not underflow, so it can be used with any number of observed features.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 */
+	public double[] classifyLogSpace(Map<String, String> observations) throws DataStructureException {
+		int[] rows = new int[observations.size()];
+		double[] result = new double[classLabels.length];
+		scoreLogSpace(rows, collectRows(observations, rows), result);
+		return result;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm computed in log-space on a state
+	 * index vector. See {@link #classifyLogSpace(Map)}.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException If the vector does not match the features.
+	 */
+	public double[] classifyLogSpace(int[] states) throws DataStructureException {
+		int[] rows = new int[states.length];
+		double[] result = new double[classLabels.length];
+		scoreLogSpace(rows, collectRows(states, rows), result);
+		return result;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on a state index vector, writing
+	 * the result into an array owned by the caller. Nothing is allocated, so with
+	 * reused arrays (see {@link #encode(Map, int[])}) classification creates no
+	 * garbage. The result is identical to {@link #classify(int[])}.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @param posteriors Receives the probability distribution over the class labels.
+	 * @throws DataStructureException If the vector does not match the features, or the result has the wrong length.
+	 */
+	public void classify(int[] states, double[] posteriors) throws DataStructureException {
+		checkStates(states, posteriors);
+
+		// Compute the factor of each class in the result, one row at a time, then the scaling factor (Z):
+		Arrays.fill(posteriors, 1d);
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			if (states[featureIndex] != -1) {
+				ScoringKernel.multiplyRow(conditionalProbabilities, (stateOffsets[featureIndex] + states[featureIndex]) * posteriors.length, posteriors, posteriors.length);
+			}
+		}
+		double evidenceScaling = 0;
+		for (int classIndex = 0; classIndex < posteriors.length; classIndex++) {
+			evidenceScaling += posteriors[classIndex] * priorProbabilities[classIndex];
+		}
+
+		// Compute the result:
+		for (int classIndex = 0; classIndex < posteriors.length; classIndex++) {
+			posteriors[classIndex] = priorProbabilities[classIndex] * (posteriors[classIndex] / evidenceScaling);
+		}
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm computed in log-space on a state
+	 * index vector, writing the result into an array owned by the caller. Nothing
+	 * is allocated. The result is identical to {@link #classifyLogSpace(int[])}.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @param posteriors Receives the probability distribution over the class labels.
+	 * @throws DataStructureException If the vector does not match the features, or the result has the wrong length.
+	 */
+	public void classifyLogSpace(int[] states, double[] posteriors) throws DataStructureException {
+		checkStates(states, posteriors);
+
+		System.arraycopy(logPriorProbabilities, 0, posteriors, 0, posteriors.length);
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			if (states[featureIndex] != -1) {
+				ScoringKernel.addRow(logConditionalProbabilities, (stateOffsets[featureIndex] + states[featureIndex]) * posteriors.length, posteriors, posteriors.length);
+			}
+		}
+		normalizeLogSpace(posteriors);
+	}
+
+
+	/**
+	 * Finds the most likely class labels given observations by name, without
+	 * computing the full distribution. See {@link #classifyTopK(int[], int)}.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @param k The number of class labels wanted (1 for the most likely one only).
+	 * @return At most k class labels, the most likely first.
+	 * @throws DataStructureException If a feature or state does not exist, or k is less than 1.
+	 */
+	public RankedLabel[] classifyTopK(Map<String, String> observations, int k) throws DataStructureException {
+		int[] rows = new int[observations.size()];
+		return topK(rows, collectRows(observations, rows), k);
+	}
+
+
+	/**
+	 * Finds the most likely class labels given a state index vector, without
+	 * computing the full distribution. The log-scores are not normalized, so the
+	 * evidence is never summed over all class labels. Since no log conditional
+	 * probability is above zero, the partial score of a class label can only
+	 * decrease as features are added, so a class label is dropped as soon as its
+	 * partial score falls below the k-th best score found so far. Class labels are
+	 * visited by descending prior, which tends to find good candidates early.
+	 * Ties are broken in favour of the higher prior.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @param k The number of class labels wanted (1 for the most likely one only).
+	 * @return At most k class labels, the most likely first.
+	 * @throws DataStructureException If the vector does not match the features, or k is less than 1.
+	 */
+	public RankedLabel[] classifyTopK(int[] states, int k) throws DataStructureException {
+		int[] rows = new int[states.length];
+		return topK(rows, collectRows(states, rows), k);
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on evidence which may include token
+	 * counts of multinomial features and measurements of continuous features. A
+	 * token observed n times contributes its conditional probability to the power
+	 * of n. Only the tokens present are looked at, and tokens which are not states
+	 * of the feature are skipped, as is usual for words outside the vocabulary. A
+	 * measurement contributes its normal density given each class label. The
+	 * computation is done in log-space, see {@link #classifyLogSpace(Map)}.
+	 *
+	 * @param evidence The observed states, token counts and measurements.
+	 * @return A probability distribution over the class labels given the evidence.
+	 * @throws DataStructureException If a feature or state does not exist, or if
+	 *                                an observation does not match the type of its feature.
+	 */
+	public double[] classify(Evidence evidence) throws DataStructureException {
+		double[] result = logPriorProbabilities.clone();
+
+		for (Map.Entry<String, String> observation : evidence.getStates().entrySet()) {
+			int featureIndex = indexOfFeature(observation.getKey());
+			if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + observation.getKey() + "\")"); }
+
+			int stateIndex = indexOfState(featureIndex, observation.getValue());
+			if (stateIndex == -1) { throw new DataStructureException("State does not exist (\"" + observation.getValue() + "\")"); }
+
+			addLogConditionals((stateOffsets[featureIndex] + stateIndex) * classLabels.length, 1, result);
+		}
+
+		for (Map.Entry<String, ? extends Map<String, Integer>> feature : evidence.getTokenCounts().entrySet()) {
+			int featureIndex = indexOfFeature(feature.getKey());
+			if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + feature.getKey() + "\")"); }
+			if (!multinomial[featureIndex]) { throw new DataStructureException("Feature is not multinomial (\"" + feature.getKey() + "\")"); }
+
+			for (Map.Entry<String, Integer> token : feature.getValue().entrySet()) {
+				int stateIndex = indexOfState(featureIndex, token.getKey());
+				if (stateIndex == -1 || token.getValue() == 0) { continue; }
+
+				addLogConditionals((stateOffsets[featureIndex] + stateIndex) * classLabels.length, token.getValue(), result);
+			}
+		}
+
+		for (Map.Entry<String, Double> measurement : evidence.getMeasurements().entrySet()) {
+			int featureIndex = indexOfFeature(measurement.getKey());
+			if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + measurement.getKey() + "\")"); }
+			if (means[featureIndex] == null) { throw new DataStructureException("Feature is not continuous (\"" + measurement.getKey() + "\")"); }
+
+			double x = measurement.getValue();
+			if (Double.isNaN(x) || Double.isInfinite(x)) { throw new DataStructureException("Measurement of " + measurement.getKey() + " is not finite (" + x + ")"); }
+
+			for (int classIndex = 0; classIndex < result.length; classIndex++) {
+				double d = x - means[featureIndex][classIndex];
+				result[classIndex] += logNormalizations[featureIndex][classIndex] - d * d * halfPrecisions[featureIndex][classIndex];
+			}
+		}
+
+		normalizeLogSpace(result);
+		return result;
+	}
+
+
+	/**
+	 * Returns whether a feature is multinomial.
+	 *
+	 * @param featureIndex The index of the feature.
+	 * @return True if observations of the feature may be token counts.
+	 */
+	public boolean isMultinomial(int featureIndex) {
+		return multinomial[featureIndex];
+	}
+
+
+	/**
+	 * Returns whether a feature is continuous.
+	 *
+	 * @param featureIndex The index of the feature.
+	 * @return True if observations of the feature are measurements.
+	 */
+	public boolean isContinuous(int featureIndex) {
+		return means[featureIndex] != null;
+	}
+
+
+	/**
+	 * Classifies many state index vectors at once. Batches larger than
+	 * {@link #BATCH_SPLIT_SIZE} are split across the common {@link ForkJoinPool}.
+	 *
+	 * @param observations One state index vector per row.
+	 * @param posteriors Receives one probability distribution over the class labels per row.
+	 * @throws DataStructureException If a vector does not match the features.
+	 */
+	public void classifyBatch(int[][] observations, double[][] posteriors) throws DataStructureException {
+		classifyBatch(observations, posteriors, ForkJoinPool.commonPool());
+	}
+
+
+	/**
+	 * Classifies many state index vectors at once using the given pool.
+	 *
+	 * @param observations One state index vector per row.
+	 * @param posteriors Receives one probability distribution over the class labels per row.
+	 * @param pool The pool to split large batches across.
+	 * @throws DataStructureException If a vector does not match the features.
+	 */
+	public void classifyBatch(final int[][] observations, double[][] posteriors, ForkJoinPool pool) throws DataStructureException {
+		runBatch(new BatchSource() {
+			@Override
+			public int collectRows(int row, int[] rows) throws DataStructureException {
+				return CompiledClassifier.this.collectRows(observations[row], rows);
+			}
+		}, observations.length, posteriors, pool);
+	}
+
+
+	/**
+	 * Classifies many observations given by name at once. Batches larger than
+	 * {@link #BATCH_SPLIT_SIZE} are split across the common {@link ForkJoinPool}.
+	 *
+	 * @param observations One map of feature (key) and state (value) pairs per row.
+	 * @param posteriors Receives one probability distribution over the class labels per row.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 */
+	public void classifyBatch(List<? extends Map<String, String>> observations, double[][] posteriors) throws DataStructureException {
+		classifyBatch(observations, posteriors, ForkJoinPool.commonPool());
+	}
+
+
+	/**
+	 * Classifies many observations given by name at once using the given pool.
+	 *
+	 * @param observations One map of feature (key) and state (value) pairs per row.
+	 * @param posteriors Receives one probability distribution over the class labels per row.
+	 * @param pool The pool to split large batches across.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 */
+	public void classifyBatch(final List<? extends Map<String, String>> observations, double[][] posteriors, ForkJoinPool pool) throws DataStructureException {
+		runBatch(new BatchSource() {
+			@Override
+			public int collectRows(int row, int[] rows) throws DataStructureException {
+				Map<String, String> observation = observations.get(row);
+				if (observation.size() > rows.length) { throw new DataStructureException("Expected at most " + rows.length + " observations (got " + observation.size() + ")"); }
+				return CompiledClassifier.this.collectRows(observation, rows);
+			}
+		}, observations.size(), posteriors, pool);
+	}
+
+
+	/**
+	 * Checks the posterior matrix, then runs the batch and unwraps any exception.
+	 */
+	private void runBatch(BatchSource source, int rowCount, double[][] posteriors, ForkJoinPool pool) throws DataStructureException {
+		if (posteriors.length < rowCount) { throw new DataStructureException("Expected " + rowCount + " posterior rows (got " + posteriors.length + ")"); }
+		for (int row = 0; row < rowCount; row++) {
+			if (posteriors[row].length != classLabels.length) { throw new DataStructureException("Expected " + classLabels.length + " posteriors in row " + row + " (got " + posteriors[row].length + ")"); }
+		}
+
+		BatchTask task = new BatchTask(source, posteriors, 0, rowCount);
+		try {
+			if (rowCount <= BATCH_SPLIT_SIZE) {
+				task.compute();
+			}
+			else {
+				pool.invoke(task);
+			}
+		}
+		catch (BatchException e) {
+			throw e.getCause();
+		}
+	}
+
+
+	/**
+	 * Copies this classifier with the conditional table stored in less precision,
+	 * to save memory on large models. See {@link QuantizedClassifier}.
+	 *
+	 * @param precision How to store the table.
+	 * @return The quantized classifier.
+	 */
+	public QuantizedClassifier quantize(QuantizedClassifier.Precision precision) {
+		return new QuantizedClassifier(this, precision);
+	}
+
+
+	/**
+	 * Estimates the heap size of the tables and indexes, see
+	 * {@link NaiveBayesClassifier#estimateByteSize()}. The names are not counted,
+	 * since they are shared with the classifier this was compiled from.
+	 */
+	long estimateByteSize() {
+		int classCount = classLabels.length;
+		int featureCount = featureNames.length;
+
+		// The object, the arrays indexed by class label, feature and cell, then the indexes:
+		long size = 96;
+		size += 2 * (16 + 8L * classCount) + 2 * (16 + 4L * classCount);
+		size += 7 * (16 + 4L * featureCount) + 16 + featureCount;
+		size += 2 * (16 + 8L * conditionalProbabilities.length);
+		size += NaiveBayesClassifier.mapSize(featureCount);
+		for (int featureIndex = 0; featureIndex < featureCount; featureIndex++) {
+			size += 16 + 4L * stateLabels[featureIndex].length + NaiveBayesClassifier.mapSize(stateLabels[featureIndex].length);
+			if (means[featureIndex] != null) {
+				size += 3 * (16 + 8L * classCount);
+			}
+		}
+		return size;
+	}
+
+
+	/**
+	 * Returns the log prior probabilities for reading. They must not be changed.
+	 */
+	double[] getLogPriorProbabilities() {
+		return logPriorProbabilities;
+	}
+
+
+	/**
+	 * Returns the log conditional table for reading. It must not be changed.
+	 */
+	double[] getLogConditionalProbabilities() {
+		return logConditionalProbabilities;
+	}
+
+
+	/**
+	 * Returns the index of the features by name for reading. It must not be changed.
+	 */
+	HashMap<String, Integer> getFeatureIndexes() {
+		return featureIndexes;
+	}
+
+
+	/**
+	 * Returns the indexes of the states by name, one per feature, for reading. They must not be changed.
+	 */
+	HashMap<String, Integer>[] getStateIndexes() {
+		return stateIndexes;
+	}
+
+
+	/**
+	 * Returns the index of the first state of each feature in the rows of the
+	 * conditional tables, for reading. It must not be changed.
+	 */
+	int[] getStateOffsets() {
+		return stateOffsets;
+	}
+
+
+	/**
+	 * Returns the number of states of a feature.
+	 */
+	int getStateCount(int featureIndex) {
+		return stateLabels[featureIndex].length;
+	}
+
+
+	/**
+	 * Returns where the row of a state starts in the conditional tables.
+	 */
+	int rowOf(int featureIndex, int stateIndex) {
+		return (stateOffsets[featureIndex] + stateIndex) * classLabels.length;
+	}
+
+
+	/**
+	 * Finds the rows of the conditional table of the observed states. Rows
+	 * are collected in the iteration order of the map, just like the
+	 * classifier does.
+	 *
+	 * @return The number of rows.
+	 */
+	private int collectRows(Map<String, String> observations, int[] rows) throws DataStructureException {
+		int rowCount = 0;
+		for (Map.Entry<String, String> observation : observations.entrySet()) {
+			int featureIndex = indexOfFeature(observation.getKey());
+			if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + observation.getKey() + "\")"); }
+
+			int stateIndex = indexOfState(featureIndex, observation.getValue());
+			if (stateIndex == -1) { throw new DataStructureException("State does not exist (\"" + observation.getValue() + "\")"); }
+
+			rows[rowCount++] = (stateOffsets[featureIndex] + stateIndex) * classLabels.length;
+		}
+		return rowCount;
+	}
+
+
+	/**
+	 * Finds the rows of the conditional table of the observed states.
+	 *
+	 * @return The number of rows.
+	 */
+	private int collectRows(int[] states, int[] rows) throws DataStructureException {
+		if (states.length != featureNames.length) { throw new DataStructureException("Expected " + featureNames.length + " states (got " + states.length + ")"); }
+
+		int rowCount = 0;
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			int stateIndex = states[featureIndex];
+			if (stateIndex == -1) { continue; }
+			if (stateIndex < 0 || stateIndex >= stateLabels[featureIndex].length) { throw new DataStructureException("State index " + stateIndex + " does not exist for " + featureNames[featureIndex]); }
+
+			rows[rowCount++] = (stateOffsets[featureIndex] + stateIndex) * classLabels.length;
+		}
+		return rowCount;
+	}
+
+
+	/**
+	 * Checks a state index vector and a result array without allocating,
+	 * unless there is an error to report.
+	 */
+	private void checkStates(int[] states, double[] posteriors) throws DataStructureException {
+		if (states.length != featureNames.length) { throw new DataStructureException("Expected " + featureNames.length + " states (got " + states.length + ")"); }
+		if (posteriors.length != classLabels.length) { throw new DataStructureException("Expected room for " + classLabels.length + " probabilities (got " + posteriors.length + ")"); }
+
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			int stateIndex = states[featureIndex];
+			if (stateIndex != -1 && (stateIndex < 0 || stateIndex >= stateLabels[featureIndex].length)) { throw new DataStructureException("State index " + stateIndex + " does not exist for " + featureNames[featureIndex]); }
+		}
+	}
+
+
+	/**
+	 * Scores the given rows of the conditional table exactly like
+	 * {@link NaiveBayesClassifier#classify(Map)} does.
+	 *
+	 * @param result Receives the probability distribution over the class labels.
+	 */
+	private void score(int[] rows, int rowCount, double[] result) {
+		// Compute the factor of each class in the result, one row at a time, then the scaling
+		// factor (Z). Each factor is multiplied in the same order as in the classifier:
+		Arrays.fill(result, 1d);
+		for (int i = 0; i < rowCount; i++) {
+			ScoringKernel.multiplyRow(conditionalProbabilities, rows[i], result, result.length);
+		}
+		double evidenceScaling = 0;
+		for (int classIndex = 0; classIndex < result.length; classIndex++) {
+			evidenceScaling += result[classIndex] * priorProbabilities[classIndex];
+		}
+
+		// Compute the result:
+		for (int classIndex = 0; classIndex < result.length; classIndex++) {
+			result[classIndex] = priorProbabilities[classIndex] * (result[classIndex] / evidenceScaling);
+		}
+	}
+
+
+	/**
+	 * Scores the given rows of the conditional table in log-space.
+	 *
+	 * @param result Receives the probability distribution over the class labels.
+	 */
+	private void scoreLogSpace(int[] rows, int rowCount, double[] result) {
+		System.arraycopy(logPriorProbabilities, 0, result, 0, result.length);
+
+		for (int i = 0; i < rowCount; i++) {
+			ScoringKernel.addRow(logConditionalProbabilities, rows[i], result, result.length);
+		}
+		normalizeLogSpace(result);
+	}
+
+
+	/**
+	 * Keeps the k best log-scores, pruning class labels which can no longer reach them.
+	 */
+	private RankedLabel[] topK(int[] rows, int rowCount, int k) throws DataStructureException {
+		TopK best = new TopK(k, classLabels.length);
+		for (int classIndex : classesByPrior) {
+			double threshold = best.threshold(prunable);
+			double score = logPriorProbabilities[classIndex];
+			for (int i = 0; i < rowCount && !(score <= threshold); i++) {
+				score += logConditionalProbabilities[rows[i] + classIndex];
+			}
+			best.offer(classIndex, score);
+		}
+		return best.toArray(classLabels);
+	}
+
+
+	/**
+	 * Adds a row of the log conditional table, a number of times, to the scores.
+	 */
+	private void addLogConditionals(int row, int count, double[] scores) {
+		ScoringKernel.addScaledRow(logConditionalProbabilities, row, count, scores, scores.length);
+	}
+
+
+	/**
+	 * Turns unnormalized log-probabilities into a probability distribution
+	 * using log-sum-exp. If every class label is impossible, the result
+	 * is NaN, just like the scaling by zero in the classifier.
+	 *
+	 * @param scores The log-probabilities, replaced by the probabilities.
+	 */
+	static void normalizeLogSpace(double[] scores) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double score : scores) {
+			if (score > max) { max = score; }
+		}
+
+		double sum = 0;
+		for (int classIndex = 0; classIndex < scores.length; classIndex++) {
+			scores[classIndex] = Math.exp(scores[classIndex] - max);
+			sum += scores[classIndex];
+		}
+		for (int classIndex = 0; classIndex < scores.length; classIndex++) {
+			scores[classIndex] /= sum;
+		}
+	}
+
+
+	/**
+	 * Finds the rows of the conditional table observed in a row of a batch.
+	 */
+	private interface BatchSource {
+		int collectRows(int row, int[] rows) throws DataStructureException;
+	}
+
+
+	/**
+	 * Classifies a range of rows of a batch, splitting it in halves until
+	 * the ranges are at most {@link #BATCH_SPLIT_SIZE} rows.
+	 */
+	private class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final BatchSource source;
+		private final double[][] posteriors;
+		private final int from;
+		private final int to;
+
+		BatchTask(BatchSource source, double[][] posteriors, int from, int to) {
+			this.source = source;
+			this.posteriors = posteriors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > BATCH_SPLIT_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BatchTask(source, posteriors, from, middle), new BatchTask(source, posteriors, middle, to));
+				return;
+			}
+
+			int[] rows = new int[featureNames.length];
+			for (int row = from; row < to; row++) {
+				try {
+					score(rows, source.collectRows(row, rows), posteriors[row]);
+				}
+				catch (DataStructureException e) {
+					throw new BatchException("Row " + row + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Carries a {@link DataStructureException} out of a fork/join task.
+	 */
+	private static class BatchException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BatchException(String msg) {
+			super(new DataStructureException(msg));
+		}
+
+		@Override
+		public synchronized DataStructureException getCause() {
+			return (DataStructureException) super.getCause();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.Map;
+
+/**
+ * <p>A classifier which may be classified against from any number of threads
+ * while other threads change the model.</p>
+ *
+ * <p>Readers always classify against an immutable {@link CompiledClassifier}
+ * snapshot and never take a lock. Writers change the model through
+ * {@link #update(Update)}, which applies the changes to a private copy of the
+ * current model, validates and compiles the copy, and then publishes it as the
+ * next snapshot in a single volatile write. Readers therefore see either the
+ * model before or after an update, never a mix, and an update that fails leaves
+ * the published model untouched.</p>
+ *
+ * <p>Each update copies the whole model, so many small changes should be made
+ * in one update rather than one update each.</p>
+ *
+ * <h2>Example</h2>
+ *
+ * <pre>
+ConcurrentClassifier cc = new ConcurrentClassifier(c);
+
+// Request threads:
+double[] result = cc.classify(observations);
+
+// Background thread:
+cc.update(new ConcurrentClassifier.Update() {
+	public void apply(NaiveBayesClassifier c) throws DataStructureException {
+		c.setConditionalProbability("Fever", "yes", "Flu", 0.85d);
+		c.setConditionalProbability("Fever", "no", "Flu", 0.15d);
+	}
+});
+ * </pre>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class ConcurrentClassifier {
+
+	/**
+	 * A set of changes applied to the model as one.
+	 */
+	public interface Update {
+		/**
+		 * Changes the model. Throwing an exception discards all the changes.
+		 *
+		 * @param classifier A private copy of the current model.
+		 * @throws DataStructureException
+		 */
+		void apply(NaiveBayesClassifier classifier) throws DataStructureException;
+	}
+
+
+	private final Object updateLock = new Object();
+	private NaiveBayesClassifier model;
+	private volatile CompiledClassifier snapshot;
+
+
+	/**
+	 * Creates a concurrent classifier with an empty model. Nothing can be
+	 * classified until a consistent model has been published by an update.
+	 */
+	public ConcurrentClassifier() {
+		model = new NaiveBayesClassifier();
+	}
+
+
+	/**
+	 * Creates a concurrent classifier publishing a copy of the given model.
+	 *
+	 * @param classifier The initial model, which is copied.
+	 * @throws DataStructureException If the model is not consistent.
+	 */
+	public ConcurrentClassifier(NaiveBayesClassifier classifier) throws DataStructureException {
+		model = new NaiveBayesClassifier(classifier);
+		snapshot = model.compile();
+	}
+
+
+	/**
+	 * Applies changes to a copy of the model and publishes it. Updates are
+	 * applied one at a time, in the order they take the update lock.
+	 *
+	 * @param update The changes to apply.
+	 * @throws DataStructureException If the update fails or the changed model is not
+	 *                                consistent. The published model is not changed.
+	 */
+	public void update(Update update) throws DataStructureException {
+		synchronized (updateLock) {
+			NaiveBayesClassifier next = new NaiveBayesClassifier(model);
+			update.apply(next);
+			CompiledClassifier nextSnapshot = next.compile();
+
+			model = next;
+			snapshot = nextSnapshot;
+		}
+	}
+
+
+	/**
+	 * Returns a copy of the current model, e.g. to inspect it or to save it.
+	 *
+	 * @return A copy of the model.
+	 */
+	public NaiveBayesClassifier getModel() {
+		synchronized (updateLock) {
+			return new NaiveBayesClassifier(model);
+		}
+	}
+
+
+	/**
+	 * Returns the current snapshot. Use the same snapshot for building state
+	 * index vectors and classifying them, since the indexes may change with
+	 * the next update.
+	 *
+	 * @return The most recently published model.
+	 * @throws DataStructureException If no model has been published yet.
+	 */
+	public CompiledClassifier getSnapshot() throws DataStructureException {
+		CompiledClassifier res = snapshot;
+		if (res == null) { throw new DataStructureException("No model has been published"); }
+		return res;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on the current snapshot.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException
+	 * @see CompiledClassifier#classify(Map)
+	 */
+	public double[] classify(Map<String, String> observations) throws DataStructureException {
+		return getSnapshot().classify(observations);
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm in log-space on the current snapshot.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException
+	 * @see CompiledClassifier#classifyLogSpace(Map)
+	 */
+	public double[] classifyLogSpace(Map<String, String> observations) throws DataStructureException {
+		return getSnapshot().classifyLogSpace(observations);
+	}
+}
@@ -0,0 +1,111 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Observations of features of any type, for
+ * {@link NaiveBayesClassifier#classify(Evidence)}.</p>
+ *
+ * <p>A categorical feature is observed in exactly one state. A multinomial
+ * (bag-of-words) feature is observed as a sparse map from token to count,
+ * e.g. the words of a document, where only the tokens present are given. A
+ * continuous feature is observed as a measurement.</p>
+ *
+ * <pre>
+Evidence e = new Evidence()
+	.setState("Fever", "yes")
+	.addTokens("Complaint", "headache", 2)
+	.addTokens("Complaint", "rash", 1)
+	.setMeasurement("Temperature", 39.2);
+ * </pre>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class Evidence {
+	private final HashMap<String, String> states = new HashMap<String, String>();
+	private final HashMap<String, HashMap<String, Integer>> tokenCounts = new HashMap<String, HashMap<String, Integer>>();
+	private final HashMap<String, Double> measurements = new HashMap<String, Double>();
+
+
+	/**
+	 * Observes the state of a categorical feature, replacing any earlier state.
+	 *
+	 * @param featureName The observed feature.
+	 * @param stateLabel The observed state.
+	 * @return This evidence.
+	 */
+	public Evidence setState(String featureName, String stateLabel) {
+		states.put(featureName, stateLabel);
+		return this;
+	}
+
+
+	/**
+	 * Observes a token of a multinomial feature a number of times, adding
+	 * to any earlier count of the token.
+	 *
+	 * @param featureName The observed feature.
+	 * @param token The observed token.
+	 * @param count The number of occurrences.
+	 * @return This evidence.
+	 * @throws DataStructureException If the count is negative.
+	 */
+	public Evidence addTokens(String featureName, String token, int count) throws DataStructureException {
+		if (count < 0) { throw new DataStructureException("Expected a token count of at least 0 (got " + count + ")"); }
+
+		HashMap<String, Integer> counts = tokenCounts.get(featureName);
+		if (counts == null) {
+			counts = new HashMap<String, Integer>();
+			tokenCounts.put(featureName, counts);
+		}
+		Integer previous = counts.get(token);
+		counts.put(token, previous == null ? count : previous + count);
+		return this;
+	}
+
+
+	/**
+	 * Observes the value of a continuous feature, replacing any earlier value.
+	 *
+	 * @param featureName The observed feature.
+	 * @param value The measured value.
+	 * @return This evidence.
+	 */
+	public Evidence setMeasurement(String featureName, double value) {
+		measurements.put(featureName, value);
+		return this;
+	}
+
+
+	/**
+	 * Returns the observed states of categorical features.
+	 *
+	 * @return A read-only map of feature (key) and state (value) pairs.
+	 */
+	public Map<String, String> getStates() {
+		return Collections.unmodifiableMap(states);
+	}
+
+
+	/**
+	 * Returns the observed token counts of multinomial features.
+	 *
+	 * @return A read-only map of feature (key) and token counts (value).
+	 */
+	public Map<String, ? extends Map<String, Integer>> getTokenCounts() {
+		return Collections.unmodifiableMap(tokenCounts);
+	}
+
+
+	/**
+	 * Returns the measured values of continuous features.
+	 *
+	 * @return A read-only map of feature (key) and value (value) pairs.
+	 */
+	public Map<String, Double> getMeasurements() {
+		return Collections.unmodifiableMap(measurements);
+	}
+}
@@ -0,0 +1,246 @@
+package moltsen.AI.NaiveBayes;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A minimal streaming JSON tokenizer. It reads one token at a time from a
+ * {@link Reader} through a small buffer, so documents of any size can be
+ * processed without holding them in memory. Name separators (:) and value
+ * separators (,) are consumed but not checked.
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+class JsonTokenizer {
+
+	/**
+	 * The kinds of tokens.
+	 */
+	enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT }
+
+	private final Reader reader;
+	private final char[] buffer = new char[8192];
+	private int position;
+	private int limit;
+	private long offset;
+
+	private final StringBuilder text = new StringBuilder();
+	private Token peeked;
+
+
+	JsonTokenizer(Reader reader) {
+		this.reader = reader;
+	}
+
+
+	/**
+	 * Returns the next token without consuming it.
+	 */
+	Token peek() throws IOException {
+		if (peeked == null) { peeked = read(); }
+		return peeked;
+	}
+
+
+	/**
+	 * Consumes and returns the next token. The text of a string or number
+	 * is available from {@link #getString()} until the next token is read.
+	 */
+	Token next() throws IOException {
+		Token res = peek();
+		peeked = null;
+		return res;
+	}
+
+
+	/**
+	 * Consumes the next token and fails unless it is of the expected kind.
+	 */
+	void expect(Token expected) throws IOException {
+		Token actual = next();
+		if (actual != expected) { throw syntaxError("Expected " + expected + " (got " + actual + ")"); }
+	}
+
+
+	/**
+	 * Consumes a string token and returns its value.
+	 */
+	String nextString() throws IOException {
+		expect(Token.STRING);
+		return text.toString();
+	}
+
+
+	/**
+	 * Consumes a number token and returns its value.
+	 */
+	double nextDouble() throws IOException {
+		expect(Token.NUMBER);
+		try {
+			return Double.parseDouble(text.toString());
+		}
+		catch (NumberFormatException e) {
+			throw syntaxError("Invalid number (\"" + text + "\")");
+		}
+	}
+
+
+	/**
+	 * Returns the text of the most recent string or number token.
+	 */
+	String getString() {
+		return text.toString();
+	}
+
+
+	/**
+	 * Consumes the next value, including any nested objects and arrays.
+	 */
+	void skipValue() throws IOException {
+		int depth = 0;
+		do {
+			switch (next()) {
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY:
+				depth++;
+				break;
+			case END_OBJECT:
+			case END_ARRAY:
+				depth--;
+				break;
+			case END_DOCUMENT:
+				throw syntaxError("Unexpected end of document");
+			default:
+				break;
+			}
+		} while (depth > 0);
+	}
+
+
+	/**
+	 * Creates an exception telling where in the document the problem is.
+	 */
+	IOException syntaxError(String msg) {
+		return new IOException(msg + " at character " + (offset + position));
+	}
+
+
+	private Token read() throws IOException {
+		int c = nextSignificant();
+		switch (c) {
+		case -1: return Token.END_DOCUMENT;
+		case '{': return Token.BEGIN_OBJECT;
+		case '}': return Token.END_OBJECT;
+		case '[': return Token.BEGIN_ARRAY;
+		case ']': return Token.END_ARRAY;
+		case '"':
+			readString();
+			return Token.STRING;
+		case 't':
+			readLiteral("true");
+			return Token.TRUE;
+		case 'f':
+			readLiteral("false");
+			return Token.FALSE;
+		case 'n':
+			readLiteral("null");
+			return Token.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				readNumber((char) c);
+				return Token.NUMBER;
+			}
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+
+	/**
+	 * Skips white space and separators.
+	 */
+	private int nextSignificant() throws IOException {
+		while (true) {
+			int c = nextChar();
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != ',' && c != ':') {
+				return c;
+			}
+		}
+	}
+
+
+	private void readString() throws IOException {
+		text.setLength(0);
+		while (true) {
+			int c = nextChar();
+			if (c == -1) { throw syntaxError("Unterminated string"); }
+			if (c == '"') { return; }
+			if (c == '\\') {
+				c = nextChar();
+				switch (c) {
+				case '"': case '\\': case '/': text.append((char) c); break;
+				case 'b': text.append('\b'); break;
+				case 'f': text.append('\f'); break;
+				case 'n': text.append('\n'); break;
+				case 'r': text.append('\r'); break;
+				case 't': text.append('\t'); break;
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(nextChar(), 16);
+						if (digit == -1) { throw syntaxError("Invalid unicode escape"); }
+						code = code * 16 + digit;
+					}
+					text.append((char) code);
+					break;
+				default:
+					throw syntaxError("Invalid escape");
+				}
+			}
+			else {
+				text.append((char) c);
+			}
+		}
+	}
+
+
+	private void readNumber(char first) throws IOException {
+		text.setLength(0);
+		text.append(first);
+		while (true) {
+			if (position == limit && !fill()) { return; }
+			char c = buffer[position];
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+				text.append(c);
+				position++;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+
+	private void readLiteral(String literal) throws IOException {
+		for (int i = 1; i < literal.length(); i++) {
+			if (nextChar() != literal.charAt(i)) { throw syntaxError("Expected " + literal); }
+		}
+	}
+
+
+	private int nextChar() throws IOException {
+		if (position == limit && !fill()) { return -1; }
+		return buffer[position++];
+	}
+
+
+	private boolean fill() throws IOException {
+		offset += limit;
+		position = 0;
+		limit = 0;
+		int n = reader.read(buffer);
+		if (n <= 0) { return false; }
+		limit = n;
+		return true;
+	}
+}
@@ -0,0 +1,303 @@
+package moltsen.AI.NaiveBayes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>Serves many named models from a directory, keeping only the recently used
+ * ones in memory, e.g. one model per tenant.</p>
+ *
+ * <p>A model named <code>name</code> is read from <code>name.nbb</code> in the
+ * {@link NaiveBayesBinary} format, or else from <code>name.json</code> in the
+ * {@link NaiveBayesJson} format, the first time it is asked for. It is validated
+ * and compiled right away, so it is ready for classification. Loaded models are
+ * kept until their estimated sizes (see {@link NaiveBayesClassifier#estimateByteSize()})
+ * add up to more than the budget, then the least recently used are dropped first.
+ * A model larger than the whole budget is returned, but not kept.</p>
+ *
+ * <p>The registry may be shared between threads. A model is read once even if
+ * several threads ask for it at the same time: the first one reads it, and the
+ * others wait for the result. Reading happens outside the lock, so other models
+ * can be served meanwhile. A model which fails to load is not remembered, so the
+ * next request tries again.</p>
+ *
+ * <p>The models returned are shared and must not be changed. To pick up a changed
+ * file, {@link #invalidate(String)} the model.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class ModelRegistry {
+	private final File directory;
+	private final long maxBytes;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final HashMap<String, FutureTask<Entry>> loading = new HashMap<String, FutureTask<Entry>>();
+	private long bytes;
+
+	private long hitCount;
+	private long loadCount;
+	private long evictionCount;
+
+
+	/**
+	 * Creates an empty registry.
+	 *
+	 * @param directory The directory holding the model files.
+	 * @param maxBytes The largest estimated size of the models kept in memory.
+	 */
+	public ModelRegistry(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+
+	/**
+	 * Returns a model, reading it from the directory unless it is in memory.
+	 *
+	 * @param name The name of the model, without extension.
+	 * @return The validated model.
+	 * @throws IOException If the model does not exist or cannot be read.
+	 * @throws DataStructureException If the name is not a plain file name, or the model is not valid.
+	 */
+	public NaiveBayesClassifier get(final String name) throws IOException, DataStructureException {
+		FutureTask<Entry> task;
+		boolean owner = false;
+		synchronized (this) {
+			Entry entry = entries.get(name);
+			if (entry != null) {
+				hitCount++;
+				return entry.classifier;
+			}
+
+			task = loading.get(name);
+			if (task == null) {
+				checkName(name);
+				task = new FutureTask<Entry>(new Callable<Entry>() {
+					public Entry call() throws Exception {
+						return load(name);
+					}
+				});
+				loading.put(name, task);
+				owner = true;
+			}
+		}
+
+		if (owner) {
+			task.run();
+			synchronized (this) {
+				loading.remove(name);
+				try {
+					Entry entry = task.get();
+					loadCount++;
+					entries.put(name, entry);
+					bytes += entry.bytes;
+					evict();
+				}
+				catch (Exception e) {
+					// Reported below:
+				}
+			}
+		}
+		return await(task).classifier;
+	}
+
+
+	/**
+	 * Returns the estimated size of a model in memory.
+	 *
+	 * @param name The name of the model.
+	 * @return The estimated number of bytes, or -1 if the model is not in memory.
+	 */
+	public synchronized long getByteSize(String name) {
+		Entry entry = entries.get(name);
+		return entry == null ? -1 : entry.bytes;
+	}
+
+
+	/**
+	 * Returns whether a model is in memory, without counting as a use.
+	 *
+	 * @param name The name of the model.
+	 * @return True if the model is loaded.
+	 */
+	public synchronized boolean isLoaded(String name) {
+		return entries.containsKey(name);
+	}
+
+
+	/**
+	 * Drops a model from memory, so it is read again on next use. A load in
+	 * progress is not affected.
+	 *
+	 * @param name The name of the model.
+	 */
+	public synchronized void invalidate(String name) {
+		Entry entry = entries.remove(name);
+		if (entry != null) {
+			bytes -= entry.bytes;
+		}
+	}
+
+
+	/**
+	 * Drops all models from memory. The counters are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+
+	/**
+	 * Returns the number of models in memory.
+	 *
+	 * @return The number of models.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+
+	/**
+	 * Returns the estimated size of the models in memory.
+	 *
+	 * @return The estimated number of bytes.
+	 */
+	public synchronized long getByteSize() {
+		return bytes;
+	}
+
+
+	/**
+	 * Returns the number of requests answered from memory.
+	 *
+	 * @return The number of hits.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+
+	/**
+	 * Returns the number of models read from the directory.
+	 *
+	 * @return The number of loads.
+	 */
+	public synchronized long getLoadCount() {
+		return loadCount;
+	}
+
+
+	/**
+	 * Returns the number of models dropped to stay within the budget.
+	 *
+	 * @return The number of evictions.
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+
+	/**
+	 * Reads, validates and compiles a model.
+	 */
+	private Entry load(String name) throws IOException, DataStructureException {
+		NaiveBayesClassifier c;
+		File binary = new File(directory, name + ".nbb");
+		File json = new File(directory, name + ".json");
+		if (binary.isFile()) {
+			c = NaiveBayesBinary.read(binary);
+		}
+		else if (json.isFile()) {
+			InputStream in = new FileInputStream(json);
+			try {
+				c = NaiveBayesJson.read(in);
+			}
+			finally {
+				in.close();
+			}
+		}
+		else {
+			throw new FileNotFoundException("Model does not exist (\"" + name + "\")");
+		}
+		c.compile();
+		return new Entry(c, c.estimateByteSize());
+	}
+
+
+	/**
+	 * Drops the least recently used models until the registry is within its budget.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+		while (bytes > maxBytes) {
+			bytes -= eldest.next().getValue().bytes;
+			eldest.remove();
+			evictionCount++;
+		}
+	}
+
+
+	/**
+	 * Waits for a load, passing on its exception.
+	 */
+	private static Entry await(FutureTask<Entry> task) throws IOException, DataStructureException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return task.get();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+				catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException) { throw (IOException) cause; }
+					if (cause instanceof DataStructureException) { throw (DataStructureException) cause; }
+					if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+					if (cause instanceof Error) { throw (Error) cause; }
+					throw new IllegalStateException(cause);
+				}
+			}
+		}
+		finally {
+			if (interrupted) { Thread.currentThread().interrupt(); }
+		}
+	}
+
+
+	/**
+	 * Only plain file names are accepted, so a name cannot point outside the directory.
+	 */
+	private static void checkName(String name) throws DataStructureException {
+		if (name.length() == 0 || name.equals(".") || name.equals("..") || name.indexOf('/') != -1 || name.indexOf('\\') != -1 || name.indexOf(File.separatorChar) != -1 || name.indexOf('\0') != -1) {
+			throw new DataStructureException("Not a valid model name (\"" + name + "\")");
+		}
+	}
+
+
+	/**
+	 * A loaded model and its estimated size.
+	 */
+	private static class Entry {
+		final NaiveBayesClassifier classifier;
+		final long bytes;
+
+		Entry(NaiveBayesClassifier classifier, long bytes) {
+			this.classifier = classifier;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,374 @@
+package moltsen.AI.NaiveBayes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import moltsen.AI.NaiveBayes.model.*;
+
+/**
+ * <p>Reads and writes classifiers in a compact binary format which can be
+ * classified from directly, without building any objects per probability.</p>
+ *
+ * <p>All numbers are little-endian. The file starts with a header of 32 bytes:</p>
+ *
+ * <pre>
+  int    magic           "NBCB" (0x4243424E)
+  int    version         3
+  int    classCount
+  int    featureCount
+  int    stateCount      the total number of states of all features
+  int    flags           1 if no conditional probability is above 1, else 0 (from version 2, reserved before)
+  long   numbersOffset   where the numeric sections start (a multiple of 8)
+ * </pre>
+ *
+ * <p>followed by the string dictionary, where each string is an int byte length
+ * followed by the UTF-8 bytes:</p>
+ *
+ * <pre>
+  string classLabels[classCount]
+  string featureNames[featureCount]
+  string stateLabels[stateCount]     the states of feature 0, then feature 1, ...
+ * </pre>
+ *
+ * <p>and, from <code>numbersOffset</code>, the contiguous numeric sections:</p>
+ *
+ * <pre>
+  int    stateOffsets[featureCount + 1]   index of the first state of each feature, then stateCount
+  byte   featureFlags[featureCount]       1 if the feature is multinomial, else 0
+  byte   padding                          if needed to align the doubles to 8 bytes
+  double priorProbabilities[classCount]
+  double conditionalProbabilities[stateCount * classCount]   row per state, column per class label
+ * </pre>
+ *
+ * <p>Only the probabilities are stored, 8 bytes each, and a {@link BinaryClassifier}
+ * takes their natural logarithms as it reads them. Version 2 files also hold the
+ * logarithms of the priors and the conditional probabilities, in that order, after
+ * the conditional probabilities. They are still read, but the stored logarithms are
+ * not used.</p>
+ *
+ * <p>Use {@link #map(File)} to memory-map a file and classify from the mapped pages.
+ * The operating system loads pages on demand and shares them between processes
+ * mapping the same file. A single mapping is limited to 2 GB. Use
+ * {@link #toDirectBuffer(NaiveBayesClassifier)} to keep a model off-heap without
+ * a file.</p>
+ *
+ * <p>The tokens and probabilities of multinomial features are stored like the
+ * states of a categorical feature, and flagged in <code>featureFlags</code>, so a
+ * {@link BinaryClassifier} can score token counts. Version 1 files, which have no
+ * flags, are still read, with all features categorical. Continuous features
+ * cannot be stored, and models with such features are rejected.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class NaiveBayesBinary {
+	/**
+	 * The first four bytes of a file ("NBCB").
+	 */
+	public static final int MAGIC = 0x4243424E;
+
+	/**
+	 * The version of the format written.
+	 */
+	public static final int VERSION = 3;
+
+	static final int HEADER_SIZE = 32;
+
+	/**
+	 * The flag of a multinomial feature in <code>featureFlags</code>.
+	 */
+	static final int MULTINOMIAL = 1;
+
+	/**
+	 * The flag in the header of a model where no log conditional probability is above 0.
+	 */
+	static final int BOUNDED = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	private NaiveBayesBinary() {
+	}
+
+
+	/**
+	 * Writes a classifier to a file. The model is validated first, since
+	 * binary models are classified from without validation.
+	 *
+	 * @param c The classifier to write.
+	 * @param file The file to write to.
+	 * @throws IOException If writing fails.
+	 * @throws DataStructureException If the model is not consistent or has continuous features.
+	 */
+	public static void write(NaiveBayesClassifier c, File file) throws IOException, DataStructureException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			write(c, out);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Writes a classifier to a stream. The model is validated first, since
+	 * binary models are classified from without validation. The stream is
+	 * flushed but not closed.
+	 *
+	 * @param c The classifier to write.
+	 * @param out The stream to write to.
+	 * @throws IOException If writing fails.
+	 * @throws DataStructureException If the model is not consistent or has continuous features.
+	 */
+	public static void write(NaiveBayesClassifier c, OutputStream out) throws IOException, DataStructureException {
+		c.validate();
+		Layout layout = new Layout(c.getData());
+		LittleEndianOutput le = new LittleEndianOutput(ByteBuffer.allocate(65536), out);
+		write(c.getData(), layout, le);
+		le.flush();
+	}
+
+
+	/**
+	 * Writes a classifier into a new direct (off-heap) buffer. The model is
+	 * validated first. The probability tables take 8 bytes per probability
+	 * outside the Java heap, where the garbage collector does not have to scan
+	 * them. The buffer is released when it is garbage collected, and its size is
+	 * limited to 2 GB and by <code>-XX:MaxDirectMemorySize</code>.
+	 *
+	 * @param c The classifier to write.
+	 * @return A read-only direct buffer in the binary format.
+	 * @throws DataStructureException If the model is not consistent, has continuous features or is too large for one buffer.
+	 */
+	public static ByteBuffer toDirectBuffer(NaiveBayesClassifier c) throws DataStructureException {
+		c.validate();
+		Layout layout = new Layout(c.getData());
+		if (layout.size > Integer.MAX_VALUE) { throw new DataStructureException("The model is too large for one buffer (" + layout.size + " bytes)"); }
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) layout.size);
+		try {
+			write(c.getData(), layout, new LittleEndianOutput(buffer, null));
+		}
+		catch (IOException e) {
+			// Not possible without a stream:
+			throw new IllegalStateException(e);
+		}
+		((Buffer) buffer).flip();
+		return buffer.asReadOnlyBuffer();
+	}
+
+
+	private static void write(NaiveBayesData data, Layout layout, LittleEndianOutput le) throws IOException {
+		le.writeInt(MAGIC);
+		le.writeInt(VERSION);
+		le.writeInt(layout.classCount);
+		le.writeInt(layout.featureCount);
+		le.writeInt(layout.stateCount);
+		le.writeInt(layout.bounded ? BOUNDED : 0);
+		le.writeLong(layout.numbersOffset);
+		for (byte[] s : layout.strings) {
+			le.writeInt(s.length);
+			le.write(s);
+		}
+		le.pad(layout.numbersOffset - HEADER_SIZE - layout.dictionarySize);
+
+		int stateOffset = 0;
+		for (FeatureData fd : data.getFeatures()) {
+			le.writeInt(stateOffset);
+			stateOffset += fd.getStates().size();
+		}
+		le.writeInt(stateOffset);
+		for (FeatureData fd : data.getFeatures()) {
+			le.writeByte(fd.isMultinomial() ? MULTINOMIAL : 0);
+		}
+		le.pad(offsetsSize(VERSION, layout.featureCount) - 4L * (layout.featureCount + 1) - layout.featureCount);
+
+		for (double p : data.getPriorProbabilities()) {
+			le.writeDouble(p);
+		}
+		for (FeatureData fd : data.getFeatures()) {
+			for (StateData sd : fd.getStates()) {
+				for (double p : sd.getConditionalProbabilities()) {
+					le.writeDouble(p);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Memory-maps a file written by {@link #write(NaiveBayesClassifier, File)}
+	 * for classification. The file is closed again right away, while the
+	 * mapping stays valid until the classifier is garbage collected.
+	 *
+	 * @param file The file to map.
+	 * @return A classifier reading from the mapped file.
+	 * @throws IOException If the file cannot be mapped.
+	 * @throws DataStructureException If the file is not in this format.
+	 */
+	public static BinaryClassifier map(File file) throws IOException, DataStructureException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new BinaryClassifier(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+
+	/**
+	 * Reads a file written by {@link #write(NaiveBayesClassifier, File)} into a
+	 * new classifier, e.g. for changing it.
+	 *
+	 * @param file The file to read.
+	 * @return The classifier.
+	 * @throws IOException If the file cannot be read.
+	 * @throws DataStructureException If the file is not in this format.
+	 */
+	public static NaiveBayesClassifier read(File file) throws IOException, DataStructureException {
+		return map(file).toClassifier();
+	}
+
+
+	static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+
+	/**
+	 * Returns the size of the state offsets and feature flags, including the padding.
+	 */
+	static long offsetsSize(int version, int featureCount) {
+		return align(4L * (featureCount + 1) + (version >= 2 ? featureCount : 0));
+	}
+
+
+	/**
+	 * The counts, encoded dictionary and resulting offsets of a model.
+	 */
+	private static class Layout {
+		final int classCount;
+		final int featureCount;
+		final int stateCount;
+		final boolean bounded;
+		final byte[][] strings;
+		final long dictionarySize;
+		final long numbersOffset;
+		final long size;
+
+		Layout(NaiveBayesData data) throws DataStructureException {
+			classCount = data.getClassLabels().size();
+			featureCount = data.getFeatures().size();
+			int states = 0;
+			boolean belowOne = true;
+			for (FeatureData fd : data.getFeatures()) {
+				if (fd.isContinuous()) { throw new DataStructureException("Continuous features are not supported by the binary format (\"" + fd.getName() + "\")"); }
+				states += fd.getStates().size();
+				for (StateData sd : fd.getStates()) {
+					for (double p : sd.getConditionalProbabilities()) {
+						belowOne &= Math.log(p) <= 0d;
+					}
+				}
+			}
+			stateCount = states;
+			bounded = belowOne;
+
+			strings = new byte[classCount + featureCount + stateCount][];
+			int i = 0;
+			long length = 0;
+			for (String label : data.getClassLabels()) {
+				strings[i] = label.getBytes(UTF8);
+				length += 4 + strings[i++].length;
+			}
+			for (FeatureData fd : data.getFeatures()) {
+				strings[i] = fd.getName().getBytes(UTF8);
+				length += 4 + strings[i++].length;
+			}
+			for (FeatureData fd : data.getFeatures()) {
+				for (StateData sd : fd.getStates()) {
+					strings[i] = sd.getLabel().getBytes(UTF8);
+					length += 4 + strings[i++].length;
+				}
+			}
+			dictionarySize = length;
+			numbersOffset = align(HEADER_SIZE + dictionarySize);
+			size = numbersOffset + offsetsSize(VERSION, featureCount) + 8L * classCount + 8L * stateCount * classCount;
+		}
+	}
+
+
+	/**
+	 * Writes little-endian numbers into a buffer. With a stream, the buffer
+	 * is written to the stream whenever it is full.
+	 */
+	private static class LittleEndianOutput {
+		private final ByteBuffer buffer;
+		private final OutputStream out;
+
+		LittleEndianOutput(ByteBuffer buffer, OutputStream out) {
+			this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+			this.out = out;
+		}
+
+		void writeInt(int v) throws IOException {
+			ensure(4);
+			buffer.putInt(v);
+		}
+
+		void writeLong(long v) throws IOException {
+			ensure(8);
+			buffer.putLong(v);
+		}
+
+		void writeByte(int v) throws IOException {
+			ensure(1);
+			buffer.put((byte) v);
+		}
+
+		void writeDouble(double v) throws IOException {
+			ensure(8);
+			buffer.putDouble(v);
+		}
+
+		void write(byte[] b) throws IOException {
+			int offset = 0;
+			while (offset < b.length) {
+				ensure(1);
+				int n = Math.min(buffer.remaining(), b.length - offset);
+				buffer.put(b, offset, n);
+				offset += n;
+			}
+		}
+
+		void pad(long n) throws IOException {
+			for (long i = 0; i < n; i++) {
+				ensure(1);
+				buffer.put((byte) 0);
+			}
+		}
+
+		void flush() throws IOException {
+			out.write(buffer.array(), 0, buffer.position());
+			((Buffer) buffer).clear();
+			out.flush();
+		}
+
+		private void ensure(int n) throws IOException {
+			if (out != null && buffer.remaining() < n) {
+				out.write(buffer.array(), 0, buffer.position());
+				((Buffer) buffer).clear();
+			}
+		}
+	}
+}
@@ -2,6 +2,7 @@ package moltsen.AI.NaiveBayes;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import moltsen.AI.NaiveBayes.model.*;
@@ -100,8 +101,78 @@ catch (Exception e) {
  * @version 1.0
  */
 public class NaiveBayesClassifier {
+	/**
+	 * The default tolerance used when checking that probabilities sum to 1.0.
+	 */
+	public static final double DEFAULT_VALIDATION_TOLERANCE = 1e-9d;
+
 	private NaiveBayesData data;
 
+	// Name to index of class labels, features and the states of each feature, kept in sync with data:
+	private HashMap<String, Integer> labelIndexes;
+	private HashMap<String, Integer> featureIndexes;
+	private ArrayList<HashMap<String, Integer>> stateIndexes;
+	private int stateCount;
+
+	private ClassifierMetrics metrics;
+
+	private double validationTolerance = DEFAULT_VALIDATION_TOLERANCE;
+
+	// Bumped by every change to the model, so results derived from it can be reused until then:
+	private long modificationCount;
+	private long validatedModificationCount = -1;
+	private String validationFailure;
+	private CompiledClassifier compiled;
+	private long compiledModificationCount = -1;
+
+
+	/**
+	 * Creates an empty classifier.
+	 */
+	public NaiveBayesClassifier() {
+	}
+
+
+	/**
+	 * Creates a deep copy of another classifier. Changes to either one
+	 * do not affect the other.
+	 * 
+	 * @param other The classifier to copy.
+	 */
+	public NaiveBayesClassifier(NaiveBayesClassifier other) {
+		validationTolerance = other.validationTolerance;
+		metrics = other.metrics;
+		if (other.data == null) { return; }
+
+		initNaiveBayesClassifier();
+		data.getClassLabels().addAll(other.data.getClassLabels());
+		data.getPriorProbabilities().addAll(other.data.getPriorProbabilities());
+		labelIndexes.putAll(other.labelIndexes);
+		featureIndexes.putAll(other.featureIndexes);
+		stateCount = other.stateCount;
+
+		for (int featureIndex = 0; featureIndex < other.data.getFeatures().size(); featureIndex++) {
+			FeatureData otherFD = other.data.getFeatures().get(featureIndex);
+			FeatureData newFD = new FeatureData();
+			newFD.setName(otherFD.getName());
+			newFD.setMultinomial(otherFD.isMultinomial());
+			newFD.setContinuous(otherFD.isContinuous());
+			if (otherFD.isContinuous()) {
+				newFD.setMeans(new ArrayList<Double>(otherFD.getMeans()));
+				newFD.setVariances(new ArrayList<Double>(otherFD.getVariances()));
+			}
+			newFD.setStates(new ArrayList<StateData>());
+			for (StateData otherSD : otherFD.getStates()) {
+				StateData newSD = new StateData();
+				newSD.setLabel(otherSD.getLabel());
+				newSD.setConditionalProbabilities(new ArrayList<Double>(otherSD.getConditionalProbabilities()));
+				newFD.getStates().add(newSD);
+			}
+			data.getFeatures().add(newFD);
+			stateIndexes.add(new HashMap<String, Integer>(other.stateIndexes.get(featureIndex)));
+		}
+	}
+
 	
 	/**
 	 * Add a class label.
@@ -111,15 +182,21 @@ public class NaiveBayesClassifier {
 	 */
 	public void addClassLabel(String label) throws DataStructureException {
 		if (data == null) { initNaiveBayesClassifier(); }
-		if (data.getClassLabels().contains(label)) {	throw new DataStructureException("Label already exists (\"" + label + "\")"); }
+		if (indexOfLabel(label) >= 0) {	throw new DataStructureException("Label already exists (\"" + label + "\")"); }
 		
+		labelIndexes.put(label, data.getClassLabels().size());
 		data.getClassLabels().add(label);
 		data.getPriorProbabilities().add(1d);
 		for (FeatureData feature : data.getFeatures()) {
 			for (StateData state : feature.getStates()) {
 				state.getConditionalProbabilities().add(1d);
 			}
+			if (feature.isContinuous()) {
+				feature.getMeans().add(0d);
+				feature.getVariances().add(1d);
+			}
 		}
+		modified();
 	}
 	
 	
@@ -132,16 +209,25 @@ public class NaiveBayesClassifier {
 	public void removeLabel(String label) throws DataStructureException {
 		if (data == null) { throw new DataStructureException("Label does not exist (\"" + label + "\")"); }
 
-		int i = data.getClassLabels().indexOf(label);
+		int i = indexOfLabel(label);
 		if (i == -1) { throw new DataStructureException("Label does not exist (\"" + label + "\")"); }
 
 		data.getClassLabels().remove(i);
+		labelIndexes.remove(label);
+		for (int k = i; k < data.getClassLabels().size(); k++) {
+			labelIndexes.put(data.getClassLabels().get(k), k);
+		}
 		data.getPriorProbabilities().remove(i);
 		for (FeatureData feature : data.getFeatures()) {
 			for (StateData state : feature.getStates()) {
 				state.getConditionalProbabilities().remove(i);
 			}
-		}				
+			if (feature.isContinuous()) {
+				feature.getMeans().remove(i);
+				feature.getVariances().remove(i);
+			}
+		}
+		modified();
 	}
 	
 	
@@ -158,7 +244,121 @@ public class NaiveBayesClassifier {
 		FeatureData newFD = new FeatureData();
 		newFD.setName(featureName);
 		newFD.setStates(new ArrayList<StateData>());
+		featureIndexes.put(featureName, data.getFeatures().size());
+		stateIndexes.add(new HashMap<String, Integer>());
 		data.getFeatures().add(newFD);
+		modified();
+	}
+	
+	
+	/**
+	 * Adds a multinomial (bag-of-words) feature. Its states are the tokens of a
+	 * vocabulary, added with {@link #addState(String, String)}, and its conditional
+	 * probabilities are the probabilities of drawing each token given a class label.
+	 * Such a feature can be observed as token counts with {@link #classify(Evidence)},
+	 * or as a single token with {@link #classify(Map)}.
+	 * 
+	 * @param featureName The name of the new feature
+	 * @throws DataStructureException
+	 */
+	public void addMultinomialFeature(String featureName) throws DataStructureException {
+		addFeature(featureName);
+		data.getFeatures().get(data.getFeatures().size() - 1).setMultinomial(true);
+	}
+
+
+	/**
+	 * Returns whether a feature is multinomial.
+	 * 
+	 * @param featureName The feature of interest.
+	 * @return True if the feature was added with {@link #addMultinomialFeature(String)}.
+	 * @throws DataStructureException
+	 */
+	public boolean isMultinomial(String featureName) throws DataStructureException {
+		int i = indexOfFeature(featureName);
+		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
+
+		return data.getFeatures().get(i).isMultinomial();
+	}
+	
+	
+	/**
+	 * Adds a continuous feature. Instead of states, it has a normal distribution
+	 * per class label, given by its mean and variance, which are 0 and 1 until
+	 * set with {@link #setGaussian(String, String, double, double)}. Such a feature
+	 * is observed as a measurement with {@link #classify(Evidence)}, and adds the
+	 * log-density of the measurement to the score of each class label.
+	 * 
+	 * @param featureName The name of the new feature
+	 * @throws DataStructureException
+	 */
+	public void addContinuousFeature(String featureName) throws DataStructureException {
+		addFeature(featureName);
+		setContinuous(data.getFeatures().size() - 1);
+	}
+
+
+	/**
+	 * Returns whether a feature is continuous.
+	 * 
+	 * @param featureName The feature of interest.
+	 * @return True if the feature was added with {@link #addContinuousFeature(String)}.
+	 * @throws DataStructureException
+	 */
+	public boolean isContinuous(String featureName) throws DataStructureException {
+		int i = indexOfFeature(featureName);
+		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
+
+		return data.getFeatures().get(i).isContinuous();
+	}
+
+
+	/**
+	 * Set the normal distribution of a continuous feature given a class label.
+	 * 
+	 * @param featureName The name of the target feature.
+	 * @param givenLabel The name of the class label.
+	 * @param mean The mean of the feature given the class label.
+	 * @param variance The variance of the feature given the class label (must be positive to validate).
+	 * @throws DataStructureException
+	 */
+	public void setGaussian(String featureName, String givenLabel, double mean, double variance) throws DataStructureException {
+		int i = indexOfFeature(featureName);
+		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
+		if (!data.getFeatures().get(i).isContinuous()) { throw new DataStructureException("Feature is not continuous (\"" + featureName + "\")"); }
+
+		int k = indexOfLabel(givenLabel);
+		if (k == -1) { throw new DataStructureException("Label does not exist (\"" + givenLabel + "\")"); }
+
+		setGaussian(i, k, mean, variance);
+	}
+
+
+	/**
+	 * Returns the means of a continuous feature given all class labels.
+	 * 
+	 * @param featureName The feature of interest.
+	 * @return The mean of the feature per class label.
+	 * @throws DataStructureException
+	 */
+	public Double[] getMeans(String featureName) throws DataStructureException {
+		FeatureData fd = continuousFeature(featureName);
+		Double[] res = new Double[fd.getMeans().size()];
+		return fd.getMeans().toArray(res);
+	}
+
+
+	/**
+	 * Returns the variances of a continuous feature given all class labels.
+	 * 
+	 * @param featureName The feature of interest.
+	 * @return The variance of the feature per class label.
+	 * @throws DataStructureException
+	 */
+	public Double[] getVariances(String featureName) throws DataStructureException {
+		FeatureData fd = continuousFeature(featureName);
+		Double[] res = new Double[fd.getVariances().size()];
+		return fd.getVariances().toArray(res);
 	}
 	
 	
@@ -172,7 +372,14 @@ public class NaiveBayesClassifier {
 		int i = indexOfFeature(featureName);
 		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
 
+		stateCount -= data.getFeatures().get(i).getStates().size();
 		data.getFeatures().remove(i);
+		stateIndexes.remove(i);
+		featureIndexes.remove(featureName);
+		for (int k = i; k < data.getFeatures().size(); k++) {
+			featureIndexes.put(data.getFeatures().get(k).getName(), k);
+		}
+		modified();
 	}
 	
 	
@@ -186,14 +393,18 @@ public class NaiveBayesClassifier {
 	public void addState(String featureName, String stateLabel) throws DataStructureException {
 		int i = indexOfFeature(featureName);
 		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
-		if (indexOfState(data.getFeatures().get(i), stateLabel) >= 0) { throw new DataStructureException("State already exists (\"" + stateLabel + "\")"); }
+		if (indexOfState(i, stateLabel) >= 0) { throw new DataStructureException("State already exists (\"" + stateLabel + "\")"); }
+		if (data.getFeatures().get(i).isContinuous()) { throw new DataStructureException("Feature is continuous (\"" + featureName + "\")"); }
 		
 		StateData newSD = new StateData();
 		newSD.setLabel(stateLabel);
 		newSD.setConditionalProbabilities(new ArrayList<Double>());
 		fillDoubles(newSD.getConditionalProbabilities(), 1d, data.getClassLabels().size());
 
+		stateIndexes.get(i).put(stateLabel, data.getFeatures().get(i).getStates().size());
 		data.getFeatures().get(i).getStates().add(newSD);
+		stateCount++;
+		modified();
 	}
 	
 	
@@ -208,10 +419,17 @@ public class NaiveBayesClassifier {
 		int i = indexOfFeature(featureName);
 		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
 
-		int j = indexOfState(data.getFeatures().get(i), stateLabel);
+		int j = indexOfState(i, stateLabel);
 		if (j == -1) { throw new DataStructureException("State does not exist (\"" + stateLabel + "\")"); }
 		
-		data.getFeatures().get(i).getStates().remove(j);
+		ArrayList<StateData> states = data.getFeatures().get(i).getStates();
+		states.remove(j);
+		stateCount--;
+		stateIndexes.get(i).remove(stateLabel);
+		for (int k = j; k < states.size(); k++) {
+			stateIndexes.get(i).put(states.get(k).getLabel(), k);
+		}
+		modified();
 	}
 	
 
@@ -226,10 +444,11 @@ public class NaiveBayesClassifier {
 	public void setPriorProbability(String classLabel, double priorProbability) throws DataStructureException {
 		if (data == null) { throw new DataStructureException("Label does not exist (\"" + classLabel + "\")"); }
 
-		int i = data.getClassLabels().indexOf(classLabel);
+		int i = indexOfLabel(classLabel);
 		if (i == -1) { throw new DataStructureException("Label does not exist (\"" + classLabel + "\")"); }
 
 		data.getPriorProbabilities().set(i, priorProbability);
+		modified();
 	}
 	
 
@@ -248,13 +467,14 @@ public class NaiveBayesClassifier {
 		int i = indexOfFeature(featureName);
 		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
 
-		int j = indexOfState(data.getFeatures().get(i), ofState);
+		int j = indexOfState(i, ofState);
 		if (j == -1) { throw new DataStructureException("State does not exist (\"" + ofState + "\")"); }
 		
-		int k = data.getClassLabels().indexOf(givenLabel);
+		int k = indexOfLabel(givenLabel);
 		if (k == -1) { throw new DataStructureException("Label does not exist (\"" + givenLabel + "\")"); }
 		
 		data.getFeatures().get(i).getStates().get(j).getConditionalProbabilities().set(k, conditionalProbability);
+		modified();
 	}
 	
 	
@@ -332,7 +552,7 @@ public class NaiveBayesClassifier {
 		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
 
 		FeatureData fData = data.getFeatures().get(i);
-		int j = indexOfState(fData, ofState);
+		int j = indexOfState(i, ofState);
 		if (j == -1) { throw new DataStructureException("State does not exist (\"" + ofState + "\")"); }
 
 		StateData sData = fData.getStates().get(j);
@@ -346,44 +566,100 @@ public class NaiveBayesClassifier {
 	 * throws an exception if inconsistent. This is done as the first step
 	 * in the classify method.
 	 * 
+	 * <p>The result is remembered until the model is changed, so repeated
+	 * validation of an unchanged model is free.</p>
+	 * 
 	 * @throws DataStructureException
 	 */
 	public void validate() throws DataStructureException {
-		double priorSum = 0d;
-		for (double p : data.getPriorProbabilities()) {
-			priorSum += p;
+		if (validatedModificationCount != modificationCount) {
+			long start = metrics == null ? 0 : System.nanoTime();
+			validationFailure = findInconsistency();
+			validatedModificationCount = modificationCount;
+			if (metrics != null) { metrics.validated(System.nanoTime() - start, validationFailure); }
 		}
-		if (priorSum != 1.0d) {
-			throw new DataStructureException("The sum of prior probabilities is " + priorSum + " (should be 1.0)");
-		}
-		
-		for (FeatureData fd : data.getFeatures()) {
-			String featureName = fd.getName();
-			for (int classIndex = 0; classIndex < data.getClassLabels().size(); classIndex++) {
-				String classLabel = data.getClassLabels().get(classIndex);
-				double conditionalSum = 0d;
-				for (int stateIndex = 0; stateIndex < fd.getStates().size(); stateIndex++) {
-					conditionalSum += fd.getStates().get(stateIndex).getConditionalProbabilities().get(classIndex);
-				}
-				if (conditionalSum != 1.0d) {
-					throw new DataStructureException("The sum of conditional probabilities of " + featureName + " given " +
-														classLabel + " is " + conditionalSum + " (should be 1.0)");
-				}
-			}
+		if (validationFailure != null) {
+			throw new DataStructureException(validationFailure);
 		}
 	}
+
+
+	/**
+	 * Set how far a sum of probabilities may be from 1.0 and still be
+	 * considered consistent by {@link #validate()}. The default is
+	 * {@link #DEFAULT_VALIDATION_TOLERANCE}.
+	 * 
+	 * @param tolerance The largest accepted absolute difference from 1.0.
+	 * @throws DataStructureException If the tolerance is negative or NaN.
+	 */
+	public void setValidationTolerance(double tolerance) throws DataStructureException {
+		if (tolerance < 0 || Double.isNaN(tolerance)) { throw new DataStructureException("Expected a tolerance of at least 0 (got " + tolerance + ")"); }
+
+		validationTolerance = tolerance;
+		modified();
+	}
+
+
+	/**
+	 * Returns the tolerance used by {@link #validate()}.
+	 * 
+	 * @return The largest accepted absolute difference from 1.0.
+	 */
+	public double getValidationTolerance() {
+		return validationTolerance;
+	}
+
+
+	/**
+	 * Set where to report measurements of classification, validation and changes
+	 * to the model, e.g. {@link ClassifierStatistics}. Without metrics (the default)
+	 * nothing is measured. Copies of this classifier report to the same metrics.
+	 * Compiled snapshots do not report; see {@link ClassifierMetrics}.
+	 * 
+	 * @param metrics The metrics, or null for none.
+	 */
+	public void setMetrics(ClassifierMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+
+	/**
+	 * Returns where measurements are reported.
+	 * 
+	 * @return The metrics, or null if none.
+	 */
+	public ClassifierMetrics getMetrics() {
+		return metrics;
+	}
+
+
+	/**
+	 * Returns a number which changes whenever the model is changed. It can be
+	 * used to tell whether results computed from the model are still current.
+	 * 
+	 * @return The number of changes made to the model.
+	 */
+	public long getModificationCount() {
+		return modificationCount;
+	}
 	
 	
 	/**
 	 * The Naive Bayes classifiaction algorithm. The structure of the classifier
 	 * must be complete and consistent. If not, an exception will be thrown.
 	 * 
+	 * <p>Probabilities are multiplied directly, which underflows when many features
+	 * are observed. Use {@link CompiledClassifier#classifyLogSpace(Map)} for large
+	 * numbers of observed features.</p>
+	 * 
 	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs. 
 	 * @return A probability distribution over the class labels given the observations.
 	 * @throws DataStructureException
 	 */
 	public Double[] classify(Map<String, String> observations) throws DataStructureException {
+		long start = metrics == null ? 0 : System.nanoTime();
 		validate();
+		long validated = metrics == null ? 0 : System.nanoTime();
 
 		Double[] result = getPriorProbabilities();
 		
@@ -392,41 +668,342 @@ public class NaiveBayesClassifier {
 		StateData[] observedStates = new StateData[observations.keySet().size()];
 		
 		int obsIndex = 0;
-		for (String observedFeature : observations.keySet()) {
-			int featureIndex = indexOfFeature(observedFeature);
-			if (featureIndex == -1) { throw new DataStructureException("Feature does not exist (\"" + observedFeature + "\")"); }
+		for (Map.Entry<String, String> observation : observations.entrySet()) {
+			int featureIndex = indexOfFeature(observation.getKey());
+			if (featureIndex == -1) {
+				if (metrics != null) { metrics.unknownFeature(observation.getKey()); }
+				throw new DataStructureException("Feature does not exist (\"" + observation.getKey() + "\")");
+			}
 			
-			int observedStateIndex = indexOfState(data.getFeatures().get(featureIndex), observations.get(observedFeature));
-			if (observedStateIndex == -1) { throw new DataStructureException("State does not exist (\"" + observations.get(observedFeature) + "\")"); }
+			int observedStateIndex = indexOfState(featureIndex, observation.getValue());
+			if (observedStateIndex == -1) {
+				if (metrics != null) { metrics.unknownState(observation.getKey(), observation.getValue()); }
+				throw new DataStructureException("State does not exist (\"" + observation.getValue() + "\")");
+			}
 			
 			observedFeatures[obsIndex] = data.getFeatures().get(featureIndex);
 			observedStates[obsIndex] = observedFeatures[obsIndex].getStates().get(observedStateIndex);
 			obsIndex++;
 		}
+		long looked = metrics == null ? 0 : System.nanoTime();
 		
-		// Compute the scaling factor (Z):
+		// Compute the scaling factor (Z), keeping the factor of each class for the result:
+		double[] factors = new double[result.length];
 		double evidenceScaling = 0;
 		for (int classIndex = 0; classIndex < result.length; classIndex++) {
 			double factor = 1;
 			for (int featureIndex = 0; featureIndex < observedFeatures.length; featureIndex++) {
 				factor *= observedStates[featureIndex].getConditionalProbabilities().get(classIndex);
 			}
+			factors[classIndex] = factor;
 			evidenceScaling += factor * data.getPriorProbabilities().get(classIndex); 
 		}
 		
 		// Compute the result:
 		for (int classIndex = 0; classIndex < result.length; classIndex++) {
-			double factor = 1;
-			for (int featureIndex = 0; featureIndex < observedFeatures.length; featureIndex++) {
-				factor *= observedStates[featureIndex].getConditionalProbabilities().get(classIndex);
-			}
-			result[classIndex] *= factor / evidenceScaling;
+			result[classIndex] *= factors[classIndex] / evidenceScaling;
 		}
 		
+		if (metrics != null) { metrics.classified(obsIndex, validated - start, looked - validated, System.nanoTime() - looked); }
 		return result;
 	}
-	
-	
+
+
+	/**
+	 * The Naive Bayes classification algorithm on evidence which may include token
+	 * counts of multinomial features and measurements of continuous features. The
+	 * computation is done in log-space, so long documents do not underflow. See {@link CompiledClassifier#classify(Evidence)}.
+	 * 
+	 * @param evidence The observed states and token counts.
+	 * @return A probability distribution over the class labels given the evidence.
+	 * @throws DataStructureException
+	 */
+	public Double[] classify(Evidence evidence) throws DataStructureException {
+		long start = metrics == null ? 0 : System.nanoTime();
+		CompiledClassifier compiled = compile();
+		long compiledAt = metrics == null ? 0 : System.nanoTime();
+		double[] posteriors = compiled.classify(evidence);
+		if (metrics != null) {
+			int observationCount = evidence.getStates().size() + evidence.getTokenCounts().size() + evidence.getMeasurements().size();
+			metrics.classified(observationCount, compiledAt - start, 0, System.nanoTime() - compiledAt);
+		}
+
+		Double[] result = new Double[posteriors.length];
+		for (int classIndex = 0; classIndex < posteriors.length; classIndex++) {
+			result[classIndex] = posteriors[classIndex];
+		}
+		return result;
+	}
+
+
+	/**
+	 * Finds the k most likely class labels with their unnormalized log-scores,
+	 * without building and normalizing the whole distribution. Class labels which
+	 * cannot reach the top k are abandoned early. See
+	 * {@link CompiledClassifier#classifyTopK(int[], int)}.
+	 * 
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @param k The number of class labels wanted (1 for the most likely one only).
+	 * @return At most k class labels, the most likely first.
+	 * @throws DataStructureException
+	 */
+	public RankedLabel[] classifyTopK(Map<String, String> observations, int k) throws DataStructureException {
+		long start = metrics == null ? 0 : System.nanoTime();
+		CompiledClassifier compiled = compile();
+		long compiledAt = metrics == null ? 0 : System.nanoTime();
+		RankedLabel[] result = compiled.classifyTopK(observations, k);
+		if (metrics != null) { metrics.classified(observations.size(), compiledAt - start, 0, System.nanoTime() - compiledAt); }
+		return result;
+	}
+
+
+	/**
+	 * Classifies many observations at once. The model is validated once for the
+	 * whole batch, and large batches are split across the common fork/join pool.
+	 * See {@link CompiledClassifier#classifyBatch(List, double[][])}.
+	 * 
+	 * @param observations One map of feature (key) and state (value) pairs per row.
+	 * @param posteriors Receives one probability distribution over the class labels per row.
+	 * @throws DataStructureException
+	 */
+	public void classifyBatch(List<? extends Map<String, String>> observations, double[][] posteriors) throws DataStructureException {
+		long start = metrics == null ? 0 : System.nanoTime();
+		CompiledClassifier compiled = compile();
+		long compiledAt = metrics == null ? 0 : System.nanoTime();
+		compiled.classifyBatch(observations, posteriors);
+		if (metrics != null) { metrics.classifiedBatch(observations.size(), compiledAt - start, System.nanoTime() - compiledAt); }
+	}
+
+
+	/**
+	 * Classifies many state index vectors at once. Each vector holds the index of
+	 * the observed state per feature (in the order of {@link #getFeatures()} and
+	 * {@link #getStates(String)}), or -1 if the feature was not observed. See
+	 * {@link CompiledClassifier#classifyBatch(int[][], double[][])}.
+	 * 
+	 * @param observations One state index vector per row.
+	 * @param posteriors Receives one probability distribution over the class labels per row.
+	 * @throws DataStructureException
+	 */
+	public void classifyBatch(int[][] observations, double[][] posteriors) throws DataStructureException {
+		long start = metrics == null ? 0 : System.nanoTime();
+		CompiledClassifier compiled = compile();
+		long compiledAt = metrics == null ? 0 : System.nanoTime();
+		compiled.classifyBatch(observations, posteriors);
+		if (metrics != null) { metrics.classifiedBatch(observations.length, compiledAt - start, System.nanoTime() - compiledAt); }
+	}
+
+
+	/**
+	 * Classifies a state index vector into an array owned by the caller. Once the
+	 * model is compiled, i.e. until it is changed again, this allocates nothing.
+	 * Encode observations by name into a reused vector with
+	 * {@link CompiledClassifier#encode(Map, int[])}. See
+	 * {@link CompiledClassifier#classify(int[], double[])}.
+	 * 
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @param posteriors Receives the probability distribution over the class labels.
+	 * @throws DataStructureException
+	 */
+	public void classify(int[] states, double[] posteriors) throws DataStructureException {
+		long start = metrics == null ? 0 : System.nanoTime();
+		CompiledClassifier compiled = compile();
+		long compiledAt = metrics == null ? 0 : System.nanoTime();
+		compiled.classify(states, posteriors);
+		if (metrics != null) {
+			int observationCount = 0;
+			for (int state : states) {
+				if (state >= 0) { observationCount++; }
+			}
+			metrics.classified(observationCount, compiledAt - start, 0, System.nanoTime() - compiledAt);
+		}
+	}
+
+
+	/**
+	 * Freezes the current model into an immutable {@link CompiledClassifier} backed
+	 * by primitive arrays. The model is validated first. Later changes to this
+	 * classifier do not affect the compiled one. The same compiled classifier
+	 * is returned until the model is changed.
+	 *
+	 * @return A compiled snapshot of this classifier.
+	 * @throws DataStructureException
+	 */
+	public CompiledClassifier compile() throws DataStructureException {
+		if (data == null) { initNaiveBayesClassifier(); }
+		validate();
+
+		if (compiledModificationCount != modificationCount) {
+			compiled = new CompiledClassifier(data);
+			compiledModificationCount = modificationCount;
+		}
+		return compiled;
+	}
+
+
+	/**
+	 * Compiles the current model and stores its conditional table in less precision
+	 * (see {@link CompiledClassifier#quantize(QuantizedClassifier.Precision)}). The
+	 * compiled snapshot is not kept by this classifier afterwards, so its tables
+	 * can be garbage collected unless it is used elsewhere.
+	 *
+	 * @param precision How to store the table.
+	 * @return The quantized classifier.
+	 * @throws DataStructureException
+	 */
+	public QuantizedClassifier quantize(QuantizedClassifier.Precision precision) throws DataStructureException {
+		QuantizedClassifier quantized = compile().quantize(precision);
+		compiled = null;
+		compiledModificationCount = -1;
+		return quantized;
+	}
+
+
+	/**
+	 * Freezes the current model into an immutable {@link BinaryClassifier} whose
+	 * probability tables are stored off-heap in a direct buffer, 8 bytes per
+	 * probability, out of sight of the garbage collector. Logarithms are not
+	 * stored but taken as the probabilities are read, so 2,000,000 states of 50
+	 * class labels take about 800 MB. See
+	 * {@link NaiveBayesBinary#toDirectBuffer(NaiveBayesClassifier)}.
+	 *
+	 * <p>Note that the boxed tables of this classifier must be built on the heap
+	 * first, and can only be dropped once compiled. The result is a separate
+	 * classifier with the classification methods of {@link CompiledClassifier}
+	 * for categorical and multinomial features, but not its whole API, and
+	 * continuous features are rejected. To avoid the heap altogether, write the
+	 * model once with {@link NaiveBayesBinary#write(NaiveBayesClassifier, java.io.File)}
+	 * and {@link NaiveBayesBinary#map(java.io.File) map} the file where it is used.</p>
+	 *
+	 * @return An off-heap snapshot of this classifier.
+	 * @throws DataStructureException
+	 */
+	public BinaryClassifier compileOffHeap() throws DataStructureException {
+		return new BinaryClassifier(NaiveBayesBinary.toDirectBuffer(this));
+	}
+
+
+	/**
+	 * Estimates the heap size of this classifier on a 64-bit JVM with compressed
+	 * pointers: the model with its boxed probabilities, names and indexes, and the
+	 * compiled snapshot if the current model has been compiled. The estimate is
+	 * meant for budgeting memory across many models (see {@link ModelRegistry}),
+	 * not for exact accounting.
+	 *
+	 * @return The estimated number of bytes.
+	 */
+	public long estimateByteSize() {
+		if (data == null) { return 64; }
+
+		int classCount = data.getClassLabels().size();
+		long size = 64 + 24 + listSize(classCount) + listSize(classCount) + 16L * classCount + listSize(data.getFeatures().size());
+		for (String label : data.getClassLabels()) {
+			size += stringSize(label);
+		}
+		for (FeatureData fd : data.getFeatures()) {
+			size += 40 + stringSize(fd.getName()) + listSize(fd.getStates().size());
+			for (StateData sd : fd.getStates()) {
+				size += 24 + stringSize(sd.getLabel()) + listSize(classCount) + 16L * classCount;
+			}
+			if (fd.isContinuous()) {
+				size += 2 * (listSize(classCount) + 16L * classCount);
+			}
+		}
+		size += mapSize(classCount) + mapSize(data.getFeatures().size()) + listSize(data.getFeatures().size()) + 48L * data.getFeatures().size() + mapSize(stateCount);
+
+		if (compiled != null && compiledModificationCount == modificationCount) {
+			size += compiled.estimateByteSize();
+		}
+		return size;
+	}
+
+
+	/**
+	 * Estimates an ArrayList with the given number of elements, not counting the elements.
+	 */
+	static long listSize(int n) {
+		return 24 + 16 + 4L * n;
+	}
+
+
+	/**
+	 * Estimates a String of Latin-1 characters with its array.
+	 */
+	static long stringSize(String s) {
+		return 24 + 16 + s.length();
+	}
+
+
+	/**
+	 * Estimates a HashMap of String to Integer with the given number of entries, not counting the keys.
+	 */
+	static long mapSize(int n) {
+		return 48 + 16 + 8L * n + (32 + 16) * (long) n;
+	}
+
+
+	/**
+	 * Set whether a feature given by index is multinomial.
+	 */
+	void setMultinomial(int featureIndex, boolean multinomial) {
+		data.getFeatures().get(featureIndex).setMultinomial(multinomial);
+		modified();
+	}
+
+
+	/**
+	 * Turns a feature given by index, which must not have states, into a continuous feature.
+	 */
+	void setContinuous(int featureIndex) {
+		FeatureData fd = data.getFeatures().get(featureIndex);
+		fd.setContinuous(true);
+		fd.setMeans(new ArrayList<Double>());
+		fd.setVariances(new ArrayList<Double>());
+		fillDoubles(fd.getMeans(), 0d, data.getClassLabels().size());
+		fillDoubles(fd.getVariances(), 1d, data.getClassLabels().size());
+		modified();
+	}
+
+
+	/**
+	 * Set the normal distribution of a continuous feature given by index, given a class label by index.
+	 */
+	void setGaussian(int featureIndex, int classIndex, double mean, double variance) {
+		FeatureData fd = data.getFeatures().get(featureIndex);
+		fd.getMeans().set(classIndex, mean);
+		fd.getVariances().set(classIndex, variance);
+		modified();
+	}
+
+
+	/**
+	 * Set the prior probability of a class label given by index.
+	 */
+	void setPriorProbability(int classIndex, double priorProbability) {
+		data.getPriorProbabilities().set(classIndex, priorProbability);
+		modified();
+	}
+
+
+	/**
+	 * Set a conditional probability given by feature, state and class label index.
+	 */
+	void setConditionalProbability(int featureIndex, int stateIndex, int classIndex, double conditionalProbability) {
+		data.getFeatures().get(featureIndex).getStates().get(stateIndex).getConditionalProbabilities().set(classIndex, conditionalProbability);
+		modified();
+	}
+
+
+	/**
+	 * Returns the underlying structures for reading, e.g. when saving the model.
+	 * They must not be changed.
+	 */
+	NaiveBayesData getData() {
+		if (data == null) { initNaiveBayesClassifier(); }
+		return data;
+	}
+
+
 	/**
 	 * This will create the underlying structures.
 	 */
@@ -435,9 +1012,101 @@ public class NaiveBayesClassifier {
 		data.setClassLabels(new ArrayList<String>());
 		data.setPriorProbabilities(new ArrayList<Double>());
 		data.setFeatures(new ArrayList<FeatureData>());
+		labelIndexes = new HashMap<String, Integer>();
+		featureIndexes = new HashMap<String, Integer>();
+		stateIndexes = new ArrayList<HashMap<String, Integer>>();
 	}
 
 	
+	/**
+	 * Sums the prior probabilities and the conditional probabilities of each
+	 * feature given each class label.
+	 * 
+	 * @return A description of the first inconsistency found, or null if consistent.
+	 */
+	private String findInconsistency() {
+		double priorSum = 0d;
+		for (double p : data.getPriorProbabilities()) {
+			priorSum += p;
+		}
+		if (!isOne(priorSum)) {
+			return "The sum of prior probabilities is " + priorSum + " (should be 1.0)";
+		}
+		
+		for (FeatureData fd : data.getFeatures()) {
+			String featureName = fd.getName();
+			if (fd.isContinuous()) {
+				for (int classIndex = 0; classIndex < data.getClassLabels().size(); classIndex++) {
+					double mean = fd.getMeans().get(classIndex);
+					double variance = fd.getVariances().get(classIndex);
+					if (Double.isNaN(mean) || Double.isInfinite(mean) || !(variance > 0d) || Double.isInfinite(variance)) {
+						return "The normal distribution of " + featureName + " given " + data.getClassLabels().get(classIndex) +
+								" has mean " + mean + " and variance " + variance + " (should be finite and positive)";
+					}
+				}
+				continue;
+			}
+
+			for (int classIndex = 0; classIndex < data.getClassLabels().size(); classIndex++) {
+				String classLabel = data.getClassLabels().get(classIndex);
+				double conditionalSum = 0d;
+				for (int stateIndex = 0; stateIndex < fd.getStates().size(); stateIndex++) {
+					conditionalSum += fd.getStates().get(stateIndex).getConditionalProbabilities().get(classIndex);
+				}
+				if (!isOne(conditionalSum)) {
+					return "The sum of conditional probabilities of " + featureName + " given " +
+							classLabel + " is " + conditionalSum + " (should be 1.0)";
+				}
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Finds a continuous feature by name.
+	 */
+	private FeatureData continuousFeature(String featureName) throws DataStructureException {
+		int i = indexOfFeature(featureName);
+		if (i == -1) { throw new DataStructureException("Feature does not exist (\"" + featureName + "\")"); }
+
+		FeatureData fd = data.getFeatures().get(i);
+		if (!fd.isContinuous()) { throw new DataStructureException("Feature is not continuous (\"" + featureName + "\")"); }
+		return fd;
+	}
+
+
+	/**
+	 * Checks a sum of probabilities against the validation tolerance (NaN is never one).
+	 */
+	private boolean isOne(double sum) {
+		return Math.abs(sum - 1.0d) <= validationTolerance;
+	}
+
+
+	/**
+	 * Must be called after every change to the model.
+	 */
+	private void modified() {
+		modificationCount++;
+		if (metrics != null && data != null) { metrics.modified(modificationCount, data.getClassLabels().size(), data.getFeatures().size(), stateCount); }
+	}
+
+
+	/**
+	 * This method finds the index of a class label.
+	 * 
+	 * @param label
+	 * @return the index of the specified label, or -1 if it does not exist.
+	 */
+	private int indexOfLabel(String label) {
+		if (data == null) { return -1; }
+
+		Integer i = labelIndexes.get(label);
+		return i == null ? -1 : i;
+	}
+
+
 	/**
 	 * This methods finds the index of a feature.
 	 * 
@@ -447,34 +1116,20 @@ public class NaiveBayesClassifier {
 	private int indexOfFeature(String featureName) {
 		if (data == null) { return -1; }
 		
-		int i = 0;
-		while (i < data.getFeatures().size()) {
-			if (featureName.equals(data.getFeatures().get(i).getName())) {
-				return i;
-			}
-			i++;
-		}
-		return -1;
+		Integer i = featureIndexes.get(featureName);
+		return i == null ? -1 : i;
 	}
 	
 	
 	/**
 	 * This method finds the index of a state.
-	 * @param feature
+	 * @param featureIndex
 	 * @param stateLabel
-	 * @return
+	 * @return the index of the specified state, or -1 if the feature does not have the state.
 	 */
-	private int indexOfState(FeatureData feature, String stateLabel) {
-		if (data == null) { return -1; }
-		
-		int i = 0;
-		while (i < feature.getStates().size()) {
-			if (stateLabel.equals(feature.getStates().get(i).getLabel())) {
-				return i;
-			}
-			i++;
-		}
-		return -1;
+	private int indexOfState(int featureIndex, String stateLabel) {
+		Integer i = stateIndexes.get(featureIndex).get(stateLabel);
+		return i == null ? -1 : i;
 	}
 
 	
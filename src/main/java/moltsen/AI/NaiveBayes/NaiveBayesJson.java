@@ -0,0 +1,392 @@
+package moltsen.AI.NaiveBayes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import moltsen.AI.NaiveBayes.JsonTokenizer.Token;
+import moltsen.AI.NaiveBayes.model.*;
+
+/**
+ * <p>Reads and writes classifiers in the JSON format "Naive Bayes Classifier v.1.0",
+ * which mirrors the structure of {@link NaiveBayesData}:</p>
+ *
+ * <pre>
+{
+	"format": "Naive Bayes Classifier v.1.0",
+	"classLabels": [ "Flu", "Measles", "No disease" ],
+	"priorProbabilities": [ 0.06, 0.04, 0.90 ],
+	"features": [
+		{
+			"name": "Fever",
+			"states": [
+				{
+					"label": "yes",
+					"conditionalProbabilities": [ 0.90, 0.90, 0.01 ]
+				},
+				...
+			]
+		},
+		...
+	]
+}
+ * </pre>
+ *
+ * <p>Both directions are streaming: the reader builds the classifier while it reads,
+ * one token at a time, and the writer writes directly from the model. Neither holds
+ * the document in memory. To make this possible, the reader requires
+ * <code>classLabels</code> to come before <code>features</code>, and
+ * <code>name</code> to come before <code>states</code> in each feature, as the
+ * writer does. Unknown fields are skipped.</p>
+ *
+ * <p>Multinomial features are written with an extra field <code>"type": "multinomial"</code>
+ * after the name. Continuous features are written with <code>"type": "continuous"</code>
+ * followed by <code>means</code> and <code>variances</code> per class label instead of
+ * states. Features without a type are categorical, so documents without these
+ * features are unchanged.</p>
+ *
+ * <p>JSON has no NaN or infinite numbers, so models with such probabilities, means
+ * or variances are rejected before anything is written.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class NaiveBayesJson {
+	/**
+	 * The value of the format field.
+	 */
+	public static final String FORMAT = "Naive Bayes Classifier v.1.0";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+	private NaiveBayesJson() {
+	}
+
+
+	/**
+	 * Reads a classifier from a UTF-8 encoded stream. The stream is not closed.
+	 *
+	 * @param in The stream to read from.
+	 * @return The classifier.
+	 * @throws IOException If reading fails or the document is not valid JSON.
+	 * @throws DataStructureException If the document does not describe a valid structure.
+	 */
+	public static NaiveBayesClassifier read(InputStream in) throws IOException, DataStructureException {
+		return read(new InputStreamReader(in, UTF8));
+	}
+
+
+	/**
+	 * Reads a classifier. The reader is not closed.
+	 *
+	 * @param reader The reader to read from.
+	 * @return The classifier.
+	 * @throws IOException If reading fails or the document is not valid JSON.
+	 * @throws DataStructureException If the document does not describe a valid structure.
+	 */
+	public static NaiveBayesClassifier read(Reader reader) throws IOException, DataStructureException {
+		JsonTokenizer json = new JsonTokenizer(reader);
+		NaiveBayesClassifier c = new NaiveBayesClassifier();
+		String format = null;
+		int classCount = -1;
+		List<Double> priors = null;
+		int featureCount = 0;
+
+		json.expect(Token.BEGIN_OBJECT);
+		while (json.peek() != Token.END_OBJECT) {
+			String field = json.nextString();
+			if ("format".equals(field)) {
+				format = json.nextString();
+				if (!FORMAT.equals(format)) { throw new DataStructureException("Unsupported format (\"" + format + "\")"); }
+			}
+			else if ("classLabels".equals(field)) {
+				if (classCount != -1) { throw new DataStructureException("Duplicate field (\"classLabels\")"); }
+				json.expect(Token.BEGIN_ARRAY);
+				while (json.peek() != Token.END_ARRAY) {
+					c.addClassLabel(json.nextString());
+				}
+				json.next();
+				classCount = c.getClassLabels().length;
+			}
+			else if ("priorProbabilities".equals(field)) {
+				// Kept until the end, since they may come before the class labels:
+				priors = readNumbers(json);
+			}
+			else if ("features".equals(field)) {
+				if (classCount == -1) { throw new DataStructureException("Field \"classLabels\" must come before \"features\""); }
+				json.expect(Token.BEGIN_ARRAY);
+				while (json.peek() != Token.END_ARRAY) {
+					readFeature(json, c, featureCount++, classCount);
+				}
+				json.next();
+			}
+			else {
+				json.skipValue();
+			}
+		}
+		json.next();
+
+		if (format == null) { throw new DataStructureException("Missing field (\"format\")"); }
+		if (classCount == -1) { classCount = 0; }
+		if (priors != null) {
+			if (priors.size() != classCount) { throw new DataStructureException("Expected " + classCount + " prior probabilities (got " + priors.size() + ")"); }
+			for (int classIndex = 0; classIndex < classCount; classIndex++) {
+				c.setPriorProbability(classIndex, priors.get(classIndex));
+			}
+		}
+		return c;
+	}
+
+
+	/**
+	 * Writes a classifier to a stream as UTF-8. The stream is flushed but not closed.
+	 *
+	 * @param c The classifier to write.
+	 * @param out The stream to write to.
+	 * @throws IOException If writing fails.
+	 * @throws DataStructureException If a number of the model is NaN or infinite.
+	 */
+	public static void write(NaiveBayesClassifier c, OutputStream out) throws IOException, DataStructureException {
+		Writer writer = new OutputStreamWriter(out, UTF8);
+		write(c, writer);
+		writer.flush();
+	}
+
+
+	/**
+	 * Writes a classifier. The writer is not flushed or closed.
+	 *
+	 * @param c The classifier to write.
+	 * @param writer The writer to write to.
+	 * @throws IOException If writing fails.
+	 * @throws DataStructureException If a number of the model is NaN or infinite.
+	 */
+	public static void write(NaiveBayesClassifier c, Writer writer) throws IOException, DataStructureException {
+		NaiveBayesData data = c.getData();
+		checkFinite(data);
+
+		writer.write("{\n\t\"format\": ");
+		writeString(writer, FORMAT);
+		writer.write(",\n\t\"classLabels\": [ ");
+		for (int classIndex = 0; classIndex < data.getClassLabels().size(); classIndex++) {
+			if (classIndex > 0) { writer.write(", "); }
+			writeString(writer, data.getClassLabels().get(classIndex));
+		}
+		writer.write(" ],\n\t\"priorProbabilities\": ");
+		writeNumbers(writer, data.getPriorProbabilities());
+		writer.write(",\n\t\"features\": [");
+
+		for (int featureIndex = 0; featureIndex < data.getFeatures().size(); featureIndex++) {
+			FeatureData fd = data.getFeatures().get(featureIndex);
+			writer.write(featureIndex > 0 ? ",\n\t\t{\n\t\t\t\"name\": " : "\n\t\t{\n\t\t\t\"name\": ");
+			writeString(writer, fd.getName());
+			if (fd.isMultinomial()) { writer.write(",\n\t\t\t\"type\": \"multinomial\""); }
+			if (fd.isContinuous()) {
+				writer.write(",\n\t\t\t\"type\": \"continuous\",\n\t\t\t\"means\": ");
+				writeNumbers(writer, fd.getMeans());
+				writer.write(",\n\t\t\t\"variances\": ");
+				writeNumbers(writer, fd.getVariances());
+				writer.write("\n\t\t}");
+				continue;
+			}
+			writer.write(",\n\t\t\t\"states\": [");
+			for (int stateIndex = 0; stateIndex < fd.getStates().size(); stateIndex++) {
+				StateData sd = fd.getStates().get(stateIndex);
+				writer.write(stateIndex > 0 ? ",\n\t\t\t\t{\n\t\t\t\t\t\"label\": " : "\n\t\t\t\t{\n\t\t\t\t\t\"label\": ");
+				writeString(writer, sd.getLabel());
+				writer.write(",\n\t\t\t\t\t\"conditionalProbabilities\": ");
+				writeNumbers(writer, sd.getConditionalProbabilities());
+				writer.write("\n\t\t\t\t}");
+			}
+			writer.write("\n\t\t\t]\n\t\t}");
+		}
+		writer.write("\n\t]\n}\n");
+	}
+
+
+	/**
+	 * Reads a feature object and adds it with its states to the classifier.
+	 */
+	private static void readFeature(JsonTokenizer json, NaiveBayesClassifier c, int featureIndex, int classCount) throws IOException, DataStructureException {
+		String name = null;
+		boolean continuous = false;
+		json.expect(Token.BEGIN_OBJECT);
+		while (json.peek() != Token.END_OBJECT) {
+			String field = json.nextString();
+			if ("name".equals(field)) {
+				name = json.nextString();
+				c.addFeature(name);
+			}
+			else if ("type".equals(field)) {
+				String type = json.nextString();
+				if (name == null) { throw new DataStructureException("Field \"name\" must come before \"type\""); }
+				if ("continuous".equals(type)) {
+					if (c.getStates(name).length > 0) { throw new DataStructureException("Field \"type\" must come before \"states\""); }
+					c.setContinuous(featureIndex);
+					continuous = true;
+				}
+				else if ("categorical".equals(type) || "multinomial".equals(type)) {
+					c.setMultinomial(featureIndex, "multinomial".equals(type));
+				}
+				else {
+					throw new DataStructureException("Unsupported feature type (\"" + type + "\")");
+				}
+			}
+			else if ("means".equals(field) || "variances".equals(field)) {
+				if (!continuous) { throw new DataStructureException("Field \"type\": \"continuous\" must come before \"" + field + "\""); }
+				List<Double> values = readNumbers(json);
+				if (values.size() != classCount) { throw new DataStructureException("Expected " + classCount + " " + field + " for " + name + " (got " + values.size() + ")"); }
+				Double[] means = c.getMeans(name);
+				Double[] variances = c.getVariances(name);
+				for (int classIndex = 0; classIndex < classCount; classIndex++) {
+					if ("means".equals(field)) {
+						c.setGaussian(featureIndex, classIndex, values.get(classIndex), variances[classIndex]);
+					}
+					else {
+						c.setGaussian(featureIndex, classIndex, means[classIndex], values.get(classIndex));
+					}
+				}
+			}
+			else if ("states".equals(field)) {
+				if (name == null) { throw new DataStructureException("Field \"name\" must come before \"states\""); }
+				int stateIndex = 0;
+				json.expect(Token.BEGIN_ARRAY);
+				while (json.peek() != Token.END_ARRAY) {
+					readState(json, c, name, featureIndex, stateIndex++, classCount);
+				}
+				json.next();
+			}
+			else {
+				json.skipValue();
+			}
+		}
+		json.next();
+		if (name == null) { throw new DataStructureException("Missing field (\"name\")"); }
+	}
+
+
+	/**
+	 * Reads a state object and adds it with its conditional probabilities to the classifier.
+	 */
+	private static void readState(JsonTokenizer json, NaiveBayesClassifier c, String featureName, int featureIndex, int stateIndex, int classCount) throws IOException, DataStructureException {
+		String label = null;
+		List<Double> conditionals = null;
+		json.expect(Token.BEGIN_OBJECT);
+		while (json.peek() != Token.END_OBJECT) {
+			String field = json.nextString();
+			if ("label".equals(field)) {
+				label = json.nextString();
+				c.addState(featureName, label);
+				if (conditionals != null) { setConditionals(c, featureIndex, stateIndex, classCount, conditionals); }
+			}
+			else if ("conditionalProbabilities".equals(field)) {
+				if (label == null) {
+					conditionals = readNumbers(json);
+				}
+				else {
+					// The common case: set the probabilities while reading them.
+					int classIndex = 0;
+					json.expect(Token.BEGIN_ARRAY);
+					while (json.peek() != Token.END_ARRAY) {
+						double p = json.nextDouble();
+						if (classIndex == classCount) { throw new DataStructureException("Too many conditional probabilities for " + featureName + "=" + label); }
+						c.setConditionalProbability(featureIndex, stateIndex, classIndex++, p);
+					}
+					json.next();
+					if (classIndex != classCount) { throw new DataStructureException("Expected " + classCount + " conditional probabilities for " + featureName + "=" + label + " (got " + classIndex + ")"); }
+				}
+			}
+			else {
+				json.skipValue();
+			}
+		}
+		json.next();
+		if (label == null) { throw new DataStructureException("Missing field (\"label\")"); }
+	}
+
+
+	private static void setConditionals(NaiveBayesClassifier c, int featureIndex, int stateIndex, int classCount, List<Double> conditionals) throws DataStructureException {
+		if (conditionals.size() != classCount) { throw new DataStructureException("Expected " + classCount + " conditional probabilities (got " + conditionals.size() + ")"); }
+		for (int classIndex = 0; classIndex < classCount; classIndex++) {
+			c.setConditionalProbability(featureIndex, stateIndex, classIndex, conditionals.get(classIndex));
+		}
+	}
+
+
+	private static List<Double> readNumbers(JsonTokenizer json) throws IOException {
+		ArrayList<Double> res = new ArrayList<Double>();
+		json.expect(Token.BEGIN_ARRAY);
+		while (json.peek() != Token.END_ARRAY) {
+			res.add(json.nextDouble());
+		}
+		json.next();
+		return res;
+	}
+
+
+	/**
+	 * Checks that all numbers of a model can be written as JSON numbers.
+	 */
+	private static void checkFinite(NaiveBayesData data) throws DataStructureException {
+		checkFinite("Prior probability", data.getPriorProbabilities());
+		for (FeatureData fd : data.getFeatures()) {
+			if (fd.isContinuous()) {
+				checkFinite("Mean of " + fd.getName(), fd.getMeans());
+				checkFinite("Variance of " + fd.getName(), fd.getVariances());
+				continue;
+			}
+			for (StateData sd : fd.getStates()) {
+				checkFinite("Conditional probability of " + fd.getName() + "=" + sd.getLabel(), sd.getConditionalProbabilities());
+			}
+		}
+	}
+
+
+	private static void checkFinite(String what, List<Double> numbers) throws DataStructureException {
+		for (int i = 0; i < numbers.size(); i++) {
+			double number = numbers.get(i);
+			if (Double.isNaN(number) || Double.isInfinite(number)) { throw new DataStructureException(what + " is not finite (" + number + " at index " + i + ")"); }
+		}
+	}
+
+
+	private static void writeNumbers(Writer writer, List<Double> numbers) throws IOException {
+		writer.write("[ ");
+		for (int i = 0; i < numbers.size(); i++) {
+			if (i > 0) { writer.write(", "); }
+			writer.write(Double.toString(numbers.get(i)));
+		}
+		writer.write(" ]");
+	}
+
+
+	static void writeString(Writer writer, String s) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			switch (ch) {
+			case '"': writer.write("\\\""); break;
+			case '\\': writer.write("\\\\"); break;
+			case '\n': writer.write("\\n"); break;
+			case '\r': writer.write("\\r"); break;
+			case '\t': writer.write("\\t"); break;
+			default:
+				if (ch < 0x20) {
+					writer.write(String.format("\\u%04x", (int) ch));
+				}
+				else {
+					writer.write(ch);
+				}
+			}
+		}
+		writer.write('"');
+	}
+}
@@ -0,0 +1,623 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>Learns prior and conditional probabilities from labelled observations.</p>
+ *
+ * <p>The trainer counts how often each class label is seen, and how often each
+ * state of each feature is observed together with each class label. Class labels,
+ * features and states are added as they appear in the observations, so no structure
+ * has to be set up in advance. Observations can be added one at a time or in
+ * batches, and the smoothed probabilities can be published into a
+ * {@link NaiveBayesClassifier} at any time, after which training may simply
+ * continue.</p>
+ *
+ * <p>Probabilities are estimated with Laplace (additive) smoothing:</p>
+ *
+ * <pre>
+  P(label)               = (count(label) + a) / (observations + a * labels)
+  P(state | label)       = (count(state, label) + a) / (count(feature, label) + a * states)
+ * </pre>
+ *
+ * <p>where <code>count(feature, label)</code> is the number of observations of the
+ * label where the feature was observed at all, and <code>a</code> is the smoothing
+ * (1.0 by default).</p>
+ *
+ * <p>For multinomial features, trained with {@link #train(String, Evidence)}, each
+ * token is counted as many times as it occurs, so the same estimate gives the
+ * smoothed probability of drawing the token from the documents of a label.</p>
+ *
+ * <p>For continuous features, the mean and variance of the measurements are kept
+ * per label, updated one measurement at a time with Welford's algorithm, which
+ * stays accurate where summing squares would cancel. The published variance is the
+ * population variance plus the variance smoothing (1e-9 by default), so a label
+ * seen with a single value still gets a valid distribution. Labels never seen with
+ * the feature get the distribution of all measurements of the feature.</p>
+ *
+ * <h2>Example</h2>
+ *
+ * <pre>
+NaiveBayesTrainer t = new NaiveBayesTrainer();
+
+HashMap&lt;String, String&gt; observations = new HashMap&lt;String, String&gt;();
+observations.put("Fever", "yes");
+observations.put("Red spots", "no");
+t.train("Flu", observations);
+...
+NaiveBayesClassifier c = t.toClassifier();
+ * </pre>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class NaiveBayesTrainer {
+	/**
+	 * Parallel training does not split the observations into slices of fewer rows than this.
+	 */
+	public static final int TRAINING_SPLIT_SIZE = 4096;
+
+	private double smoothing = 1d;
+	private double varianceSmoothing = 1e-9d;
+
+	private final ArrayList<String> classLabels = new ArrayList<String>();
+	private final HashMap<String, Integer> labelIndexes = new HashMap<String, Integer>();
+	private long[] classCounts = new long[4];
+	private long observationCount;
+
+	private final ArrayList<FeatureCounts> features = new ArrayList<FeatureCounts>();
+	private final HashMap<String, Integer> featureIndexes = new HashMap<String, Integer>();
+
+
+	/**
+	 * Set the Laplace smoothing added to every count. Zero gives the plain
+	 * maximum likelihood estimates, where states never seen with a class
+	 * label get a conditional probability of zero.
+	 *
+	 * @param smoothing The pseudo count added to every count (1.0 by default).
+	 * @throws DataStructureException If the smoothing is negative, infinite or NaN.
+	 */
+	public void setSmoothing(double smoothing) throws DataStructureException {
+		if (!(smoothing >= 0) || Double.isInfinite(smoothing)) { throw new DataStructureException("Expected a finite smoothing of at least 0 (got " + smoothing + ")"); }
+
+		this.smoothing = smoothing;
+	}
+
+
+	/**
+	 * Returns the Laplace smoothing.
+	 *
+	 * @return The pseudo count added to every count.
+	 */
+	public double getSmoothing() {
+		return smoothing;
+	}
+
+
+	/**
+	 * Set the variance added to the estimated variance of every continuous feature.
+	 *
+	 * @param varianceSmoothing The variance added (1e-9 by default).
+	 * @throws DataStructureException If the variance is not positive, is infinite or is NaN.
+	 */
+	public void setVarianceSmoothing(double varianceSmoothing) throws DataStructureException {
+		if (!(varianceSmoothing > 0) || Double.isInfinite(varianceSmoothing)) { throw new DataStructureException("Expected a finite variance smoothing above 0 (got " + varianceSmoothing + ")"); }
+
+		this.varianceSmoothing = varianceSmoothing;
+	}
+
+
+	/**
+	 * Returns the variance smoothing.
+	 *
+	 * @return The variance added to the estimated variance of every continuous feature.
+	 */
+	public double getVarianceSmoothing() {
+		return varianceSmoothing;
+	}
+
+
+	/**
+	 * Returns the number of observations trained so far.
+	 *
+	 * @return The number of observations.
+	 */
+	public long getObservationCount() {
+		return observationCount;
+	}
+
+
+	/**
+	 * Counts one labelled observation.
+	 *
+	 * @param classLabel The class label of the observation.
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @throws DataStructureException If a feature was trained as continuous, in which case nothing is counted.
+	 */
+	public void train(String classLabel, Map<String, String> observations) throws DataStructureException {
+		checkStates(observations);
+		count(classLabel, observations);
+	}
+
+
+	/**
+	 * Counts one labelled observation whose features are known not to be continuous.
+	 */
+	private void count(String classLabel, Map<String, String> observations) {
+		int classIndex = labelIndex(classLabel);
+		classCounts[classIndex]++;
+		observationCount++;
+
+		for (Map.Entry<String, String> observation : observations.entrySet()) {
+			featureCounts(observation.getKey()).count(observation.getValue(), classIndex, 1);
+		}
+	}
+
+
+	/**
+	 * Counts one labelled observation which may include token counts of
+	 * multinomial features and measurements of continuous features. Features
+	 * first seen with token counts become multinomial features, and features
+	 * first seen with measurements become continuous features.
+	 *
+	 * @param classLabel The class label of the observation.
+	 * @param evidence The observed states, token counts and measurements.
+	 * @throws DataStructureException If a feature is observed as another type than before.
+	 */
+	public void train(String classLabel, Evidence evidence) throws DataStructureException {
+		for (String featureName : evidence.getStates().keySet()) {
+			checkType(featureName, false, false);
+		}
+		for (String featureName : evidence.getTokenCounts().keySet()) {
+			checkType(featureName, true, false);
+		}
+		for (Map.Entry<String, Double> measurement : evidence.getMeasurements().entrySet()) {
+			checkType(measurement.getKey(), false, true);
+			if (Double.isNaN(measurement.getValue()) || Double.isInfinite(measurement.getValue())) { throw new DataStructureException("Measurement of " + measurement.getKey() + " is not finite (" + measurement.getValue() + ")"); }
+		}
+
+		count(classLabel, evidence.getStates());
+		int classIndex = labelIndexes.get(classLabel);
+		for (Map.Entry<String, ? extends Map<String, Integer>> feature : evidence.getTokenCounts().entrySet()) {
+			FeatureCounts counts = featureCounts(feature.getKey());
+			counts.multinomial = true;
+			for (Map.Entry<String, Integer> token : feature.getValue().entrySet()) {
+				counts.count(token.getKey(), classIndex, token.getValue());
+			}
+		}
+		for (Map.Entry<String, Double> measurement : evidence.getMeasurements().entrySet()) {
+			FeatureCounts counts = featureCounts(measurement.getKey());
+			counts.continuous = true;
+			counts.measure(classIndex, measurement.getValue());
+		}
+	}
+
+
+	/**
+	 * Counts a batch of labelled observations.
+	 *
+	 * @param classLabels The class label of each observation.
+	 * @param observations One map of feature (key) and state (value) pairs per observation.
+	 * @throws DataStructureException If the lists are not of the same size, or a feature was
+	 *                                trained as continuous, in which case nothing is counted.
+	 */
+	public void train(List<String> classLabels, List<? extends Map<String, String>> observations) throws DataStructureException {
+		if (classLabels.size() != observations.size()) { throw new DataStructureException("Expected " + observations.size() + " class labels (got " + classLabels.size() + ")"); }
+		checkStates(observations);
+
+		Iterator<String> labels = classLabels.iterator();
+		for (Map<String, String> row : observations) {
+			count(labels.next(), row);
+		}
+	}
+
+
+	/**
+	 * Counts a batch of labelled observations using all cores of the common
+	 * {@link ForkJoinPool}. See {@link #trainParallel(List, List, ForkJoinPool)}.
+	 *
+	 * @param classLabels The class label of each observation.
+	 * @param observations One map of feature (key) and state (value) pairs per observation.
+	 * @throws DataStructureException If the lists are not of the same size, or a feature was
+	 *                                trained as continuous, in which case nothing is counted.
+	 */
+	public void trainParallel(List<String> classLabels, List<? extends Map<String, String>> observations) throws DataStructureException {
+		trainParallel(classLabels, observations, ForkJoinPool.commonPool());
+	}
+
+
+	/**
+	 * Counts a batch of labelled observations in parallel. The batch is split into
+	 * about four slices per worker of the pool, but not below
+	 * {@link #TRAINING_SPLIT_SIZE} rows. Each slice is counted by a separate
+	 * trainer, and the partial counts are merged into this trainer, so there are
+	 * only a few partial tables however large the batch. Lists without fast
+	 * random access (e.g. LinkedList) are copied first. The lists must not be
+	 * changed while training.
+	 *
+	 * @param classLabels The class label of each observation.
+	 * @param observations One map of feature (key) and state (value) pairs per observation.
+	 * @param pool The pool to split the batch across.
+	 * @throws DataStructureException If the lists are not of the same size, or a feature was
+	 *                                trained as continuous, in which case nothing is counted.
+	 */
+	public void trainParallel(List<String> classLabels, List<? extends Map<String, String>> observations, ForkJoinPool pool) throws DataStructureException {
+		if (classLabels.size() != observations.size()) { throw new DataStructureException("Expected " + observations.size() + " class labels (got " + classLabels.size() + ")"); }
+		checkStates(observations);
+
+		if (!(classLabels instanceof RandomAccess)) { classLabels = new ArrayList<String>(classLabels); }
+		if (!(observations instanceof RandomAccess)) { observations = new ArrayList<Map<String, String>>(observations); }
+		int sliceSize = Math.max(TRAINING_SPLIT_SIZE, (int) Math.min(Integer.MAX_VALUE, (observations.size() + 4L * pool.getParallelism() - 1) / (4L * pool.getParallelism())));
+
+		merge(pool.invoke(new TrainingTask(classLabels, observations, 0, observations.size(), sliceSize)));
+	}
+
+
+	/**
+	 * Adds the counts of another trainer to this one, matching class labels,
+	 * features and states by name. The other trainer is not changed.
+	 *
+	 * @param other The trainer to add counts from.
+	 */
+	public void merge(NaiveBayesTrainer other) {
+		int[] classIndexes = new int[other.classLabels.size()];
+		for (int i = 0; i < classIndexes.length; i++) {
+			classIndexes[i] = labelIndex(other.classLabels.get(i));
+			classCounts[classIndexes[i]] += other.classCounts[i];
+		}
+		observationCount += other.observationCount;
+
+		for (FeatureCounts otherFeature : other.features) {
+			FeatureCounts feature = featureCounts(otherFeature.name);
+			feature.multinomial |= otherFeature.multinomial;
+			feature.continuous |= otherFeature.continuous;
+			for (int i = 0; i < otherFeature.measurementCounts.length && i < classIndexes.length; i++) {
+				if (otherFeature.measurementCounts[i] != 0) { feature.combine(classIndexes[i], otherFeature.measurementCounts[i], otherFeature.means[i], otherFeature.squaredDeviations[i]); }
+			}
+			for (int stateIndex = 0; stateIndex < otherFeature.stateLabels.size(); stateIndex++) {
+				String stateLabel = otherFeature.stateLabels.get(stateIndex);
+				long[] stateCounts = otherFeature.counts[stateIndex];
+				for (int i = 0; i < stateCounts.length && i < classIndexes.length; i++) {
+					if (stateCounts[i] != 0) { feature.count(stateLabel, classIndexes[i], stateCounts[i]); }
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Creates a new classifier with the structure seen so far and the
+	 * smoothed probabilities.
+	 *
+	 * @return A new classifier.
+	 * @throws DataStructureException
+	 */
+	public NaiveBayesClassifier toClassifier() throws DataStructureException {
+		NaiveBayesClassifier classifier = new NaiveBayesClassifier();
+		publish(classifier);
+		return classifier;
+	}
+
+
+	/**
+	 * Sets the prior and conditional probabilities of the given classifier to the
+	 * smoothed probabilities. Class labels, features and states seen by the trainer
+	 * are added to the classifier if missing. Class labels, features and states
+	 * only known by the classifier are treated as never observed.
+	 *
+	 * @param classifier The classifier to publish to.
+	 * @throws DataStructureException
+	 */
+	public void publish(NaiveBayesClassifier classifier) throws DataStructureException {
+		// Add missing structure:
+		HashSet<String> existing = new HashSet<String>(Arrays.asList(classifier.getClassLabels()));
+		for (String classLabel : classLabels) {
+			if (!existing.contains(classLabel)) { classifier.addClassLabel(classLabel); }
+		}
+		existing = new HashSet<String>(Arrays.asList(classifier.getFeatures()));
+		for (FeatureCounts feature : features) {
+			if (!existing.contains(feature.name)) {
+				if (feature.multinomial) { classifier.addMultinomialFeature(feature.name); }
+				else if (feature.continuous) { classifier.addContinuousFeature(feature.name); }
+				else { classifier.addFeature(feature.name); }
+			}
+
+			HashSet<String> existingStates = new HashSet<String>(Arrays.asList(classifier.getStates(feature.name)));
+			for (String stateLabel : feature.stateLabels) {
+				if (!existingStates.contains(stateLabel)) { classifier.addState(feature.name, stateLabel); }
+			}
+		}
+
+		// Publish priors:
+		String[] labels = classifier.getClassLabels();
+		long[] counts = new long[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			Integer classIndex = labelIndexes.get(labels[i]);
+			counts[i] = classIndex == null ? 0 : classCounts[classIndex];
+		}
+		double[] probabilities = smooth(counts, observationCount);
+		for (int i = 0; i < labels.length; i++) {
+			classifier.setPriorProbability(labels[i], probabilities[i]);
+		}
+
+		// Publish conditionals:
+		for (String featureName : classifier.getFeatures()) {
+			Integer featureIndex = featureIndexes.get(featureName);
+			FeatureCounts feature = featureIndex == null ? null : features.get(featureIndex);
+			if (classifier.isContinuous(featureName)) {
+				publishGaussians(classifier, featureName, feature);
+				continue;
+			}
+			String[] states = classifier.getStates(featureName);
+			counts = new long[states.length];
+
+			for (String classLabel : labels) {
+				Integer classIndex = labelIndexes.get(classLabel);
+				long total = 0;
+				for (int i = 0; i < states.length; i++) {
+					counts[i] = feature == null || classIndex == null ? 0 : feature.count(states[i], classIndex);
+					total += counts[i];
+				}
+				probabilities = smooth(counts, total);
+				for (int i = 0; i < states.length; i++) {
+					classifier.setConditionalProbability(featureName, states[i], classLabel, probabilities[i]);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Sets the mean and smoothed variance of a continuous feature per class label.
+	 */
+	private void publishGaussians(NaiveBayesClassifier classifier, String featureName, FeatureCounts feature) throws DataStructureException {
+		// The distribution of all measurements, for labels without any:
+		FeatureCounts pooled = new FeatureCounts(featureName);
+		if (feature != null) {
+			for (int classIndex = 0; classIndex < feature.measurementCounts.length; classIndex++) {
+				if (feature.measurementCounts[classIndex] != 0) { pooled.combine(0, feature.measurementCounts[classIndex], feature.means[classIndex], feature.squaredDeviations[classIndex]); }
+			}
+		}
+
+		for (String classLabel : classifier.getClassLabels()) {
+			Integer classIndex = labelIndexes.get(classLabel);
+			FeatureCounts source = feature;
+			if (feature == null || classIndex == null || classIndex >= feature.measurementCounts.length || feature.measurementCounts[classIndex] == 0) {
+				source = pooled;
+				classIndex = 0;
+			}
+
+			if (source.measurementCounts.length == 0 || source.measurementCounts[classIndex] == 0) {
+				classifier.setGaussian(featureName, classLabel, 0d, 1d);
+			}
+			else {
+				long n = source.measurementCounts[classIndex];
+				classifier.setGaussian(featureName, classLabel, source.means[classIndex], source.squaredDeviations[classIndex] / n + varianceSmoothing);
+			}
+		}
+	}
+
+
+	/**
+	 * Checks that a feature, if seen before, was seen as the same type.
+	 */
+	private void checkType(String featureName, boolean multinomial, boolean continuous) throws DataStructureException {
+		Integer featureIndex = featureIndexes.get(featureName);
+		if (featureIndex == null) { return; }
+
+		FeatureCounts feature = features.get(featureIndex);
+		if (feature.multinomial != multinomial || feature.continuous != continuous) {
+			throw new DataStructureException("Feature was trained as another type (\"" + featureName + "\")");
+		}
+	}
+
+
+	/**
+	 * Checks that no observed feature was trained as continuous, since its states
+	 * could not be published.
+	 */
+	private void checkStates(Map<String, String> observations) throws DataStructureException {
+		for (String featureName : observations.keySet()) {
+			Integer featureIndex = featureIndexes.get(featureName);
+			if (featureIndex != null && features.get(featureIndex).continuous) {
+				throw new DataStructureException("Feature is continuous and cannot be trained with a state (\"" + featureName + "\")");
+			}
+		}
+	}
+
+
+	/**
+	 * Checks the states of a batch, skipping the pass if there are no continuous features.
+	 */
+	private void checkStates(List<? extends Map<String, String>> observations) throws DataStructureException {
+		boolean continuous = false;
+		for (FeatureCounts feature : features) {
+			continuous |= feature.continuous;
+		}
+		if (!continuous) { return; }
+
+		for (Map<String, String> row : observations) {
+			checkStates(row);
+		}
+	}
+
+
+	/**
+	 * Turns counts into smoothed probabilities. If there is nothing to estimate
+	 * from, i.e. no counts and no smoothing, the distribution is uniform.
+	 */
+	private double[] smooth(long[] counts, long total) {
+		double[] res = new double[counts.length];
+		double denominator = total + smoothing * counts.length;
+		for (int i = 0; i < counts.length; i++) {
+			res[i] = denominator > 0 ? (counts[i] + smoothing) / denominator : 1d / counts.length;
+		}
+		return res;
+	}
+
+
+	/**
+	 * Finds the index of a class label, adding it if it is new.
+	 */
+	private int labelIndex(String classLabel) {
+		Integer i = labelIndexes.get(classLabel);
+		if (i != null) { return i; }
+
+		int classIndex = classLabels.size();
+		classLabels.add(classLabel);
+		labelIndexes.put(classLabel, classIndex);
+		if (classIndex == classCounts.length) {
+			classCounts = Arrays.copyOf(classCounts, classIndex * 2);
+		}
+		return classIndex;
+	}
+
+
+	/**
+	 * Finds the counts of a feature, adding it if it is new.
+	 */
+	private FeatureCounts featureCounts(String featureName) {
+		Integer i = featureIndexes.get(featureName);
+		if (i != null) { return features.get(i); }
+
+		FeatureCounts feature = new FeatureCounts(featureName);
+		featureIndexes.put(featureName, features.size());
+		features.add(feature);
+		return feature;
+	}
+
+
+	/**
+	 * Counts a slice of a batch into a trainer of its own, splitting it in
+	 * halves until the slices are at most the slice size, and merges the
+	 * partial trainers on the way back. The lists support fast random access.
+	 */
+	private static class TrainingTask extends RecursiveTask<NaiveBayesTrainer> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> classLabels;
+		private final List<? extends Map<String, String>> observations;
+		private final int from;
+		private final int to;
+		private final int sliceSize;
+
+		TrainingTask(List<String> classLabels, List<? extends Map<String, String>> observations, int from, int to, int sliceSize) {
+			this.classLabels = classLabels;
+			this.observations = observations;
+			this.from = from;
+			this.to = to;
+			this.sliceSize = sliceSize;
+		}
+
+		@Override
+		protected NaiveBayesTrainer compute() {
+			if (to - from > sliceSize) {
+				int middle = (from + to) >>> 1;
+				TrainingTask second = new TrainingTask(classLabels, observations, middle, to, sliceSize);
+				second.fork();
+				NaiveBayesTrainer res = new TrainingTask(classLabels, observations, from, middle, sliceSize).compute();
+				res.merge(second.join());
+				return res;
+			}
+
+			NaiveBayesTrainer res = new NaiveBayesTrainer();
+			for (int i = from; i < to; i++) {
+				res.count(classLabels.get(i), observations.get(i));
+			}
+			return res;
+		}
+	}
+
+
+	/**
+	 * The counts of one feature per state and class label, or, for a continuous
+	 * feature, the number, mean and sum of squared deviations of the measurements
+	 * per class label. The class dimension grows as new class labels are seen.
+	 */
+	private static class FeatureCounts {
+		private final String name;
+		private boolean multinomial;
+		private final ArrayList<String> stateLabels = new ArrayList<String>();
+		private final HashMap<String, Integer> stateIndexes = new HashMap<String, Integer>();
+		private long[][] counts = new long[2][];
+		private boolean continuous;
+		private long[] measurementCounts = new long[0];
+		private double[] means = new double[0];
+		private double[] squaredDeviations = new double[0];
+
+		FeatureCounts(String name) {
+			this.name = name;
+		}
+
+		void count(String stateLabel, int classIndex, long n) {
+			int stateIndex = stateIndex(stateLabel);
+			if (classIndex >= counts[stateIndex].length) {
+				counts[stateIndex] = Arrays.copyOf(counts[stateIndex], Math.max(classIndex + 1, counts[stateIndex].length * 2));
+			}
+			counts[stateIndex][classIndex] += n;
+		}
+
+		/**
+		 * Adds a measurement with Welford's algorithm.
+		 */
+		void measure(int classIndex, double x) {
+			ensureMeasurements(classIndex);
+			long n = ++measurementCounts[classIndex];
+			double delta = x - means[classIndex];
+			means[classIndex] += delta / n;
+			squaredDeviations[classIndex] += delta * (x - means[classIndex]);
+		}
+
+		/**
+		 * Adds the statistics of other measurements (Chan et al.).
+		 */
+		void combine(int classIndex, long n, double mean, double squaredDeviation) {
+			ensureMeasurements(classIndex);
+			long total = measurementCounts[classIndex] + n;
+			double delta = mean - means[classIndex];
+			squaredDeviations[classIndex] += squaredDeviation + delta * delta * measurementCounts[classIndex] * n / total;
+			means[classIndex] += delta * n / total;
+			measurementCounts[classIndex] = total;
+		}
+
+		private void ensureMeasurements(int classIndex) {
+			if (classIndex >= measurementCounts.length) {
+				int length = Math.max(classIndex + 1, measurementCounts.length * 2);
+				measurementCounts = Arrays.copyOf(measurementCounts, length);
+				means = Arrays.copyOf(means, length);
+				squaredDeviations = Arrays.copyOf(squaredDeviations, length);
+			}
+		}
+
+		long count(String stateLabel, int classIndex) {
+			Integer stateIndex = stateIndexes.get(stateLabel);
+			if (stateIndex == null) { return 0; }
+
+			long[] stateCounts = counts[stateIndex];
+			return classIndex < stateCounts.length ? stateCounts[classIndex] : 0;
+		}
+
+		private int stateIndex(String stateLabel) {
+			Integer i = stateIndexes.get(stateLabel);
+			if (i != null) { return i; }
+
+			int stateIndex = stateLabels.size();
+			stateLabels.add(stateLabel);
+			stateIndexes.put(stateLabel, stateIndex);
+			if (stateIndex == counts.length) {
+				counts = Arrays.copyOf(counts, stateIndex * 2);
+			}
+			counts[stateIndex] = new long[4];
+			return stateIndex;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package moltsen.AI.NaiveBayes;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * <p>Measures how far the posteriors of a {@link QuantizedClassifier} are from the
+ * exact ones on a set of samples, to decide whether a precision is good enough for
+ * a model. The exact posteriors are those of
+ * {@link CompiledClassifier#classifyLogSpace(int[])}, which equal
+ * {@link NaiveBayesClassifier#classify(java.util.Map)} up to rounding and do not
+ * underflow.</p>
+ *
+ * <p>From the command line, a JSON model is measured at every precision on samples
+ * drawn from the model itself:</p>
+ *
+ * <pre>
+java -cp NaiveBayes.jar moltsen.AI.NaiveBayes.QuantizationReport model.json [sampleCount [seed]]
+ * </pre>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class QuantizationReport {
+	private final QuantizedClassifier.Precision precision;
+	private final long exactTableBytes;
+	private final long tableBytes;
+	private final double maxLogError;
+	private final int sampleCount;
+	private final double maxDeviation;
+	private final double meanDeviation;
+
+
+	private QuantizationReport(QuantizedClassifier.Precision precision, long exactTableBytes, long tableBytes, double maxLogError, int sampleCount, double maxDeviation, double meanDeviation) {
+		this.precision = precision;
+		this.exactTableBytes = exactTableBytes;
+		this.tableBytes = tableBytes;
+		this.maxLogError = maxLogError;
+		this.sampleCount = sampleCount;
+		this.maxDeviation = maxDeviation;
+		this.meanDeviation = meanDeviation;
+	}
+
+
+	/**
+	 * Classifies each sample both exactly and quantized, and records the largest
+	 * and the mean absolute difference between the posterior probabilities.
+	 * Samples where every class label is impossible are skipped.
+	 *
+	 * @param exact The classifier the quantized one was made from.
+	 * @param quantized The quantized classifier.
+	 * @param samples State index vectors, see {@link CompiledClassifier#encode(java.util.Map)}.
+	 * @return The report.
+	 * @throws DataStructureException If a sample does not match the features, or the classifiers do not match each other.
+	 */
+	public static QuantizationReport measure(CompiledClassifier exact, QuantizedClassifier quantized, int[][] samples) throws DataStructureException {
+		int classCount = exact.getClassLabels().length;
+		if (quantized.getClassLabels().length != classCount || quantized.getFeatures().length != exact.getFeatures().length) { throw new DataStructureException("The classifiers do not have the same structure"); }
+
+		double[] expected = new double[classCount];
+		double[] actual = new double[classCount];
+		double max = 0;
+		double sum = 0;
+		int count = 0;
+		for (int[] sample : samples) {
+			exact.classifyLogSpace(sample, expected);
+			quantized.classify(sample, actual);
+			if (Double.isNaN(expected[0])) { continue; }
+
+			for (int classIndex = 0; classIndex < classCount; classIndex++) {
+				double deviation = Math.abs(actual[classIndex] - expected[classIndex]);
+				max = Math.max(max, deviation);
+				sum += deviation;
+			}
+			count++;
+		}
+		long exactBytes = 16L * exact.getLogConditionalProbabilities().length;
+		return new QuantizationReport(quantized.getPrecision(), exactBytes, quantized.getTableBytes(), quantized.getMaxLogError(), count, max, count == 0 ? 0 : sum / ((double) count * classCount));
+	}
+
+
+	/**
+	 * Draws samples from the model: a class label by the priors, then a state of
+	 * every categorical feature by its conditional probabilities given the class.
+	 * Continuous features are left unobserved.
+	 *
+	 * @param classifier The model to sample from.
+	 * @param count The number of samples.
+	 * @param random The source of randomness.
+	 * @return State index vectors.
+	 */
+	public static int[][] sample(CompiledClassifier classifier, int count, Random random) {
+		double[] logPriors = classifier.getLogPriorProbabilities();
+		double[] logConditionals = classifier.getLogConditionalProbabilities();
+		int featureCount = classifier.getFeatures().length;
+		int[][] samples = new int[count][featureCount];
+
+		for (int[] sample : samples) {
+			int classIndex = draw(logPriors.length, random.nextDouble(), logPriors, 0, 1);
+			for (int featureIndex = 0; featureIndex < featureCount; featureIndex++) {
+				int stateCount = classifier.getStateCount(featureIndex);
+				sample[featureIndex] = classifier.isContinuous(featureIndex) || stateCount == 0 ? -1
+						: draw(stateCount, random.nextDouble(), logConditionals, classifier.rowOf(featureIndex, 0) + classIndex, logPriors.length);
+			}
+		}
+		return samples;
+	}
+
+
+	/**
+	 * Picks one of n outcomes whose log-probabilities are found from an offset
+	 * with a stride. Since the probabilities may not sum exactly to one, the
+	 * last outcome takes what is left.
+	 */
+	private static int draw(int n, double u, double[] logProbabilities, int offset, int stride) {
+		for (int i = 0; i < n - 1; i++) {
+			u -= Math.exp(logProbabilities[offset + i * stride]);
+			if (u < 0) { return i; }
+		}
+		return n - 1;
+	}
+
+
+	/**
+	 * Returns the precision measured.
+	 *
+	 * @return The precision of the quantized classifier.
+	 */
+	public QuantizedClassifier.Precision getPrecision() {
+		return precision;
+	}
+
+
+	/**
+	 * Returns the size of the tables of the compiled classifier (probabilities and their logarithms).
+	 *
+	 * @return The number of bytes.
+	 */
+	public long getExactTableBytes() {
+		return exactTableBytes;
+	}
+
+
+	/**
+	 * Returns the size of the quantized table.
+	 *
+	 * @return The number of bytes.
+	 */
+	public long getTableBytes() {
+		return tableBytes;
+	}
+
+
+	/**
+	 * Returns the largest error of a stored logarithm, see {@link QuantizedClassifier#getMaxLogError()}.
+	 *
+	 * @return The largest absolute error of the table in log-space.
+	 */
+	public double getMaxLogError() {
+		return maxLogError;
+	}
+
+
+	/**
+	 * Returns the number of samples compared.
+	 *
+	 * @return The number of samples, without those skipped.
+	 */
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+
+	/**
+	 * Returns the largest difference between a quantized and an exact posterior probability.
+	 *
+	 * @return The largest absolute deviation.
+	 */
+	public double getMaxDeviation() {
+		return maxDeviation;
+	}
+
+
+	/**
+	 * Returns the mean difference between the quantized and the exact posterior probabilities.
+	 *
+	 * @return The mean absolute deviation over all samples and class labels.
+	 */
+	public double getMeanDeviation() {
+		return meanDeviation;
+	}
+
+
+	@Override
+	public String toString() {
+		return precision + ": " + tableBytes + " of " + exactTableBytes + " table bytes, max log error " + maxLogError
+				+ ", max posterior deviation " + maxDeviation + ", mean " + meanDeviation + " (" + sampleCount + " samples)";
+	}
+
+
+	/**
+	 * Reports every precision for a JSON model on samples drawn from it.
+	 *
+	 * @param args The model file, optionally followed by the number of samples (default 10000) and a seed.
+	 * @throws IOException If the model cannot be read.
+	 * @throws DataStructureException If the model is not valid.
+	 */
+	public static void main(String[] args) throws IOException, DataStructureException {
+		if (args.length < 1 || args.length > 3) {
+			System.err.println("Usage: QuantizationReport model.json [sampleCount [seed]]");
+			System.exit(2);
+		}
+		int sampleCount = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		Random random = args.length > 2 ? new Random(Long.parseLong(args[2])) : new Random();
+
+		NaiveBayesClassifier c;
+		InputStream in = new FileInputStream(args[0]);
+		try {
+			c = NaiveBayesJson.read(in);
+		}
+		finally {
+			in.close();
+		}
+		c.validate();
+
+		CompiledClassifier compiled = c.compile();
+		int[][] samples = sample(compiled, sampleCount, random);
+		for (QuantizedClassifier.Precision precision : QuantizedClassifier.Precision.values()) {
+			System.out.println(measure(compiled, compiled.quantize(precision), samples));
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A compiled classifier with its conditional table stored in less precision,
+ * for models too large to keep in doubles. Create one with
+ * {@link CompiledClassifier#quantize(Precision)}.</p>
+ *
+ * <p>The table holds the logarithms of the conditional probabilities, either as
+ * floats (4 bytes per cell) or as 16-bit fixed-point numbers (2 bytes per cell),
+ * instead of the 16 bytes per cell a compiled classifier keeps for its
+ * probabilities and their logarithms. Classification is done in log-space, like
+ * {@link CompiledClassifier#classifyLogSpace(int[])}, with the priors kept as
+ * doubles. A quantized classifier shares the names and indexes of the compiled
+ * classifier it was made from, but not its tables, so those can be garbage
+ * collected once the compiled classifier is no longer used. Note that a
+ * {@link NaiveBayesClassifier} keeps its compiled snapshot until it is changed;
+ * use {@link NaiveBayesClassifier#quantize(Precision)} to quantize without
+ * keeping it.</p>
+ *
+ * <p>The error of a stored logarithm is at most {@link #getMaxLogError()}. With n
+ * observed features, the log-score of each class label is off by at most n times
+ * that, so each posterior probability is within a factor of
+ * <code>exp(&plusmn;2 n getMaxLogError())</code> of the exact one. Use
+ * {@link QuantizationReport} to measure the actual deviation on samples.</p>
+ *
+ * <p>Only categorical (and multinomial, one token per feature) observations are
+ * classified. Continuous features have no rows in the table and cannot be observed.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class QuantizedClassifier {
+	/**
+	 * How the logarithms of the conditional probabilities are stored.
+	 */
+	public enum Precision {
+		/**
+		 * As 32-bit floats, with about 7 significant digits.
+		 */
+		FLOAT,
+
+		/**
+		 * As 16-bit steps between the largest and the smallest finite logarithm
+		 * of the table. Probabilities of zero are kept exact.
+		 */
+		LOG16
+	}
+
+	// The 16-bit code of a probability of zero:
+	private static final char ZERO = 0xFFFF;
+
+	private final Precision precision;
+	private final String[] classLabels;
+	private final String[] featureNames;
+	private final HashMap<String, Integer> featureIndexes;
+	private final HashMap<String, Integer>[] stateIndexes;
+	private final int[] stateOffsets;
+	private final double[] logPriorProbabilities;
+
+	// One of these holds the table, row (feature, state) starting at (stateOffsets[feature] + state) * classCount.
+	// A 16-bit code c stands for the logarithm logOffset + c * logStep:
+	private final float[] floatTable;
+	private final char[] codeTable;
+	private final double logOffset;
+	private final double logStep;
+	private final double maxLogError;
+
+
+	/**
+	 * Quantizes the conditional table of a compiled classifier.
+	 *
+	 * @param compiled The classifier to quantize.
+	 * @param precision How to store the table.
+	 */
+	QuantizedClassifier(CompiledClassifier compiled, Precision precision) {
+		this.precision = precision;
+		classLabels = compiled.getClassLabels();
+		featureNames = compiled.getFeatures();
+		featureIndexes = compiled.getFeatureIndexes();
+		stateIndexes = compiled.getStateIndexes();
+		stateOffsets = compiled.getStateOffsets();
+		logPriorProbabilities = compiled.getLogPriorProbabilities().clone();
+
+		double[] logConditionals = compiled.getLogConditionalProbabilities();
+		double error = 0;
+		if (precision == Precision.FLOAT) {
+			floatTable = new float[logConditionals.length];
+			codeTable = null;
+			logOffset = 0;
+			logStep = 0;
+			for (int i = 0; i < logConditionals.length; i++) {
+				floatTable[i] = (float) logConditionals[i];
+				if (logConditionals[i] != Double.NEGATIVE_INFINITY) {
+					error = Math.max(error, Math.abs(floatTable[i] - logConditionals[i]));
+				}
+			}
+		}
+		else {
+			// The codes 0 to 0xFFFE span the finite logarithms, from the largest down to the smallest:
+			double max = Double.NEGATIVE_INFINITY;
+			double min = Double.POSITIVE_INFINITY;
+			for (double logConditional : logConditionals) {
+				if (logConditional == Double.NEGATIVE_INFINITY) { continue; }
+				max = Math.max(max, logConditional);
+				min = Math.min(min, logConditional);
+			}
+			floatTable = null;
+			codeTable = new char[logConditionals.length];
+			logOffset = max == Double.NEGATIVE_INFINITY ? 0 : max;
+			logStep = max == Double.NEGATIVE_INFINITY ? 0 : (min - max) / (ZERO - 1);
+			for (int i = 0; i < logConditionals.length; i++) {
+				if (logConditionals[i] == Double.NEGATIVE_INFINITY) {
+					codeTable[i] = ZERO;
+					continue;
+				}
+				codeTable[i] = logStep == 0 ? 0 : (char) Math.min(ZERO - 1, Math.round((logConditionals[i] - logOffset) / logStep));
+				error = Math.max(error, Math.abs(decode(codeTable[i]) - logConditionals[i]));
+			}
+		}
+		maxLogError = error;
+	}
+
+
+	/**
+	 * Returns how the table is stored.
+	 *
+	 * @return The precision.
+	 */
+	public Precision getPrecision() {
+		return precision;
+	}
+
+
+	/**
+	 * Returns all class labels.
+	 *
+	 * @return Class labels as an array of String.
+	 */
+	public String[] getClassLabels() {
+		return classLabels.clone();
+	}
+
+
+	/**
+	 * Returns all features.
+	 *
+	 * @return Features as an array of String.
+	 */
+	public String[] getFeatures() {
+		return featureNames.clone();
+	}
+
+
+	/**
+	 * Returns the largest difference between a stored logarithm of a conditional
+	 * probability and the exact one. Probabilities of zero are exact.
+	 *
+	 * @return The largest absolute error of the table in log-space.
+	 */
+	public double getMaxLogError() {
+		return maxLogError;
+	}
+
+
+	/**
+	 * Returns the size of the conditional table.
+	 *
+	 * @return The number of bytes of the table, without the array header.
+	 */
+	public long getTableBytes() {
+		return floatTable != null ? 4L * floatTable.length : 2L * codeTable.length;
+	}
+
+
+	/**
+	 * Converts observations given by name to a state index vector.
+	 *
+	 * @param observations A map of feature (key) and state (value) pairs.
+	 * @return A state index vector with -1 for features that were not observed.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 */
+	public int[] encode(Map<String, String> observations) throws DataStructureException {
+		int[] states = new int[featureNames.length];
+		Arrays.fill(states, -1);
+		for (Map.Entry<String, String> observation : observations.entrySet()) {
+			Integer featureIndex = featureIndexes.get(observation.getKey());
+			if (featureIndex == null) { throw new DataStructureException("Feature does not exist (\"" + observation.getKey() + "\")"); }
+
+			Integer stateIndex = stateIndexes[featureIndex].get(observation.getValue());
+			if (stateIndex == null) { throw new DataStructureException("State does not exist (\"" + observation.getValue() + "\")"); }
+
+			states[featureIndex] = stateIndex;
+		}
+		return states;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on observations given by name,
+	 * computed in log-space from the quantized table.
+	 *
+	 * @param observations A map (e.g. HashMap) of feature (key) and state (value) pairs.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException If a feature or state does not exist.
+	 */
+	public double[] classify(Map<String, String> observations) throws DataStructureException {
+		double[] result = new double[classLabels.length];
+		classify(encode(observations), result);
+		return result;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on a state index vector, computed
+	 * in log-space from the quantized table.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @return A probability distribution over the class labels given the observations.
+	 * @throws DataStructureException If the vector does not match the features.
+	 */
+	public double[] classify(int[] states) throws DataStructureException {
+		double[] result = new double[classLabels.length];
+		classify(states, result);
+		return result;
+	}
+
+
+	/**
+	 * The Naive Bayes classification algorithm on a state index vector, writing
+	 * the result into an array owned by the caller. Nothing is allocated.
+	 *
+	 * @param states The index of the observed state per feature, or -1 if not observed.
+	 * @param posteriors Receives the probability distribution over the class labels.
+	 * @throws DataStructureException If the vector does not match the features, or the result has the wrong length.
+	 */
+	public void classify(int[] states, double[] posteriors) throws DataStructureException {
+		if (states.length != featureNames.length) { throw new DataStructureException("Expected " + featureNames.length + " states (got " + states.length + ")"); }
+		if (posteriors.length != classLabels.length) { throw new DataStructureException("Expected room for " + classLabels.length + " probabilities (got " + posteriors.length + ")"); }
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			int stateIndex = states[featureIndex];
+			if (stateIndex != -1 && (stateIndex < 0 || stateIndex >= stateIndexes[featureIndex].size())) { throw new DataStructureException("State index " + stateIndex + " does not exist for " + featureNames[featureIndex]); }
+		}
+
+		System.arraycopy(logPriorProbabilities, 0, posteriors, 0, posteriors.length);
+		for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+			if (states[featureIndex] == -1) { continue; }
+
+			int row = (stateOffsets[featureIndex] + states[featureIndex]) * posteriors.length;
+			if (floatTable != null) {
+				for (int classIndex = 0; classIndex < posteriors.length; classIndex++) {
+					posteriors[classIndex] += floatTable[row + classIndex];
+				}
+			}
+			else {
+				for (int classIndex = 0; classIndex < posteriors.length; classIndex++) {
+					posteriors[classIndex] += decode(codeTable[row + classIndex]);
+				}
+			}
+		}
+		CompiledClassifier.normalizeLogSpace(posteriors);
+	}
+
+
+	private double decode(char code) {
+		return code == ZERO ? Double.NEGATIVE_INFINITY : logOffset + code * logStep;
+	}
+}
@@ -0,0 +1,61 @@
+package moltsen.AI.NaiveBayes;
+
+/**
+ * <p>A class label ranked by {@link CompiledClassifier#classifyTopK(java.util.Map, int)}.</p>
+ *
+ * <p>The score is the natural logarithm of the prior probability times the
+ * conditional probabilities of the observations, i.e. the joint probability
+ * of the class label and the observations. It is not normalized, so scores
+ * can be compared with each other, but do not sum to one.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+public class RankedLabel {
+	private final String label;
+	private final int classIndex;
+	private final double logScore;
+
+
+	RankedLabel(String label, int classIndex, double logScore) {
+		this.label = label;
+		this.classIndex = classIndex;
+		this.logScore = logScore;
+	}
+
+
+	/**
+	 * Returns the class label.
+	 *
+	 * @return The class label.
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+
+	/**
+	 * Returns the index of the class label.
+	 *
+	 * @return The index in {@link CompiledClassifier#getClassLabels()}.
+	 */
+	public int getClassIndex() {
+		return classIndex;
+	}
+
+
+	/**
+	 * Returns the unnormalized log-probability of the class label.
+	 *
+	 * @return The log of the joint probability of the class label and the observations.
+	 */
+	public double getLogScore() {
+		return logScore;
+	}
+
+
+	@Override
+	public String toString() {
+		return label + " (" + logScore + ")";
+	}
+}
@@ -0,0 +1,78 @@
+package moltsen.AI.NaiveBayes;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * The inner loops of scoring, which combine one row of a probability table
+ * with the scores of all class labels.
+ *
+ * <p>This is the portable version. On Java 17 and later, the multi-release jar
+ * holds a version of this class which uses the Vector API when the
+ * <code>jdk.incubator.vector</code> module is added, with results identical to
+ * these loops.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+final class ScoringKernel {
+	private ScoringKernel() {
+	}
+
+
+	/**
+	 * Returns whether the loops use SIMD instructions.
+	 */
+	static boolean isVectorized() {
+		return false;
+	}
+
+
+	/**
+	 * scores[c] += table[offset + c]
+	 */
+	static void addRow(double[] table, int offset, double[] scores, int length) {
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] += table[offset + classIndex];
+		}
+	}
+
+
+	/**
+	 * scores[c] += scale * table[offset + c]
+	 */
+	static void addScaledRow(double[] table, int offset, double scale, double[] scores, int length) {
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] += scale * table[offset + classIndex];
+		}
+	}
+
+
+	/**
+	 * scores[c] *= table[offset + c]
+	 */
+	static void multiplyRow(double[] table, int offset, double[] scores, int length) {
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] *= table[offset + classIndex];
+		}
+	}
+
+
+	/**
+	 * scores[c] += log(table[offset + c]), for a table of probabilities in a buffer
+	 */
+	static void addLogRow(DoubleBuffer table, int offset, double[] scores, int length) {
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] += Math.log(table.get(offset + classIndex));
+		}
+	}
+
+
+	/**
+	 * scores[c] += scale * log(table[offset + c]), for a table of probabilities in a buffer
+	 */
+	static void addScaledLogRow(DoubleBuffer table, int offset, double scale, double[] scores, int length) {
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] += scale * Math.log(table.get(offset + classIndex));
+		}
+	}
+}
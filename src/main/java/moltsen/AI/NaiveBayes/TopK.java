@@ -0,0 +1,96 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The k best log-scores found so far by a top-K classification, sorted
+ * descending in small arrays. Shared by the classifiers, which differ only
+ * in where they read the log conditional probabilities from.
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+final class TopK {
+	private final int k;
+	private final double[] bestScores;
+	private final int[] bestClasses;
+	private int found;
+
+
+	/**
+	 * @param k The number of class labels wanted.
+	 * @param classCount The number of class labels of the model.
+	 * @throws DataStructureException If k is less than 1.
+	 */
+	TopK(int k, int classCount) throws DataStructureException {
+		if (k < 1) { throw new DataStructureException("Expected k of at least 1 (got " + k + ")"); }
+
+		this.k = Math.min(k, classCount);
+		bestScores = new double[this.k];
+		bestClasses = new int[this.k];
+	}
+
+
+	/**
+	 * Returns the score a class label must stay above to get in, or NaN while
+	 * there is room or if the scores cannot be pruned.
+	 *
+	 * @param prunable Whether no log conditional probability is above 0.
+	 */
+	double threshold(boolean prunable) {
+		return found == k && prunable ? bestScores[k - 1] : Double.NaN;
+	}
+
+
+	/**
+	 * Inserts a score if it is among the k best, dropping the k-th best if full.
+	 */
+	void offer(int classIndex, double score) {
+		if (found == k && !(score > bestScores[k - 1])) { return; }
+
+		int position = found < k ? found++ : k - 1;
+		while (position > 0 && score > bestScores[position - 1]) {
+			bestScores[position] = bestScores[position - 1];
+			bestClasses[position] = bestClasses[position - 1];
+			position--;
+		}
+		bestScores[position] = score;
+		bestClasses[position] = classIndex;
+	}
+
+
+	/**
+	 * Returns the best class labels, the most likely first.
+	 */
+	RankedLabel[] toArray(String[] classLabels) {
+		RankedLabel[] result = new RankedLabel[found];
+		for (int i = 0; i < found; i++) {
+			result[i] = new RankedLabel(classLabels[bestClasses[i]], bestClasses[i], bestScores[i]);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Returns the class indexes by descending prior, the order in which they
+	 * are visited, which tends to find good candidates early. Ties keep the
+	 * order of the class labels.
+	 */
+	static int[] orderByPrior(final double[] priorProbabilities) {
+		Integer[] order = new Integer[priorProbabilities.length];
+		for (int classIndex = 0; classIndex < order.length; classIndex++) {
+			order[classIndex] = classIndex;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(priorProbabilities[b], priorProbabilities[a]);
+			}
+		});
+		int[] result = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			result[i] = order[i];
+		}
+		return result;
+	}
+}
@@ -11,6 +11,10 @@ import java.util.ArrayList;
 public class FeatureData {
 	private String name;
 	private ArrayList<StateData> states;
+	private boolean multinomial;
+	private boolean continuous;
+	private ArrayList<Double> means;
+	private ArrayList<Double> variances;
 	
 	public String getName() {
 		return name;
@@ -27,4 +31,36 @@ public class FeatureData {
 	public void setStates(ArrayList<StateData> states) {
 		this.states = states;
 	}
+	
+	public boolean isMultinomial() {
+		return multinomial;
+	}
+	
+	public void setMultinomial(boolean multinomial) {
+		this.multinomial = multinomial;
+	}
+	
+	public boolean isContinuous() {
+		return continuous;
+	}
+	
+	public void setContinuous(boolean continuous) {
+		this.continuous = continuous;
+	}
+	
+	public ArrayList<Double> getMeans() {
+		return means;
+	}
+	
+	public void setMeans(ArrayList<Double> means) {
+		this.means = means;
+	}
+	
+	public ArrayList<Double> getVariances() {
+		return variances;
+	}
+	
+	public void setVariances(ArrayList<Double> variances) {
+		this.variances = variances;
+	}
 }
@@ -0,0 +1,116 @@
+package moltsen.AI.NaiveBayes;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * The inner loops of scoring, which combine one row of a probability table
+ * with the scores of all class labels.
+ *
+ * <p>This is the Java 17 version in the multi-release jar. If the
+ * <code>jdk.incubator.vector</code> module is added to the JVM
+ * (<code>--add-modules jdk.incubator.vector</code>), the loops run on
+ * {@link VectorScoringKernel}, otherwise they are the portable loops. Set the
+ * system property <code>moltsen.NaiveBayes.vector</code> to <code>false</code>
+ * to keep the portable loops anyway. Both give identical results, since every
+ * lane does the same operations in the same order as the portable loop.</p>
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+final class ScoringKernel {
+	private static final boolean VECTORIZED = vectorApiAvailable();
+
+
+	private ScoringKernel() {
+	}
+
+
+	/**
+	 * Returns whether the loops use SIMD instructions.
+	 */
+	static boolean isVectorized() {
+		return VECTORIZED;
+	}
+
+
+	/**
+	 * scores[c] += table[offset + c]
+	 */
+	static void addRow(double[] table, int offset, double[] scores, int length) {
+		if (VECTORIZED) {
+			VectorScoringKernel.addRow(table, offset, scores, length);
+			return;
+		}
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] += table[offset + classIndex];
+		}
+	}
+
+
+	/**
+	 * scores[c] += scale * table[offset + c]
+	 */
+	static void addScaledRow(double[] table, int offset, double scale, double[] scores, int length) {
+		if (VECTORIZED) {
+			VectorScoringKernel.addScaledRow(table, offset, scale, scores, length);
+			return;
+		}
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] += scale * table[offset + classIndex];
+		}
+	}
+
+
+	/**
+	 * scores[c] *= table[offset + c]
+	 */
+	static void multiplyRow(double[] table, int offset, double[] scores, int length) {
+		if (VECTORIZED) {
+			VectorScoringKernel.multiplyRow(table, offset, scores, length);
+			return;
+		}
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] *= table[offset + classIndex];
+		}
+	}
+
+
+	/**
+	 * scores[c] += log(table[offset + c]), for a table of probabilities in a
+	 * buffer. Buffers are read one element at a time, since the buffer methods
+	 * of the Vector API differ between Java versions, and the logarithms are
+	 * computed with {@link Math#log(double)} for results identical to the
+	 * compiled classifier.
+	 */
+	static void addLogRow(DoubleBuffer table, int offset, double[] scores, int length) {
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] += Math.log(table.get(offset + classIndex));
+		}
+	}
+
+
+	/**
+	 * scores[c] += scale * log(table[offset + c]), for a table of probabilities in a buffer
+	 */
+	static void addScaledLogRow(DoubleBuffer table, int offset, double scale, double[] scores, int length) {
+		for (int classIndex = 0; classIndex < length; classIndex++) {
+			scores[classIndex] += scale * Math.log(table.get(offset + classIndex));
+		}
+	}
+
+	/**
+	 * The incubator module is only resolved when added to the JVM, so its
+	 * classes may be missing even on a JDK which has it.
+	 */
+	private static boolean vectorApiAvailable() {
+		if ("false".equals(System.getProperty("moltsen.NaiveBayes.vector"))) { return false; }
+
+		try {
+			Class.forName("jdk.incubator.vector.DoubleVector");
+			return VectorScoringKernel.laneCount() > 1;
+		}
+		catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+}
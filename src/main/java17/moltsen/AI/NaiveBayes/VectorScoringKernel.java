@@ -0,0 +1,66 @@
+package moltsen.AI.NaiveBayes;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of {@link ScoringKernel} on the Vector API, processing as many
+ * class labels per instruction as the preferred vector size of the CPU holds
+ * (e.g. 4 with AVX2, 8 with AVX-512), and the remainder one at a time. Only
+ * loaded when the <code>jdk.incubator.vector</code> module is present.
+ *
+ * @author  Lars Moltsen
+ * @version 1.0
+ */
+final class VectorScoringKernel {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+
+	private VectorScoringKernel() {
+	}
+
+
+	static int laneCount() {
+		return SPECIES.length();
+	}
+
+
+	static void addRow(double[] table, int offset, double[] scores, int length) {
+		int classIndex = 0;
+		for (int bound = SPECIES.loopBound(length); classIndex < bound; classIndex += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, scores, classIndex)
+				.add(DoubleVector.fromArray(SPECIES, table, offset + classIndex))
+				.intoArray(scores, classIndex);
+		}
+		for (; classIndex < length; classIndex++) {
+			scores[classIndex] += table[offset + classIndex];
+		}
+	}
+
+
+	static void addScaledRow(double[] table, int offset, double scale, double[] scores, int length) {
+		int classIndex = 0;
+		for (int bound = SPECIES.loopBound(length); classIndex < bound; classIndex += SPECIES.length()) {
+			// Multiply, then add, rather than a fused multiply-add, to round like the scalar loop:
+			DoubleVector.fromArray(SPECIES, scores, classIndex)
+				.add(DoubleVector.fromArray(SPECIES, table, offset + classIndex).mul(scale))
+				.intoArray(scores, classIndex);
+		}
+		for (; classIndex < length; classIndex++) {
+			scores[classIndex] += scale * table[offset + classIndex];
+		}
+	}
+
+
+	static void multiplyRow(double[] table, int offset, double[] scores, int length) {
+		int classIndex = 0;
+		for (int bound = SPECIES.loopBound(length); classIndex < bound; classIndex += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, scores, classIndex)
+				.mul(DoubleVector.fromArray(SPECIES, table, offset + classIndex))
+				.intoArray(scores, classIndex);
+		}
+		for (; classIndex < length; classIndex++) {
+			scores[classIndex] *= table[offset + classIndex];
+		}
+	}
+}
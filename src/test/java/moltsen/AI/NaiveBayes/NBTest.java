@@ -1,6 +1,27 @@
 package moltsen.AI.NaiveBayes;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -342,4 +363,1125 @@ public class NBTest
             assertTrue("Exception should not happen: " + e.getMessage(), false);
     	}   	
     }
+
+
+    /**
+     * The compiled classifier should give the same results as the classifier.
+     */
+    public void testCompiledClassification() {
+    	HashMap<String, String> observations = new HashMap<String, String>();
+    	observations.put("Fever", "yes");
+    	observations.put("Red spots", "no");
+
+    	try {
+    		CompiledClassifier compiled = c.compile();
+    		Double[] expected = c.classify(observations);
+    		double[] byName = compiled.classify(observations);
+    		double[] byIndex = compiled.classify(compiled.encode(observations));
+
+    		for (int i = 0; i < expected.length; i++) {
+    			assertEquals("Probability of " + c.getClassLabels()[i], expected[i].doubleValue(), byName[i]);
+    			assertEquals("Probability of " + c.getClassLabels()[i], expected[i].doubleValue(), byIndex[i], 0.0000001);
+    		}
+
+    		// Unknown states should cause exception:
+    		observations.put("Fever", "maybe");
+    		try {
+    			compiled.classify(observations);
+    			assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+
+    		// Changes to the classifier do not affect the compiled one:
+    		c.removeLabel("Flu");
+    		assertEquals("Class labels", 3, compiled.getClassLabels().length);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    }
+
+
+    /**
+     * Log-space classification should agree with the classifier and should not
+     * underflow when many features are observed.
+     */
+    public void testLogSpaceClassification() {
+    	HashMap<String, String> observations = new HashMap<String, String>();
+    	observations.put("Fever", "yes");
+    	observations.put("Red spots", "no");
+
+    	try {
+    		Double[] expected = c.classify(observations);
+    		double[] result = c.compile().classifyLogSpace(observations);
+    		for (int i = 0; i < expected.length; i++) {
+    			assertEquals("Probability of " + c.getClassLabels()[i], expected[i].doubleValue(), result[i], 0.0000001);
+    		}
+
+    		// 500 observations of Fever=yes underflow when multiplying probabilities:
+    		for (int i = 0; i < 500; i++) {
+    			c.addFeature("Fever " + i);
+    			c.addState("Fever " + i, "yes");
+    			c.addState("Fever " + i, "no");
+    			c.setConditionalProbability("Fever " + i, "yes", "Flu", 0.10d);
+    			c.setConditionalProbability("Fever " + i, "yes", "Measles", 0.20d);
+    			c.setConditionalProbability("Fever " + i, "yes", "No disease", 0.01d);
+    			c.setConditionalProbability("Fever " + i, "no", "Flu", 0.90d);
+    			c.setConditionalProbability("Fever " + i, "no", "Measles", 0.80d);
+    			c.setConditionalProbability("Fever " + i, "no", "No disease", 0.99d);
+    			observations.put("Fever " + i, "yes");
+    		}
+    		assertTrue("Product underflows", Double.isNaN(c.classify(observations)[1]));
+
+    		result = c.compile().classifyLogSpace(observations);
+    		assertEquals("Probability of Measles", 1.0d, result[1], 0.0000001);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Batch classification should give the same results as classifying each row,
+     * also when the batch is large enough to be split.
+     */
+    public void testBatchClassification() {
+    	HashMap<String, String> feverOnly = new HashMap<String, String>();
+    	feverOnly.put("Fever", "yes");
+    	HashMap<String, String> both = new HashMap<String, String>();
+    	both.put("Fever", "no");
+    	both.put("Red spots", "yes");
+
+    	ArrayList<HashMap<String, String>> observations = new ArrayList<HashMap<String, String>>();
+    	for (int i = 0; i < 5000; i++) {
+    		observations.add(i % 2 == 0 ? feverOnly : both);
+    	}
+
+    	try {
+    		double[][] posteriors = new double[observations.size()][3];
+    		c.classifyBatch(observations, posteriors);
+
+    		Double[] expectedFeverOnly = c.classify(feverOnly);
+    		Double[] expectedBoth = c.classify(both);
+    		for (int i = 0; i < 3; i++) {
+    			assertEquals("Probability of " + c.getClassLabels()[i], expectedFeverOnly[i].doubleValue(), posteriors[4000][i], 0.0000001);
+    			assertEquals("Probability of " + c.getClassLabels()[i], expectedBoth[i].doubleValue(), posteriors[4001][i], 0.0000001);
+    		}
+
+    		int[][] states = new int[][] { { 0, -1 }, { 1, 0 } };
+    		double[][] indexed = new double[2][3];
+    		c.classifyBatch(states, indexed);
+    		for (int i = 0; i < 3; i++) {
+    			assertEquals("Probability of " + c.getClassLabels()[i], posteriors[0][i], indexed[0][i], 0.0000001);
+    			assertEquals("Probability of " + c.getClassLabels()[i], posteriors[1][i], indexed[1][i], 0.0000001);
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	// An unknown state anywhere in the batch should cause exception:
+    	HashMap<String, String> unknown = new HashMap<String, String>();
+    	unknown.put("Fever", "maybe");
+    	observations.set(3000, unknown);
+    	try {
+    		c.classifyBatch(observations, new double[observations.size()][3]);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    }
+
+
+    /**
+     * Validation should be repeated only when the model changes, and small
+     * rounding errors should be accepted within the tolerance.
+     */
+    public void testValidationTolerance() {
+    	try {
+    		long count = c.getModificationCount();
+    		c.validate();
+    		assertEquals("Validation does not change the model", count, c.getModificationCount());
+    		assertSame("Compiled model is reused", c.compile(), c.compile());
+
+    		// Off by rounding only:
+    		c.setPriorProbability("Flu", 0.06d + 1e-12d);
+    		c.validate();
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	// Without tolerance the rounding error is inconsistent:
+    	try {
+    		c.setValidationTolerance(0d);
+    		c.validate();
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (Exception e) {
+    	}
+
+    	// Negative and NaN tolerances are rejected, and the tolerance is kept:
+    	try {
+    		c.setValidationTolerance(-1e-9d);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    	try {
+    		c.setValidationTolerance(Double.NaN);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    	assertEquals("Tolerance kept", 0d, c.getValidationTolerance());
+
+    	// The failure is remembered until the model changes:
+    	try {
+    		c.validate();
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (Exception e) {
+    	}
+
+    	try {
+    		c.setPriorProbability("Flu", 0.06d);
+    		c.validate();
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Names should still resolve to the right entries after removing the ones before them.
+     */
+    public void testLookupAfterRemoval() {
+    	try {
+    		c.addState("Fever", "high");
+    		c.removeLabel("Flu");
+    		c.removeState("Fever", "yes");
+    		c.removeFeature("Fever");
+    		c.addFeature("Fever");
+    		c.addState("Fever", "yes");
+
+    		c.setPriorProbability("No disease", 0.5d);
+    		assertEquals("Prior of No disease", 0.5d, c.getPriorProbabilities()[1]);
+
+    		c.setConditionalProbability("Red spots", "no", "No disease", 0.25d);
+    		assertEquals("Conditional of Red spots=no given No disease", 0.25d, c.getConditionalProbabilities("Red spots", "no")[1]);
+
+    		c.setConditionalProbability("Fever", "yes", "Measles", 0.75d);
+    		assertEquals("Conditional of Fever=yes given Measles", 0.75d, c.getConditionalProbabilities("Fever", "yes")[0]);
+    		assertEquals("Features array", "Fever", c.getFeatures()[1]);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	// Removed names should not resolve:
+    	try {
+    		c.setPriorProbability("Flu", 0.5d);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (Exception e) {
+    	}
+    }
+
+
+    /**
+     * Readers of a concurrent classifier should only see published models, while
+     * a failed update should leave the published model untouched.
+     */
+    public void testConcurrentUpdates() {
+    	final HashMap<String, String> observations = new HashMap<String, String>();
+    	observations.put("Fever", "yes");
+
+    	try {
+    		final ConcurrentClassifier cc = new ConcurrentClassifier(c);
+    		final boolean[] failed = new boolean[1];
+
+    		Thread reader = new Thread() {
+    			public void run() {
+    				try {
+    					for (int i = 0; i < 100000; i++) {
+    						// Only Flu changes, so Measles is always 4 times as probable as No disease:
+    						double[] result = cc.classify(observations);
+    						if (Math.abs(result[0] + result[1] + result[2] - 1d) > 0.0000001 || Math.abs(result[1] / result[2] - 4d) > 0.0000001) {
+    							failed[0] = true;
+    						}
+    					}
+    				}
+    				catch (Exception e) {
+    					failed[0] = true;
+    				}
+    			}
+    		};
+    		reader.start();
+
+    		for (int i = 0; i < 200; i++) {
+    			final double p = (i % 10) / 10d;
+    			cc.update(new ConcurrentClassifier.Update() {
+    				public void apply(NaiveBayesClassifier classifier) throws DataStructureException {
+    					classifier.setConditionalProbability("Fever", "yes", "Flu", p);
+    					classifier.setConditionalProbability("Fever", "no", "Flu", 1d - p);
+    				}
+    			});
+    		}
+    		reader.join();
+    		assertFalse("Readers only see consistent models", failed[0]);
+
+    		// A failed update is discarded:
+    		double published = cc.classify(observations)[0];
+    		try {
+    			cc.update(new ConcurrentClassifier.Update() {
+    				public void apply(NaiveBayesClassifier classifier) throws DataStructureException {
+    					classifier.setConditionalProbability("Fever", "yes", "Flu", 1000d);
+    				}
+    			});
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+    		assertEquals("Probability of Flu", published, cc.classify(observations)[0]);
+
+    		// The original classifier was copied:
+    		assertEquals("Conditional of Fever=yes given Flu", 0.90d, c.getConditionalProbabilities("Fever", "yes")[0]);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Token counts of a multinomial feature multiply the token probabilities,
+     * and tokens outside the vocabulary are skipped.
+     */
+    public void testMultinomialClassification() {
+    	try {
+    		NaiveBayesClassifier c = new NaiveBayesClassifier();
+    		c.addClassLabel("Spam");
+    		c.addClassLabel("Ham");
+    		c.setPriorProbability("Spam", 0.5d);
+    		c.setPriorProbability("Ham", 0.5d);
+    		c.addMultinomialFeature("Words");
+    		c.addState("Words", "free");
+    		c.addState("Words", "meeting");
+    		c.setConditionalProbability("Words", "free", "Spam", 0.8d);
+    		c.setConditionalProbability("Words", "free", "Ham", 0.2d);
+    		c.setConditionalProbability("Words", "meeting", "Spam", 0.2d);
+    		c.setConditionalProbability("Words", "meeting", "Ham", 0.8d);
+    		c.addFeature("Attachment");
+    		c.addState("Attachment", "yes");
+    		c.addState("Attachment", "no");
+    		c.setConditionalProbability("Attachment", "yes", "Spam", 0.5d);
+    		c.setConditionalProbability("Attachment", "no", "Spam", 0.5d);
+    		c.setConditionalProbability("Attachment", "yes", "Ham", 0.5d);
+    		c.setConditionalProbability("Attachment", "no", "Ham", 0.5d);
+    		c.validate();
+
+    		assertTrue("Words is multinomial", c.isMultinomial("Words"));
+    		assertFalse("Attachment is categorical", c.isMultinomial("Attachment"));
+
+    		// 0.5 * 0.8^2 * 0.2 = 0.064 against 0.5 * 0.2^2 * 0.8 = 0.016:
+    		Evidence e = new Evidence()
+    			.setState("Attachment", "no")
+    			.addTokens("Words", "free", 1)
+    			.addTokens("Words", "meeting", 1)
+    			.addTokens("Words", "free", 1)
+    			.addTokens("Words", "unknown", 5);
+    		assertEquals("Probability of Spam", 0.8d, c.classify(e)[0], 0.0000001);
+
+    		// A long document does not underflow:
+    		assertEquals("Probability of Spam", 1.0d, c.classify(new Evidence().addTokens("Words", "free", 10000))[0], 0.0000001);
+
+    		// The flag survives copies and the JSON format:
+    		StringWriter out = new StringWriter();
+    		NaiveBayesJson.write(new NaiveBayesClassifier(c), out);
+    		NaiveBayesClassifier copy = NaiveBayesJson.read(new StringReader(out.toString()));
+    		assertTrue("Words is multinomial", copy.isMultinomial("Words"));
+    		assertEquals("Probability of Spam", 0.8d, copy.classify(e)[0], 0.0000001);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	try {
+    		NaiveBayesClassifier c = new NaiveBayesClassifier();
+    		c.addClassLabel("Spam");
+    		c.addFeature("Attachment");
+    		c.addState("Attachment", "yes");
+    		c.classify(new Evidence().addTokens("Attachment", "yes", 1));
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+
+    	try {
+    		new Evidence().addTokens("Words", "free", -1);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    }
+
+
+    /**
+     * A measurement of a continuous feature adds its normal log-density.
+     */
+    public void testContinuousClassification() {
+    	try {
+    		NaiveBayesClassifier c = new NaiveBayesClassifier();
+    		c.addClassLabel("Healthy");
+    		c.addClassLabel("Sick");
+    		c.setPriorProbability("Healthy", 0.5d);
+    		c.setPriorProbability("Sick", 0.5d);
+    		c.addContinuousFeature("Temperature");
+    		c.setGaussian("Temperature", "Healthy", 37d, 1d);
+    		c.setGaussian("Temperature", "Sick", 39d, 1d);
+    		c.validate();
+
+    		assertTrue("Temperature is continuous", c.isContinuous("Temperature"));
+    		assertEquals("Probability of Healthy", 0.5d, c.classify(new Evidence().setMeasurement("Temperature", 38d))[0], 0.0000001);
+    		assertEquals("Probability of Healthy", 0.8807970779778823d, c.classify(new Evidence().setMeasurement("Temperature", 37d))[0], 0.0000001);
+
+    		// New class labels get a standard normal distribution:
+    		c.addClassLabel("Unknown");
+    		assertEquals("Mean given Unknown", 0d, c.getMeans("Temperature")[2]);
+    		assertEquals("Variance given Unknown", 1d, c.getVariances("Temperature")[2]);
+    		c.removeLabel("Unknown");
+
+    		// The distributions survive the JSON format:
+    		StringWriter out = new StringWriter();
+    		NaiveBayesJson.write(c, out);
+    		NaiveBayesClassifier copy = NaiveBayesJson.read(new StringReader(out.toString()));
+    		assertEquals("Mean given Sick", 39d, copy.getMeans("Temperature")[1]);
+    		assertEquals("Probability of Healthy", 0.8807970779778823d, copy.classify(new Evidence().setMeasurement("Temperature", 37d))[0], 0.0000001);
+
+    		// A variance must be positive:
+    		c.setGaussian("Temperature", "Sick", 39d, 0d);
+    		try {
+    			c.validate();
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+
+    		// Continuous features have no states:
+    		try {
+    			c.addState("Temperature", "high");
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * The top K class labels should be the K most likely ones, in order, also
+     * when classes are pruned along the way.
+     */
+    public void testTopKClassification() {
+    	try {
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "yes");
+    		observations.put("Red spots", "no");
+
+    		RankedLabel[] top = c.classifyTopK(observations, 2);
+    		assertEquals("Number of labels", 2, top.length);
+    		assertEquals("Most likely", "Flu", top[0].getLabel());
+    		assertEquals("Second most likely", "No disease", top[1].getLabel());
+    		assertEquals("Log-score of Flu", Math.log(0.06d * 0.90d * 0.95d), top[0].getLogScore(), 0.0000001);
+    		assertEquals("Number of labels", 3, c.classifyTopK(observations, 10).length);
+
+    		// Many class labels with random probabilities:
+    		Random random = new Random(42);
+    		NaiveBayesClassifier large = new NaiveBayesClassifier();
+    		int classCount = 500;
+    		for (int classIndex = 0; classIndex < classCount; classIndex++) {
+    			large.addClassLabel("Label " + classIndex);
+    			large.setPriorProbability(classIndex, 1d / classCount);
+    		}
+    		for (int featureIndex = 0; featureIndex < 20; featureIndex++) {
+    			large.addFeature("Feature " + featureIndex);
+    			large.addState("Feature " + featureIndex, "a");
+    			large.addState("Feature " + featureIndex, "b");
+    			for (int classIndex = 0; classIndex < classCount; classIndex++) {
+    				double p = random.nextDouble();
+    				large.setConditionalProbability(featureIndex, 0, classIndex, p);
+    				large.setConditionalProbability(featureIndex, 1, classIndex, 1d - p);
+    			}
+    		}
+
+    		CompiledClassifier compiled = large.compile();
+    		for (int row = 0; row < 20; row++) {
+    			int[] states = new int[20];
+    			for (int featureIndex = 0; featureIndex < states.length; featureIndex++) {
+    				states[featureIndex] = random.nextInt(2);
+    			}
+    			final double[] posteriors = compiled.classifyLogSpace(states);
+    			Integer[] expected = new Integer[classCount];
+    			for (int classIndex = 0; classIndex < classCount; classIndex++) {
+    				expected[classIndex] = classIndex;
+    			}
+    			Arrays.sort(expected, new Comparator<Integer>() {
+    				public int compare(Integer a, Integer b) {
+    					return Double.compare(posteriors[b], posteriors[a]);
+    				}
+    			});
+
+    			top = compiled.classifyTopK(states, 5);
+    			for (int i = 0; i < 5; i++) {
+    				assertEquals("Rank " + i, expected[i].intValue(), top[i].getClassIndex());
+    			}
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	try {
+    		c.classifyTopK(new HashMap<String, String>(), 0);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    }
+
+
+    /**
+     * Repeated observations should be answered from the cache, the least recently
+     * used entry should be evicted first, and changes to the model should empty it.
+     */
+    public void testClassificationCache() {
+    	try {
+    		ClassificationCache cache = new ClassificationCache(c, 2, 1024 * 1024);
+    		HashMap<String, String> feverOnly = new HashMap<String, String>();
+    		feverOnly.put("Fever", "yes");
+    		HashMap<String, String> spotsOnly = new HashMap<String, String>();
+    		spotsOnly.put("Red spots", "yes");
+    		HashMap<String, String> both = new HashMap<String, String>();
+    		both.put("Fever", "yes");
+    		both.put("Red spots", "yes");
+
+    		assertEquals("Probability of Flu", c.classify(feverOnly)[0], cache.classify(feverOnly)[0]);
+    		assertEquals("Probability of Flu", c.classify(feverOnly)[0], cache.classify(feverOnly)[0]);
+    		cache.classify(spotsOnly);
+    		cache.classify(feverOnly);
+    		cache.classify(both);
+    		assertEquals("Hits", 2, cache.getHitCount());
+    		assertEquals("Misses", 3, cache.getMissCount());
+    		assertEquals("Evictions", 1, cache.getEvictionCount());
+    		assertEquals("Entries", 2, cache.size());
+
+    		// Red spots only was least recently used:
+    		cache.classify(feverOnly);
+    		assertEquals("Hits", 3, cache.getHitCount());
+    		cache.classify(spotsOnly);
+    		assertEquals("Misses", 4, cache.getMissCount());
+
+    		// The same pairs in another order share the entry:
+    		LinkedHashMap<String, String> reversed = new LinkedHashMap<String, String>();
+    		reversed.put("Red spots", "yes");
+    		reversed.put("Fever", "yes");
+    		cache.classify(both);
+    		long hits = cache.getHitCount();
+    		assertEquals("Probability of Flu", c.classify(both)[0], cache.classify(reversed)[0], 0.0000001);
+    		assertEquals("Hits", hits + 1, cache.getHitCount());
+
+    		// Changing the model drops all entries:
+    		c.setPriorProbability("Flu", 0.05d);
+    		c.setPriorProbability("No disease", 0.91d);
+    		assertEquals("Probability of Flu", c.classify(feverOnly)[0], cache.classify(feverOnly)[0]);
+    		assertEquals("Invalidations", 1, cache.getInvalidationCount());
+    		assertEquals("Entries", 1, cache.size());
+
+    		// A byte bound below one entry caches nothing:
+    		ClassificationCache tiny = new ClassificationCache(c, 100, 10);
+    		tiny.classify(feverOnly);
+    		tiny.classify(feverOnly);
+    		assertEquals("Hits", 0, tiny.getHitCount());
+    		assertEquals("Bytes", 0, tiny.getByteSize());
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * A session should give the same posterior as classifying all recorded
+     * observations, also after changing and retracting some.
+     */
+    public void testClassificationSession() {
+    	try {
+    		ClassificationSession session = new ClassificationSession(c.compile());
+    		assertEquals("Prior of Flu", 0.06d, session.getPosterior()[0], 0.0000001);
+
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		session.observe("Fever", "yes");
+    		observations.put("Fever", "yes");
+    		assertEquals("Probability of Flu", c.classify(observations)[0], session.getPosterior()[0], 0.0000001);
+
+    		session.observe("Red spots", "yes");
+    		session.observe("Red spots", "no");
+    		observations.put("Red spots", "no");
+    		assertEquals("Observations", 2, session.getObservationCount());
+    		assertEquals("Probability of Flu", 0.8039492242595203d, session.getPosterior()[0], 0.0000001);
+
+    		session.retract("Fever");
+    		observations.remove("Fever");
+    		assertEquals("Probability of Flu", c.classify(observations)[0], session.getPosterior()[0], 0.0000001);
+
+    		// Zero probabilities can be retracted:
+    		c.setConditionalProbability("Fever", "yes", "No disease", 0d);
+    		c.setConditionalProbability("Fever", "no", "No disease", 1d);
+    		session = new ClassificationSession(c.compile());
+    		session.observe("Fever", "yes");
+    		assertEquals("Probability of No disease", 0d, session.getPosterior()[2]);
+    		session.observe("Fever", "no");
+    		observations.clear();
+    		observations.put("Fever", "no");
+    		assertEquals("Probability of No disease", c.classify(observations)[2], session.getPosterior()[2], 0.0000001);
+
+    		session.reset();
+    		assertEquals("Observations", 0, session.getObservationCount());
+    		assertEquals("Prior of No disease", 0.90d, session.getPosterior()[2], 0.0000001);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	try {
+    		new ClassificationSession(c.compile()).observe("Fever", "maybe");
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    }
+
+
+    /**
+     * Classification, validation, rejections and changes should be reported to the metrics.
+     */
+    public void testMetrics() {
+    	ClassifierStatistics statistics = new ClassifierStatistics();
+    	c.setMetrics(statistics);
+    	HashMap<String, String> observations = new HashMap<String, String>();
+    	observations.put("Fever", "yes");
+    	try {
+    		c.classify(observations);
+    		c.classify(observations);
+    		assertEquals("Classifications", 2, statistics.getClassifyCount());
+    		assertEquals("Observations", 2, statistics.getObservationCount());
+    		assertEquals("Validations (remembered)", 0, statistics.getValidationCount());
+    		long histogramTotal = 0;
+    		for (long count : statistics.getClassifyLatencies()) {
+    			histogramTotal += count;
+    		}
+    		assertEquals("Latencies", 2, histogramTotal);
+    		assertTrue("Percentile", ClassifierStatistics.percentile(statistics.getClassifyLatencies(), 99d) > 0);
+
+    		c.addFeature("Cough");
+    		c.addState("Cough", "yes");
+    		c.addState("Cough", "no");
+    		assertEquals("Changes", 3, statistics.getModificationCount());
+    		assertEquals("States", 6, statistics.getModelSize()[2]);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	// The states of Cough have no probabilities yet, so the model is inconsistent:
+    	try {
+    		c.classify(observations);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    	assertEquals("Validations", 1, statistics.getValidationCount());
+    	assertEquals("Validation failures", 1, statistics.getValidationFailureCount());
+
+    	try {
+    		c.removeFeature("Cough");
+    		observations.put("Fever", "maybe");
+    		c.classify(observations);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    	observations.clear();
+    	observations.put("Temperature", "high");
+    	try {
+    		c.classify(observations);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    	assertEquals("Unknown states", 1, statistics.getUnknownStateCount());
+    	assertEquals("Unknown features", 1, statistics.getUnknownFeatureCount());
+    	assertEquals("Classifications", 2, statistics.getClassifyCount());
+
+    	// The entry points which classify with the compiled model report too:
+    	try {
+    		observations.clear();
+    		observations.put("Fever", "yes");
+    		c.classifyTopK(observations, 1);
+    		c.classify(new int[] { 0, -1 }, new double[3]);
+    		c.classify(new Evidence().setState("Fever", "yes"));
+    		assertEquals("Classifications", 5, statistics.getClassifyCount());
+    		assertEquals("Observations", 5, statistics.getObservationCount());
+
+    		c.classifyBatch(new int[][] { { 0, -1 }, { 1, 1 } }, new double[2][3]);
+    		assertEquals("Batches", 1, statistics.getBatchCount());
+    		assertEquals("Batch rows", 2, statistics.getBatchRowCount());
+    		assertEquals("Classifications (rows not counted)", 5, statistics.getClassifyCount());
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Classifying into caller-owned arrays should give the same results and
+     * should not allocate.
+     */
+    public void testAllocationFreeClassification() {
+    	try {
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "yes");
+    		observations.put("Red spots", "no");
+
+    		CompiledClassifier compiled = c.compile();
+    		int[] states = new int[2];
+    		double[] posteriors = new double[3];
+    		compiled.encode(observations, states);
+    		c.classify(states, posteriors);
+    		assertEquals("Probability of Flu", 0.8039492242595203d, posteriors[0], 0.0000001);
+    		compiled.classifyLogSpace(states, posteriors);
+    		assertEquals("Probability of Flu", 0.8039492242595203d, posteriors[0], 0.0000001);
+
+    		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    		if (threads instanceof com.sun.management.ThreadMXBean) {
+    			com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    			long thread = Thread.currentThread().getId();
+    			long before = allocations.getThreadAllocatedBytes(thread);
+    			for (int i = 0; i < 100000; i++) {
+    				c.classify(states, posteriors);
+    			}
+    			long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+    			assertTrue("Allocated " + allocated + " bytes", allocated < 100000);
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	try {
+    		c.classify(new int[] { 0, -1 }, new double[2]);
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    }
+
+
+    /**
+     * The vectorized scoring loops, when built and available, should give
+     * exactly the results of the portable loops.
+     */
+    public void testVectorizedScoring() {
+    	Class<?> vectorKernel;
+    	try {
+    		Class.forName("jdk.incubator.vector.DoubleVector");
+    		vectorKernel = Class.forName("moltsen.AI.NaiveBayes.VectorScoringKernel");
+    	}
+    	catch (ClassNotFoundException e) {
+    		// Built or running without the Vector API:
+    		return;
+    	}
+
+    	try {
+    		Method addRow = vectorKernel.getDeclaredMethod("addRow", double[].class, int.class, double[].class, int.class);
+    		Method addScaledRow = vectorKernel.getDeclaredMethod("addScaledRow", double[].class, int.class, double.class, double[].class, int.class);
+    		Method multiplyRow = vectorKernel.getDeclaredMethod("multiplyRow", double[].class, int.class, double[].class, int.class);
+    		addRow.setAccessible(true);
+    		addScaledRow.setAccessible(true);
+    		multiplyRow.setAccessible(true);
+
+    		Random random = new Random(7);
+    		for (int length = 0; length < 40; length++) {
+    			double[] table = new double[length + 3];
+    			double[] expected = new double[length];
+    			for (int i = 0; i < table.length; i++) {
+    				table[i] = random.nextDouble();
+    			}
+    			for (int i = 0; i < length; i++) {
+    				expected[i] = Math.log(random.nextDouble());
+    			}
+    			double[] actual = expected.clone();
+
+    			ScoringKernel.addRow(table, 3, expected, length);
+    			addRow.invoke(null, table, 3, actual, length);
+    			ScoringKernel.addScaledRow(table, 1, 3d, expected, length);
+    			addScaledRow.invoke(null, table, 1, 3d, actual, length);
+    			ScoringKernel.multiplyRow(table, 2, expected, length);
+    			multiplyRow.invoke(null, table, 2, actual, length);
+    			assertTrue("Identical results for " + length + " classes", Arrays.equals(expected, actual));
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Quantized tables should stay within their error bounds, and keep
+     * impossible class labels impossible.
+     */
+    public void testQuantizedClassification() {
+    	try {
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "yes");
+    		observations.put("Red spots", "no");
+    		CompiledClassifier compiled = c.compile();
+    		double[] expected = compiled.classifyLogSpace(observations);
+
+    		for (QuantizedClassifier.Precision precision : QuantizedClassifier.Precision.values()) {
+    			QuantizedClassifier quantized = compiled.quantize(precision);
+    			assertEquals("Precision", precision, quantized.getPrecision());
+    			double[] actual = quantized.classify(observations);
+    			for (int classIndex = 0; classIndex < expected.length; classIndex++) {
+    				assertEquals(precision + " posterior " + classIndex, expected[classIndex], actual[classIndex], 0.001);
+    			}
+    		}
+    		assertEquals("Float table size", 4L * 4 * 3, compiled.quantize(QuantizedClassifier.Precision.FLOAT).getTableBytes());
+    		assertEquals("16-bit table size", 2L * 4 * 3, compiled.quantize(QuantizedClassifier.Precision.LOG16).getTableBytes());
+
+    		// Quantizing through the classifier does not keep the compiled snapshot:
+    		long compiledSize = c.estimateByteSize();
+    		QuantizedClassifier released = c.quantize(QuantizedClassifier.Precision.FLOAT);
+    		assertTrue("Snapshot dropped", c.estimateByteSize() < compiledSize);
+    		assertTrue("Same result", Arrays.equals(compiled.quantize(QuantizedClassifier.Precision.FLOAT).classify(observations), released.classify(observations)));
+
+    		// Random probabilities, some of them zero:
+    		Random random = new Random(11);
+    		NaiveBayesClassifier large = new NaiveBayesClassifier();
+    		int classCount = 50;
+    		for (int classIndex = 0; classIndex < classCount; classIndex++) {
+    			large.addClassLabel("Label " + classIndex);
+    			large.setPriorProbability(classIndex, 1d / classCount);
+    		}
+    		for (int featureIndex = 0; featureIndex < 30; featureIndex++) {
+    			large.addFeature("Feature " + featureIndex);
+    			large.addState("Feature " + featureIndex, "a");
+    			large.addState("Feature " + featureIndex, "b");
+    			for (int classIndex = 0; classIndex < classCount; classIndex++) {
+    				double p = random.nextInt(20) == 0 ? 0d : random.nextDouble();
+    				large.setConditionalProbability(featureIndex, 0, classIndex, p);
+    				large.setConditionalProbability(featureIndex, 1, classIndex, 1d - p);
+    			}
+    		}
+    		compiled = large.compile();
+    		int[][] samples = QuantizationReport.sample(compiled, 1000, random);
+
+    		for (QuantizedClassifier.Precision precision : QuantizedClassifier.Precision.values()) {
+    			QuantizedClassifier quantized = compiled.quantize(precision);
+    			QuantizationReport report = QuantizationReport.measure(compiled, quantized, samples);
+    			assertEquals("Samples compared", 1000, report.getSampleCount());
+    			assertEquals("Exact table size", 16L * 60 * classCount, report.getExactTableBytes());
+    			assertTrue("Max log error of " + precision + " (" + quantized.getMaxLogError() + ")", quantized.getMaxLogError() < 0.001);
+    			assertTrue("Max deviation of " + precision + " (" + report.getMaxDeviation() + ")", report.getMaxDeviation() < 0.01);
+    			assertTrue("Mean within max", report.getMeanDeviation() <= report.getMaxDeviation());
+
+    			for (int[] sample : samples) {
+    				double[] exact = compiled.classifyLogSpace(sample);
+    				double[] actual = quantized.classify(sample);
+    				for (int classIndex = 0; classIndex < classCount; classIndex++) {
+    					assertEquals("Impossible stays impossible", exact[classIndex] == 0d, actual[classIndex] == 0d);
+    				}
+    			}
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	try {
+    		c.compile().quantize(QuantizedClassifier.Precision.LOG16).classify(new int[] { 5, -1 });
+    		assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    }
+
+
+    /**
+     * The registry should load models once, keep them within the budget and
+     * estimate their sizes.
+     */
+    public void testModelRegistry() {
+    	File directory = null;
+    	try {
+    		directory = File.createTempFile("NBTest", "");
+    		directory.delete();
+    		directory.mkdir();
+    		OutputStream out = new FileOutputStream(new File(directory, "json.json"));
+    		NaiveBayesJson.write(c, out);
+    		out.close();
+    		NaiveBayesBinary.write(c, new File(directory, "binary.nbb"));
+
+    		// Footprints grow with the model, and with the compiled snapshot:
+    		NaiveBayesClassifier copy = new NaiveBayesClassifier(c);
+    		long size = copy.estimateByteSize();
+    		copy.compile();
+    		assertTrue("Compiled adds to the size", copy.estimateByteSize() > size);
+    		copy.addClassLabel("Chickenpox");
+    		assertTrue("Class label adds to the size", copy.estimateByteSize() > size);
+
+    		ModelRegistry registry = new ModelRegistry(directory, Long.MAX_VALUE);
+    		NaiveBayesClassifier json = registry.get("json");
+    		assertSame("Same model", json, registry.get("json"));
+    		NaiveBayesClassifier binary = registry.get("binary");
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "yes");
+    		observations.put("Red spots", "no");
+    		assertTrue("Same results", Arrays.equals(c.classify(observations), binary.classify(observations)));
+    		assertEquals("Loads", 2, registry.getLoadCount());
+    		assertEquals("Hits", 1, registry.getHitCount());
+    		assertEquals("Size of json", json.estimateByteSize(), registry.getByteSize("json"));
+    		assertEquals("Total size", json.estimateByteSize() + binary.estimateByteSize(), registry.getByteSize());
+
+    		// A budget for one model keeps the most recently used:
+    		registry = new ModelRegistry(directory, json.estimateByteSize() + 100);
+    		registry.get("json");
+    		registry.get("binary");
+    		assertEquals("Models", 1, registry.size());
+    		assertTrue("Recent kept", registry.isLoaded("binary"));
+    		assertEquals("Evictions", 1, registry.getEvictionCount());
+    		registry.invalidate("binary");
+    		assertEquals("Empty", 0, registry.getByteSize());
+
+    		// Concurrent requests share one load:
+    		final ModelRegistry shared = new ModelRegistry(directory, Long.MAX_VALUE);
+    		final NaiveBayesClassifier[] results = new NaiveBayesClassifier[8];
+    		final CountDownLatch start = new CountDownLatch(1);
+    		Thread[] threads = new Thread[results.length];
+    		for (int i = 0; i < threads.length; i++) {
+    			final int index = i;
+    			threads[i] = new Thread() {
+    				public void run() {
+    					try {
+    						start.await();
+    						results[index] = shared.get("json");
+    					}
+    					catch (Exception e) {
+    					}
+    				}
+    			};
+    			threads[i].start();
+    		}
+    		start.countDown();
+    		for (Thread thread : threads) {
+    			thread.join();
+    		}
+    		assertEquals("One load", 1, shared.getLoadCount());
+    		for (NaiveBayesClassifier result : results) {
+    			assertSame("Shared model", results[0], result);
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	ModelRegistry registry = new ModelRegistry(directory, Long.MAX_VALUE);
+    	try {
+    		registry.get("missing");
+    		assertTrue("Exception should happen", false);
+    	}
+    	catch (IOException e) {
+    	}
+    	catch (DataStructureException e) {
+    		assertTrue("IOException expected", false);
+    	}
+    	try {
+    		registry.get("../json");
+    		assertTrue("Exception should happen", false);
+    	}
+    	catch (IOException e) {
+    		assertTrue("DataStructureException expected", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+
+    	for (File file : directory.listFiles()) {
+    		file.delete();
+    	}
+    	directory.delete();
+    }
+
+
+    /**
+     * Asynchronous classification should give the results of the classifier, and
+     * apply the rejection policy beyond the in-flight limit.
+     */
+    public void testAsyncClassification() {
+    	try {
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "yes");
+    		observations.put("Red spots", "no");
+    		CompiledClassifier compiled = c.compile();
+    		double[] expected = compiled.classify(observations);
+
+    		AsyncClassifier async = new AsyncClassifier(compiled, 4, AsyncClassifier.RejectionPolicy.ABORT);
+    		assertTrue("Same result", Arrays.equals(expected, async.classifyAsync(observations).get()));
+
+    		// Virtual threads are used exactly when the runtime has them:
+    		boolean available = true;
+    		try {
+    			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    		}
+    		catch (NoSuchMethodException e) {
+    			available = false;
+    		}
+    		assertEquals("Virtual", available, async.isVirtual());
+    		if (available) {
+    			ExecutorService virtualThreads = AsyncClassifier.newVirtualThreadExecutor();
+    			Object isVirtual = virtualThreads.submit(new Callable<Object>() {
+    				public Object call() throws Exception {
+    					return Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+    				}
+    			}).get();
+    			virtualThreads.shutdown();
+    			assertEquals("Runs on virtual threads", Boolean.TRUE, isVirtual);
+    		}
+    		System.setProperty("moltsen.NaiveBayes.virtual", "false");
+    		try {
+    			AsyncClassifier platform = new AsyncClassifier(compiled, 1, AsyncClassifier.RejectionPolicy.ABORT);
+    			assertFalse("Virtual threads turned off", platform.isVirtual());
+    			assertTrue("Same result on platform threads", Arrays.equals(expected, platform.classifyAsync(observations).get()));
+    			platform.shutdown();
+    		}
+    		finally {
+    			System.clearProperty("moltsen.NaiveBayes.virtual");
+    		}
+    		try {
+    			observations.put("Cough", "yes");
+    			async.classifyAsync(observations).get();
+    			assertTrue("Exception should happen", false);
+    		}
+    		catch (ExecutionException e) {
+    			assertTrue("Unknown feature", e.getCause() instanceof DataStructureException);
+    		}
+    		observations.remove("Cough");
+    		async.shutdown();
+
+    		// An executor which holds classifications until released:
+    		final CountDownLatch release = new CountDownLatch(1);
+    		Executor held = new Executor() {
+    			public void execute(final Runnable task) {
+    				new Thread() {
+    					public void run() {
+    						try {
+    							release.await();
+    						}
+    						catch (InterruptedException e) {
+    						}
+    						task.run();
+    					}
+    				}.start();
+    			}
+    		};
+    		AsyncClassifier aborting = new AsyncClassifier(compiled, 2, AsyncClassifier.RejectionPolicy.ABORT, held);
+    		AsyncClassifier callerRuns = new AsyncClassifier(compiled, 1, AsyncClassifier.RejectionPolicy.CALLER_RUNS, held);
+    		AsyncClassifier queuing = new AsyncClassifier(compiled, 1, AsyncClassifier.RejectionPolicy.QUEUE, 1, held);
+    		AsyncClassifier stopping = new AsyncClassifier(compiled, 1, AsyncClassifier.RejectionPolicy.QUEUE, 2, held);
+    		Future<double[]> first = aborting.classifyAsync(observations);
+    		Future<double[]> second = aborting.classifyAsync(observations);
+    		assertEquals("In flight", 2, aborting.getInFlightCount());
+    		try {
+    			aborting.classifyAsync(observations).get();
+    			assertTrue("Exception should happen", false);
+    		}
+    		catch (ExecutionException e) {
+    			assertTrue("Rejected", e.getCause() instanceof RejectedExecutionException);
+    		}
+    		assertEquals("Rejections", 1, aborting.getRejectedCount());
+
+    		Future<double[]> queued = callerRuns.classifyAsync(observations);
+    		Future<double[]> inCaller = callerRuns.classifyAsync(observations);
+    		assertTrue("Ran in caller", inCaller.isDone() && !queued.isDone());
+    		assertTrue("Same result in caller", Arrays.equals(expected, inCaller.get()));
+
+    		// Beyond the limit, requests are queued without blocking the caller, up to the queue limit:
+    		Future<double[]> started = queuing.classifyAsync(observations);
+    		Future<double[]> waiting = queuing.classifyAsync(observations);
+    		assertFalse("Waiting", waiting.isDone());
+    		assertEquals("Queued", 1, queuing.getQueuedCount());
+    		assertEquals("In flight", 1, queuing.getInFlightCount());
+    		try {
+    			queuing.classifyAsync(observations).get();
+    			assertTrue("Exception should happen", false);
+    		}
+    		catch (ExecutionException e) {
+    			assertTrue("Rejected when the queue is full", e.getCause() instanceof RejectedExecutionException);
+    		}
+    		assertEquals("Rejections", 1, queuing.getRejectedCount());
+    		assertEquals("Queued", 1, queuing.getQueuedCount());
+
+    		// Shutting down fails the queued requests, also on an executor of the caller:
+    		Future<double[]> running = stopping.classifyAsync(observations);
+    		Future<double[]> dropped1 = stopping.classifyAsync(observations);
+    		Future<double[]> dropped2 = stopping.classifyAsync(observations);
+    		assertEquals("Queued", 2, stopping.getQueuedCount());
+    		stopping.shutdown();
+    		assertEquals("Queue emptied", 0, stopping.getQueuedCount());
+    		assertEquals("Rejections", 2, stopping.getRejectedCount());
+    		for (Future<double[]> dropped : Arrays.asList(dropped1, dropped2, stopping.classifyAsync(observations))) {
+    			try {
+    				dropped.get();
+    				assertTrue("Exception should happen", false);
+    			}
+    			catch (ExecutionException e) {
+    				assertTrue("Rejected by shutdown", e.getCause() instanceof RejectedExecutionException);
+    			}
+    		}
+
+    		release.countDown();
+    		assertTrue("Same result", Arrays.equals(expected, started.get()));
+    		assertTrue("Same result after waiting", Arrays.equals(expected, waiting.get()));
+    		assertEquals("Queue empty", 0, queuing.getQueuedCount());
+    		assertTrue("In flight before the shutdown completes", Arrays.equals(expected, running.get()));
+    		assertTrue("Same result", Arrays.equals(expected, first.get()));
+    		assertTrue("Same result", Arrays.equals(expected, second.get()));
+    		assertTrue("Same result", Arrays.equals(expected, queued.get()));
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+
+    	try {
+    		new AsyncClassifier(c.compile(), 0, AsyncClassifier.RejectionPolicy.QUEUE);
+    		assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    	try {
+    		new AsyncClassifier(c.compile(), 1, AsyncClassifier.RejectionPolicy.QUEUE, -1, null);
+    		assertTrue("Exception should happen", false);
+    	}
+    	catch (DataStructureException e) {
+    	}
+    }
 }
@@ -0,0 +1,244 @@
+package moltsen.AI.NaiveBayes;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the binary format.
+ */
+public class NaiveBayesBinaryTest
+    extends TestCase
+{
+	NaiveBayesClassifier c;
+	File file;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public NaiveBayesBinaryTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( NaiveBayesBinaryTest.class );
+    }
+
+
+    /**
+     * Writes the test model to a temporary file.
+     */
+    protected void setUp() {
+    	try {
+    		InputStream in = getClass().getResourceAsStream("/testNB.json");
+    		c = NaiveBayesJson.read(in);
+    		in.close();
+
+    		file = File.createTempFile("testNB", ".nbb");
+    		NaiveBayesBinary.write(c, file);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    protected void tearDown() {
+    	file.delete();
+    }
+
+
+    /**
+     * Classifying from the mapped file should give the same results as the
+     * compiled classifier in log-space, and nearly those of the classifier.
+     */
+    public void testMappedClassification() {
+    	HashMap<String, String> observations = new HashMap<String, String>();
+    	observations.put("Fever", "yes");
+    	observations.put("Red spots", "no");
+
+    	try {
+    		BinaryClassifier b = NaiveBayesBinary.map(file);
+    		assertEquals("Class labels", Arrays.asList(c.getClassLabels()), Arrays.asList(b.getClassLabels()));
+
+    		Double[] expected = c.classify(observations);
+    		double[] exact = c.compile().classifyLogSpace(observations);
+    		double[] exactByIndex = c.compile().classifyLogSpace(b.encode(observations));
+    		double[] byName = b.classify(observations);
+    		double[] byIndex = b.classify(b.encode(observations));
+    		double[] into = new double[expected.length];
+    		b.classify(b.encode(observations), into);
+    		for (int i = 0; i < expected.length; i++) {
+    			assertEquals("Probability of " + c.getClassLabels()[i], expected[i].doubleValue(), byName[i], 0.0000001);
+    			assertEquals("Probability of " + c.getClassLabels()[i], exact[i], byName[i]);
+    			assertEquals("Probability of " + c.getClassLabels()[i], exactByIndex[i], byIndex[i]);
+    			assertEquals("Probability of " + c.getClassLabels()[i], exactByIndex[i], into[i]);
+    		}
+
+    		RankedLabel[] top = b.classifyTopK(observations, 2);
+    		RankedLabel[] compiledTop = c.compile().classifyTopK(observations, 2);
+    		assertEquals("Top 2", 2, top.length);
+    		for (int i = 0; i < top.length; i++) {
+    			assertEquals("Label " + i, compiledTop[i].getLabel(), top[i].getLabel());
+    			assertEquals("Score " + i, compiledTop[i].getLogScore(), top[i].getLogScore());
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Reading the file should give the same model.
+     */
+    public void testRead() {
+    	try {
+    		NaiveBayesClassifier copy = NaiveBayesBinary.read(file);
+
+    		assertEquals("Features", Arrays.asList(c.getFeatures()), Arrays.asList(copy.getFeatures()));
+    		assertEquals("Prior probabilities", Arrays.asList(c.getPriorProbabilities()), Arrays.asList(copy.getPriorProbabilities()));
+    		for (String feature : c.getFeatures()) {
+    			assertEquals("States of " + feature, Arrays.asList(c.getStates(feature)), Arrays.asList(copy.getStates(feature)));
+    			for (String state : c.getStates(feature)) {
+    				assertEquals("Conditional probabilities of " + feature + "=" + state,
+    						Arrays.asList(c.getConditionalProbabilities(feature, state)),
+    						Arrays.asList(copy.getConditionalProbabilities(feature, state)));
+    			}
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Multinomial features should survive the binary format.
+     */
+    public void testMultinomialRoundTrip() {
+    	try {
+    		NaiveBayesClassifier m = new NaiveBayesClassifier();
+    		m.addClassLabel("Spam");
+    		m.addClassLabel("Ham");
+    		m.setPriorProbability("Spam", 0.5d);
+    		m.setPriorProbability("Ham", 0.5d);
+    		m.addFeature("Attachment");
+    		m.addState("Attachment", "yes");
+    		m.setConditionalProbability("Attachment", "yes", "Spam", 1d);
+    		m.setConditionalProbability("Attachment", "yes", "Ham", 1d);
+    		m.addMultinomialFeature("Words");
+    		m.addState("Words", "free");
+    		m.addState("Words", "meeting");
+    		m.setConditionalProbability("Words", "free", "Spam", 0.8d);
+    		m.setConditionalProbability("Words", "free", "Ham", 0.2d);
+    		m.setConditionalProbability("Words", "meeting", "Spam", 0.2d);
+    		m.setConditionalProbability("Words", "meeting", "Ham", 0.8d);
+    		NaiveBayesBinary.write(m, file);
+
+    		BinaryClassifier b = NaiveBayesBinary.map(file);
+    		assertFalse("Attachment is categorical", b.isMultinomial(0));
+    		assertTrue("Words is multinomial", b.isMultinomial(1));
+
+    		NaiveBayesClassifier copy = NaiveBayesBinary.read(file);
+    		assertFalse("Attachment is categorical", copy.isMultinomial("Attachment"));
+    		assertTrue("Words is multinomial", copy.isMultinomial("Words"));
+    		Evidence e = new Evidence().addTokens("Words", "free", 2).addTokens("Words", "meeting", 1);
+    		assertEquals("Probability of Spam", m.classify(e)[0], copy.classify(e)[0], 0.0000001);
+    		assertEquals("Probability of Spam from the file", m.compile().classify(e)[0], b.classify(e)[0]);
+
+    		// A long document does not underflow:
+    		assertEquals("Probability of Spam", 1.0d, b.classify(new Evidence().addTokens("Words", "free", 10000))[0], 0.0000001);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Other content should cause exception.
+     */
+    public void testInvalidContent() {
+    	try {
+    		new BinaryClassifier(ByteBuffer.wrap("{ \"format\": \"Naive Bayes Classifier v.1.0\" }".getBytes("UTF-8")));
+            assertTrue("Exception should happen", false);
+    	}
+    	catch (Exception e) {
+    	}
+    }
+
+
+    /**
+     * Classifying from an off-heap copy should give the same results as the classifier.
+     */
+    public void testOffHeapClassification() {
+    	HashMap<String, String> observations = new HashMap<String, String>();
+    	observations.put("Red spots", "yes");
+
+    	try {
+    		BinaryClassifier b = c.compileOffHeap();
+    		double[] expected = c.compile().classifyLogSpace(observations);
+    		double[] result = b.classify(observations);
+    		for (int i = 0; i < expected.length; i++) {
+    			assertEquals("Probability of " + c.getClassLabels()[i], expected[i], result[i]);
+    		}
+
+    		ByteBuffer buffer = NaiveBayesBinary.toDirectBuffer(c).order(ByteOrder.LITTLE_ENDIAN);
+    		int classCount = c.getClassLabels().length;
+    		int stateCount = 0;
+    		for (String feature : c.getFeatures()) {
+    			stateCount += c.getStates(feature).length;
+    		}
+    		long size = buffer.getLong(24) + NaiveBayesBinary.offsetsSize(NaiveBayesBinary.VERSION, c.getFeatures().length) + 8L * classCount + 8L * stateCount * classCount;
+    		assertEquals("8 bytes per probability", size, buffer.limit());
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Version 2 buffers, which also hold the logarithms, should still be read.
+     */
+    public void testVersion2() {
+    	HashMap<String, String> observations = new HashMap<String, String>();
+    	observations.put("Red spots", "yes");
+
+    	try {
+    		// The probabilities, followed by their logarithms:
+    		ByteBuffer current = NaiveBayesBinary.toDirectBuffer(c);
+    		int probabilitiesOffset = (int) (current.duplicate().order(ByteOrder.LITTLE_ENDIAN).getLong(24) + NaiveBayesBinary.offsetsSize(2, c.getFeatures().length));
+    		ByteBuffer old = ByteBuffer.allocate(2 * current.limit() - probabilitiesOffset).order(ByteOrder.LITTLE_ENDIAN);
+    		old.put(current.duplicate());
+    		old.putInt(4, 2);
+    		for (int offset = probabilitiesOffset; offset < current.limit(); offset += 8) {
+    			old.putDouble(Math.log(old.getDouble(offset)));
+    		}
+    		old.flip();
+
+    		BinaryClassifier b = new BinaryClassifier(old);
+    		assertEquals("Class labels", c.getClassLabels().length, b.getClassLabels().length);
+    		assertTrue("Probabilities", Arrays.equals(c.compile().classifyLogSpace(observations), b.classify(observations)));
+    		assertEquals("Top label", c.compile().classifyTopK(observations, 1)[0].getLabel(), b.classifyTopK(observations, 1)[0].getLabel());
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+}
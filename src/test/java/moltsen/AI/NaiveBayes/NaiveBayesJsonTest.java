@@ -0,0 +1,145 @@
+package moltsen.AI.NaiveBayes;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for reading and writing the JSON format.
+ */
+public class NaiveBayesJsonTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public NaiveBayesJsonTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( NaiveBayesJsonTest.class );
+    }
+
+
+    /**
+     * The test model should be read with its structure and probabilities.
+     */
+    public void testRead() {
+    	try {
+    		InputStream in = getClass().getResourceAsStream("/testNB.json");
+    		NaiveBayesClassifier c = NaiveBayesJson.read(in);
+    		in.close();
+    		c.validate();
+
+    		assertEquals("Class labels", Arrays.asList("Flu", "Measles", "No disease"), Arrays.asList(c.getClassLabels()));
+    		assertEquals("Features", Arrays.asList("Fever", "Red spots"), Arrays.asList(c.getFeatures()));
+    		assertEquals("States of Red spots", Arrays.asList("yes", "no"), Arrays.asList(c.getStates("Red spots")));
+       		assertEquals("Prior of Measles", 0.07d, c.getPriorProbabilities()[1]);
+       		assertEquals("Conditional of Red spots=no given Flu", 0.99d, c.getConditionalProbabilities("Red spots", "no")[0]);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Writing and reading a model should give the same model, also with odd names.
+     */
+    public void testRoundTrip() {
+    	try {
+    		InputStream in = getClass().getResourceAsStream("/testNB.json");
+    		NaiveBayesClassifier c = NaiveBayesJson.read(in);
+    		in.close();
+    		c.addFeature("Say \"aah\"\\\n");
+    		c.addState("Say \"aah\"\\\n", "\u00e6\u00f8\u00e5");
+
+    		StringWriter out = new StringWriter();
+    		NaiveBayesJson.write(c, out);
+    		NaiveBayesClassifier copy = NaiveBayesJson.read(new StringReader(out.toString()));
+
+    		assertEquals("Class labels", Arrays.asList(c.getClassLabels()), Arrays.asList(copy.getClassLabels()));
+    		assertEquals("Features", Arrays.asList(c.getFeatures()), Arrays.asList(copy.getFeatures()));
+    		assertEquals("Prior probabilities", Arrays.asList(c.getPriorProbabilities()), Arrays.asList(copy.getPriorProbabilities()));
+    		for (String feature : c.getFeatures()) {
+    			for (String state : c.getStates(feature)) {
+    				assertEquals("Conditional probabilities of " + feature + "=" + state,
+    						Arrays.asList(c.getConditionalProbabilities(feature, state)),
+    						Arrays.asList(copy.getConditionalProbabilities(feature, state)));
+    			}
+    		}
+
+    		copy.removeFeature("Say \"aah\"\\\n");
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "yes");
+    		assertEquals("Probability of Flu", 0.2727272727272727d, copy.classify(observations)[0], 0.0000001);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Documents in other formats, or with wrong numbers of probabilities, should cause exception.
+     */
+    public void testInvalidDocuments() {
+    	String[] documents = {
+    		"{ \"format\": \"Something else\" }",
+    		"{ \"format\": \"Naive Bayes Classifier v.1.0\", \"classLabels\": [ \"A\", \"B\" ], \"priorProbabilities\": [ 1.0 ] }",
+    		"{ \"format\": \"Naive Bayes Classifier v.1.0\", \"classLabels\": [ \"A\" ], \"features\": [ { \"name\": \"F\", \"states\": [ { \"label\": \"s\", \"conditionalProbabilities\": [ 0.5, 0.5 ] } ] } ] }",
+    		"{ \"format\": \"Naive Bayes Classifier v.1.0\", \"classLabels\": [ \"A\" ",
+    	};
+    	for (String document : documents) {
+    		try {
+    			NaiveBayesJson.read(new StringReader(document));
+                assertTrue("Exception should happen: " + document, false);
+    		}
+    		catch (Exception e) {
+    		}
+    	}
+    }
+
+
+    /**
+     * NaN and infinite numbers are not JSON, so writing them should cause exception
+     * before anything is written.
+     */
+    public void testNonFiniteNumbers() {
+    	try {
+    		InputStream in = getClass().getResourceAsStream("/testNB.json");
+    		NaiveBayesClassifier c = NaiveBayesJson.read(in);
+    		in.close();
+
+    		for (double number : new double[] { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY }) {
+    			NaiveBayesClassifier copy = new NaiveBayesClassifier(c);
+    			copy.setConditionalProbability(0, 0, 0, number);
+    			StringWriter out = new StringWriter();
+    			try {
+    				NaiveBayesJson.write(copy, out);
+    				assertTrue("Exception should happen", false);
+    			}
+    			catch (DataStructureException e) {
+    			}
+    			assertEquals("Nothing written", "", out.toString());
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+}
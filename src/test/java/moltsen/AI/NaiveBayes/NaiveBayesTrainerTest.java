@@ -0,0 +1,297 @@
+package moltsen.AI.NaiveBayes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the trainer.
+ */
+public class NaiveBayesTrainerTest
+    extends TestCase
+{
+	NaiveBayesTrainer t;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public NaiveBayesTrainerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( NaiveBayesTrainerTest.class );
+    }
+
+
+    /**
+     * Train a diagnostic scenario with 4 patients with the flu and 6 without any disease.
+     */
+    protected void setUp() {
+    	t = new NaiveBayesTrainer();
+
+    	try {
+    		for (int i = 0; i < 10; i++) {
+    			HashMap<String, String> observations = new HashMap<String, String>();
+    			if (i < 4) {
+    				observations.put("Fever", i < 3 ? "yes" : "no");
+    				t.train("Flu", observations);
+    			}
+    			else {
+    				observations.put("Fever", "no");
+    				if (i < 6) { observations.put("Red spots", "yes"); }
+    				t.train("No disease", observations);
+    			}
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Without smoothing the probabilities are the relative frequencies.
+     */
+    public void testMaximumLikelihood() {
+    	try {
+    		t.setSmoothing(0d);
+    		NaiveBayesClassifier c = t.toClassifier();
+    		c.validate();
+
+    		assertEquals("Observations", 10, t.getObservationCount());
+       		assertEquals("Prior of Flu", 0.4d, c.getPriorProbabilities()[0], 0.0000001);
+       		assertEquals("Prior of No disease", 0.6d, c.getPriorProbabilities()[1], 0.0000001);
+       		assertEquals("Conditional of Fever=yes given Flu", 0.75d, c.getConditionalProbabilities("Fever", "yes")[0], 0.0000001);
+       		assertEquals("Conditional of Fever=yes given No disease", 0.0d, c.getConditionalProbabilities("Fever", "yes")[1], 0.0000001);
+
+       		// Red spots were never observed with Flu, so nothing is known:
+       		assertEquals("Conditional of Red spots=yes given Flu", 1.0d, c.getConditionalProbabilities("Red spots", "yes")[0], 0.0000001);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Laplace smoothing adds one to every count.
+     */
+    public void testLaplaceSmoothing() {
+    	try {
+    		NaiveBayesClassifier c = t.toClassifier();
+    		c.validate();
+
+       		assertEquals("Prior of Flu", 5d / 12d, c.getPriorProbabilities()[0], 0.0000001);
+       		assertEquals("Conditional of Fever=yes given Flu", 4d / 6d, c.getConditionalProbabilities("Fever", "yes")[0], 0.0000001);
+       		assertEquals("Conditional of Fever=yes given No disease", 1d / 8d, c.getConditionalProbabilities("Fever", "yes")[1], 0.0000001);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Training can continue after publishing, and new structure is added to the classifier.
+     */
+    public void testIncrementalPublishing() {
+    	try {
+    		NaiveBayesClassifier c = t.toClassifier();
+
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Fever", "high");
+    		t.train("Measles", observations);
+    		t.publish(c);
+    		c.validate();
+
+    		assertEquals("Class labels", 3, c.getClassLabels().length);
+    		assertEquals("States of Fever", 3, c.getStates("Fever").length);
+       		assertEquals("Prior of Measles", 2d / 14d, c.getPriorProbabilities()[2], 0.0000001);
+       		assertEquals("Conditional of Fever=high given Measles", 2d / 4d, c.getConditionalProbabilities("Fever", "high")[2], 0.0000001);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Parallel training should count exactly like sequential training.
+     */
+    public void testParallelTraining() {
+    	ArrayList<String> labels = new ArrayList<String>();
+    	ArrayList<HashMap<String, String>> observations = new ArrayList<HashMap<String, String>>();
+    	for (int i = 0; i < 20000; i++) {
+    		HashMap<String, String> observation = new HashMap<String, String>();
+    		observation.put("Fever", i % 3 == 0 ? "yes" : "no");
+    		observation.put("Red spots", i % 5 == 0 ? "yes" : "no");
+    		observations.add(observation);
+    		labels.add(i % 7 == 0 ? "Measles" : "Flu");
+    	}
+
+    	try {
+    		NaiveBayesTrainer sequential = new NaiveBayesTrainer();
+    		sequential.train(labels, observations);
+    		NaiveBayesTrainer parallel = new NaiveBayesTrainer();
+    		parallel.trainParallel(labels, observations);
+
+    		assertEquals("Observations", sequential.getObservationCount(), parallel.getObservationCount());
+
+    		// Lists without random access, on a pool of its own:
+    		NaiveBayesTrainer linked = new NaiveBayesTrainer();
+    		ForkJoinPool pool = new ForkJoinPool(3);
+    		try {
+    			linked.trainParallel(new LinkedList<String>(labels), new LinkedList<HashMap<String, String>>(observations), pool);
+    		}
+    		finally {
+    			pool.shutdown();
+    		}
+    		assertEquals("Observations from linked lists", sequential.getObservationCount(), linked.getObservationCount());
+    		assertEquals("Prior probabilities from linked lists", Arrays.asList(sequential.toClassifier().getPriorProbabilities()), Arrays.asList(linked.toClassifier().getPriorProbabilities()));
+
+    		NaiveBayesClassifier expected = sequential.toClassifier();
+    		NaiveBayesClassifier result = parallel.toClassifier();
+    		assertEquals("Prior probabilities", Arrays.asList(expected.getPriorProbabilities()), Arrays.asList(result.getPriorProbabilities()));
+    		for (String feature : expected.getFeatures()) {
+    			for (String state : expected.getStates(feature)) {
+    				assertEquals("Conditional probabilities of " + feature + "=" + state,
+    						Arrays.asList(expected.getConditionalProbabilities(feature, state)),
+    						Arrays.asList(result.getConditionalProbabilities(feature, state)));
+    			}
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Token counts are counted as many times as they occur.
+     */
+    public void testMultinomialTraining() {
+    	t = new NaiveBayesTrainer();
+    	try {
+    		t.setSmoothing(0d);
+    		t.train("Spam", new Evidence().addTokens("Words", "free", 3).addTokens("Words", "money", 1));
+    		t.train("Ham", new Evidence().addTokens("Words", "meeting", 2).addTokens("Words", "free", 2));
+    		NaiveBayesClassifier c = t.toClassifier();
+    		c.validate();
+
+    		assertTrue("Words is multinomial", c.isMultinomial("Words"));
+       		assertEquals("Conditional of free given Spam", 0.75d, c.getConditionalProbabilities("Words", "free")[0], 0.0000001);
+       		assertEquals("Conditional of free given Ham", 0.5d, c.getConditionalProbabilities("Words", "free")[1], 0.0000001);
+       		assertEquals("Conditional of money given Ham", 0.0d, c.getConditionalProbabilities("Words", "money")[1], 0.0000001);
+
+    		try {
+    			t.train("Spam", new Evidence().setState("Words", "free"));
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Measurements give the mean and population variance per label, also when
+     * trained in parts and merged.
+     */
+    public void testContinuousTraining() {
+    	t = new NaiveBayesTrainer();
+    	NaiveBayesTrainer other = new NaiveBayesTrainer();
+    	try {
+    		t.train("A", new Evidence().setMeasurement("Value", 1d));
+    		t.train("A", new Evidence().setMeasurement("Value", 2d));
+    		other.train("A", new Evidence().setMeasurement("Value", 3d));
+    		other.train("A", new Evidence().setMeasurement("Value", 4d));
+    		other.train("B", new Evidence().setMeasurement("Value", 10d));
+    		other.train("C", new Evidence());
+    		t.merge(other);
+    		NaiveBayesClassifier c = t.toClassifier();
+    		c.validate();
+
+    		assertTrue("Value is continuous", c.isContinuous("Value"));
+       		assertEquals("Mean given A", 2.5d, c.getMeans("Value")[0], 0.0000001);
+       		assertEquals("Variance given A", 1.25d, c.getVariances("Value")[0], 0.0000001);
+       		assertEquals("Mean given B", 10d, c.getMeans("Value")[1], 0.0000001);
+       		assertTrue("Variance given B is smoothed", c.getVariances("Value")[1] > 0d);
+
+       		// C was never measured, so it gets the distribution of all measurements:
+       		assertEquals("Mean given C", 4d, c.getMeans("Value")[2], 0.0000001);
+       		assertEquals("Variance given C", 10d, c.getVariances("Value")[2], 0.0000001);
+
+    		try {
+    			t.train("A", new Evidence().setState("Value", "high"));
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+
+    		// Nor with a plain map, alone or in a batch, where nothing is counted:
+    		HashMap<String, String> observations = new HashMap<String, String>();
+    		observations.put("Value", "high");
+    		try {
+    			t.train("A", observations);
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+    		HashMap<String, String> categorical = new HashMap<String, String>();
+    		categorical.put("Fever", "yes");
+    		try {
+    			t.trainParallel(Arrays.asList("A", "B"), Arrays.asList(categorical, observations));
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+    		assertEquals("Nothing counted", 6, t.getObservationCount());
+    		t.toClassifier().validate();
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * Negative, infinite or NaN smoothing, and variance smoothing of 0 or less, should cause exception.
+     */
+    public void testInvalidSmoothing() {
+    	for (double smoothing : new double[] { -1d, Double.NaN, Double.POSITIVE_INFINITY }) {
+    		try {
+    			t.setSmoothing(smoothing);
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+    	}
+    	for (double varianceSmoothing : new double[] { 0d, -1e-9d, Double.NaN, Double.POSITIVE_INFINITY }) {
+    		try {
+    			t.setVarianceSmoothing(varianceSmoothing);
+                assertTrue("Exception should happen", false);
+    		}
+    		catch (DataStructureException e) {
+    		}
+    	}
+    	assertEquals("Smoothing unchanged", 1d, t.getSmoothing());
+    	assertEquals("Variance smoothing unchanged", 1e-9d, t.getVarianceSmoothing());
+    }
+}
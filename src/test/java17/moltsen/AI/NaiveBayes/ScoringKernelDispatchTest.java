@@ -0,0 +1,176 @@
+package moltsen.AI.NaiveBayes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the Java 17 scoring kernel. The tests run against the Java 8
+ * classes, so the classes are packed into a multi-release jar, and the kernel
+ * is loaded from it the way a Java 17 runtime loads it from the library.
+ */
+public class ScoringKernelDispatchTest
+    extends TestCase
+{
+	File jar;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ScoringKernelDispatchTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ScoringKernelDispatchTest.class );
+    }
+
+
+    protected void setUp() {
+    	try {
+    		jar = File.createTempFile("ScoringKernelDispatchTest", ".jar");
+    		jar.deleteOnExit();
+    		writeMultiReleaseJar(new File(ScoringKernel.class.getProtectionDomain().getCodeSource().getLocation().toURI()), jar);
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * The Java 17 kernel should be picked from the jar, dispatch to the Vector
+     * API when the incubator module is added, and give the results of the
+     * portable loops.
+     */
+    public void testVersionedDispatcher() {
+    	try (URLClassLoader loader = newLoader()) {
+    		assertTrue("Java 17 version", loader.getResource("moltsen/AI/NaiveBayes/ScoringKernel.class").toString().contains("META-INF/versions/17/"));
+
+    		Class<?> kernel = loader.loadClass("moltsen.AI.NaiveBayes.ScoringKernel");
+    		assertFalse("Not the Java 8 version", kernel == ScoringKernel.class);
+    		assertFalse("Java 8 version is portable", ScoringKernel.isVectorized());
+    		boolean vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    		assertEquals("Vectorized when the module is added", vectorModule, invoke(kernel, "isVectorized"));
+
+    		Random random = new Random(17);
+    		for (int length : new int[] { 1, 3, 8, 37, 100 }) {
+    			double[] table = new double[length + 5];
+    			double[] scores = new double[length];
+    			for (int i = 0; i < table.length; i++) {
+    				table[i] = Math.log(random.nextDouble());
+    			}
+    			for (int i = 0; i < scores.length; i++) {
+    				scores[i] = random.nextGaussian();
+    			}
+
+    			double[] expected = scores.clone();
+    			double[] actual = scores.clone();
+    			ScoringKernel.addRow(table, 5, expected, length);
+    			invoke(kernel, "addRow", table, 5, actual, length);
+    			assertTrue("addRow of " + length, Arrays.equals(expected, actual));
+
+    			ScoringKernel.addScaledRow(table, 2, 3d, expected, length);
+    			invoke(kernel, "addScaledRow", table, 2, 3d, actual, length);
+    			assertTrue("addScaledRow of " + length, Arrays.equals(expected, actual));
+
+    			ScoringKernel.multiplyRow(table, 1, expected, length);
+    			invoke(kernel, "multiplyRow", table, 1, actual, length);
+    			assertTrue("multiplyRow of " + length, Arrays.equals(expected, actual));
+    		}
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    }
+
+
+    /**
+     * The system property should keep the portable loops.
+     */
+    public void testVectorDisabled() {
+    	System.setProperty("moltsen.NaiveBayes.vector", "false");
+    	try (URLClassLoader loader = newLoader()) {
+    		Class<?> kernel = loader.loadClass("moltsen.AI.NaiveBayes.ScoringKernel");
+    		assertEquals("Portable loops", Boolean.FALSE, invoke(kernel, "isVectorized"));
+    	}
+    	catch (Exception e) {
+            assertTrue("Exception should not happen: " + e.getMessage(), false);
+    	}
+    	finally {
+    		System.clearProperty("moltsen.NaiveBayes.vector");
+    	}
+    }
+
+
+    private URLClassLoader newLoader() throws Exception {
+    	return new URLClassLoader(new URL[] { jar.toURI().toURL() }, ClassLoader.getPlatformClassLoader());
+    }
+
+
+    private static Object invoke(Class<?> kernel, String name, Object... args) throws Exception {
+    	for (Method method : kernel.getDeclaredMethods()) {
+    		if (method.getName().equals(name) && method.getParameterCount() == args.length
+    				&& (args.length == 0 || method.getParameterTypes()[0] == double[].class)) {
+    			method.setAccessible(true);
+    			return method.invoke(null, args);
+    		}
+    	}
+    	throw new NoSuchMethodException(name);
+    }
+
+
+    /**
+     * Packs the compiled classes, including META-INF/versions, into a jar with
+     * a multi-release manifest.
+     */
+    private static void writeMultiReleaseJar(File classes, File jar) throws Exception {
+    	Manifest manifest = new Manifest();
+    	manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    	manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+
+    	Path root = classes.toPath();
+    	List<Path> files = new ArrayList<Path>();
+    	try (Stream<Path> walk = Files.walk(root)) {
+    		Iterator<Path> paths = walk.iterator();
+    		while (paths.hasNext()) {
+    			files.add(paths.next());
+    		}
+    	}
+    	try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+    		for (Path file : files) {
+    			if (!Files.isRegularFile(file)) { continue; }
+    			String name = root.relativize(file).toString().replace(File.separatorChar, '/');
+    			if (name.equals("META-INF/MANIFEST.MF")) { continue; }
+    			out.putNextEntry(new JarEntry(name));
+    			Files.copy(file, out);
+    			out.closeEntry();
+    		}
+    	}
+    }
+}